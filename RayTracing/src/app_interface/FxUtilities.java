@@ -0,0 +1,108 @@
+package app_interface;
+
+import java.io.File;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+
+
+// The utilities of the interface that use JavaFX, kept apart from Utilities and IntBufferWrapper
+// so the headless renderer does not load JavaFX
+class FxUtilities {
+    static String openFileChooser(Stage stage, String fileExtension, String initialDirectory) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Select File");
+        
+        // Set initial directory (optional)
+        File initialDirFile = new File(initialDirectory);
+        if (initialDirFile.exists() && initialDirFile.isDirectory()) 
+        	fileChooser.setInitialDirectory(initialDirFile);
+        else
+        	fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
+        
+        // Set file extension filters (optional)
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Files", "*." + fileExtension)
+//                new FileChooser.ExtensionFilter("All Files", "*.*"),
+//                new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg", "*.gif"),
+//                new FileChooser.ExtensionFilter("Text Files", "*.txt")
+        );
+        
+        // Open the file chooser dialog
+        File selectedFile = fileChooser.showOpenDialog(stage);
+        
+        if (selectedFile != null) {
+//            return selectedFile.getAbsolutePath();
+			return Utilities.getRelativePath(selectedFile);
+        } else {
+            return null;
+        }
+    }	
+    
+    static String saveFileChooser(Stage stage, String fileExtension, String initialDirectory) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save File");
+        
+        // Set initial directory (optional)
+        File initialDirFile = new File(initialDirectory);
+        if (initialDirFile.exists() && initialDirFile.isDirectory()) 
+        	fileChooser.setInitialDirectory(initialDirFile);
+        else
+        	fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
+        
+        // Set file extension filter
+        fileChooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("Files", "*." + fileExtension)
+        );
+        
+        // Set initial file name (optional)
+        fileChooser.setInitialFileName("untitled." + fileExtension);
+        
+        // Open the file chooser dialog
+        File selectedFile = fileChooser.showSaveDialog(stage);
+        
+        if (selectedFile != null) {
+//            return selectedFile.getAbsolutePath();
+			return Utilities.getRelativePath(selectedFile);
+        } else {
+            return null;
+        }
+    }
+
+    // Method to write text on the IntBuffer of target at (x, y) with specified height and color
+    static void writeText(IntBufferWrapper target, String text, int x, int y, int textHeight, float r, float g, float b) {
+        int imageWidth = target.getImageWidth();
+        int imageHeight = target.getImageHeight();
+        Canvas canvas = new Canvas(imageWidth, imageHeight);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+
+        // Set the font size
+        gc.setFont(new javafx.scene.text.Font(textHeight));
+        // Set the text color
+        gc.setFill(Color.rgb((int)(r*255), (int)(g*255), (int)(b*255)));
+
+        // Draw the text at the specified (x, y) position
+        gc.fillText(text, x, y + textHeight);
+
+        // Create a WritableImage to extract pixel data
+        WritableImage writableImage = new WritableImage(imageWidth, imageHeight);
+        canvas.snapshot(null, writableImage);
+        PixelReader pixelReader = writableImage.getPixelReader();
+
+        // Transfer pixel data from the WritableImage to the IntBuffer
+        for (int j = 0; j < imageHeight; j++) {
+            for (int i = 0; i < imageWidth; i++) {
+                int argb = pixelReader.getArgb(i, j);
+                if(argb!=-1)
+//                	intBuffer.put(j * imageWidth + i, argb);
+                    target.setPixel(i, imageHeight - j - 1, r, g, b);
+                	
+            }
+        }
+    }
+}
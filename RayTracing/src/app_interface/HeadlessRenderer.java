@@ -0,0 +1,183 @@
+package app_interface;
+
+import java.io.IOException;
+
+import your_code.AcceleratorEnum;
+import your_code.RenderStatistics;
+import your_code.TracerEnum;
+import your_code.WorldModel;
+
+/**
+ * The {@code HeadlessRenderer} class renders a model file into a BMP image
+ * from the command line, without the JavaFX interface. It is meant for
+ * machines without a display, e.g. batch jobs on render nodes, so it neither
+ * reads nor writes the parameters file of the interface and does not load any
+ * JavaFX class.
+ *
+ * <pre>
+ * java app_interface.HeadlessRenderer &lt;model file&gt; &lt;exercise&gt; &lt;depth&gt; &lt;width&gt;x&lt;height&gt; &lt;output bmp&gt; [threads] [max samples per pixel]
+ * </pre>
+ *
+ * The exercise is the name of an {@link ExerciseEnum} constant, e.g.
+ * {@code EX_8___Transparency}. The wall time of the render and the number of
+ * primary rays per second are printed when the image is written. With a
+ * maximum of more than one sample per pixel the image is anti-aliased, see
+ * {@link TileRenderEngine#setMaxSamplesPerPixel(int)}, and the average number
+ * of samples per pixel is printed too. When a render worker fails no image is
+ * written and the exit code is 1.
+ *
+ * A frame that was already rendered with the same model, textures and settings
+ * is taken from the render cache on the local disk instead, see
+ * {@link RenderResultCache}. The system property {@code raytracing.renderCache}
+ * sets the directory of the cache, {@code off} turns it off.
+ *
+ * With the system property {@code raytracing.statistics=true} the rays of
+ * every kind, the sphere intersection tests and the texture samples of the
+ * render are printed too, see {@link WorldModel#getStatistics()}. The system
+ * property {@code raytracing.accelerator} selects the acceleration structure
+ * over the spheres by the name of an {@link AcceleratorEnum} constant, e.g.
+ * {@code grid}, the default is {@code bvh}. The system property
+ * {@code raytracing.tracer} selects the ray tracer by the name of a
+ * {@link TracerEnum} constant, e.g. {@code wavefront}, the default is
+ * {@code recursive}. With the system property
+ * {@code raytracing.russianRoulette=true} the rays with a negligible weight are
+ * traced with the Russian roulette instead of being dropped, see
+ * {@link WorldModel#setRussianRoulette(boolean)}.
+ */
+public class HeadlessRenderer {
+
+	private static void printUsage() {
+		System.err.println("Usage: java app_interface.HeadlessRenderer <model file> <exercise> <depth> <width>x<height> <output bmp> [threads] [max samples per pixel]");
+		System.err.println("Exercises:");
+		for (ExerciseEnum exercise : ExerciseEnum.values())
+			System.err.println("  " + exercise.name() + "  (" + exercise.getDescription() + ")");
+	}
+
+	// The model without its textures, null if it cannot be parsed, the load of the world model reports the error
+	private static Model parseModel(String modelFileName) {
+		try {
+			return Model.parse(modelFileName);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	// The key of the frame in the render cache, null if the frame is not cached
+	private static String renderCacheKey(Model model, ExerciseEnum exercise, int depthOfRayTracing, int imageWidth,
+			int imageHeight, int maxSamplesPerPixel, boolean russianRoulette) {
+		if (model == null)
+			return null;
+		try {
+			return RenderResultCache.key(model, exercise, depthOfRayTracing, imageWidth, imageHeight, maxSamplesPerPixel,
+					russianRoulette);
+		} catch (IOException e) {
+			System.err.println("The frame is not cached, a texture file cannot be read: " + e.getMessage());
+			return null;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 5 || args.length > 7) {
+			printUsage();
+			System.exit(2);
+		}
+		String modelFileName = args[0];
+		String outputFileName = args[4];
+		ExerciseEnum exercise;
+		int depthOfRayTracing;
+		int imageWidth;
+		int imageHeight;
+		int threadsCount = Runtime.getRuntime().availableProcessors();
+		int maxSamplesPerPixel = 1;
+		AcceleratorEnum accelerator;
+		TracerEnum tracer;
+		boolean russianRoulette = Boolean.getBoolean("raytracing.russianRoulette");
+		try {
+			accelerator = AcceleratorEnum.valueOf(System.getProperty("raytracing.accelerator", "bvh").toUpperCase());
+			tracer = TracerEnum.valueOf(System.getProperty("raytracing.tracer", "recursive").toUpperCase());
+			exercise = ExerciseEnum.valueOf(args[1]);
+			depthOfRayTracing = Integer.parseInt(args[2]);
+			String[] resolution = args[3].toLowerCase().split("x");
+			if (resolution.length != 2)
+				throw new IllegalArgumentException("The resolution must be given as <width>x<height>: " + args[3]);
+			imageWidth = Integer.parseInt(resolution[0]);
+			imageHeight = Integer.parseInt(resolution[1]);
+			if (args.length >= 6)
+				threadsCount = Integer.parseInt(args[5]);
+			if (args.length == 7)
+				maxSamplesPerPixel = Integer.parseInt(args[6]);
+			if (depthOfRayTracing < 0 || imageWidth < 2 || imageHeight < 2 || threadsCount < 1 || maxSamplesPerPixel < 1)
+				throw new IllegalArgumentException("The depth must not be negative, the image must be at least 2x2 and there must be at least one thread and one sample per pixel.");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+			return;
+		}
+
+		// a frame in the render cache is written without loading the textures of the model
+		long cacheStartTime = System.nanoTime();
+		IntBufferWrapper intBufferWrapper = new IntBufferWrapper(imageWidth, imageHeight);
+		RenderResultCache renderCache = RenderResultCache.openDefault();
+		if (renderCache != null) {
+			String cacheKey = renderCacheKey(parseModel(modelFileName), exercise, depthOfRayTracing, imageWidth, imageHeight, maxSamplesPerPixel,
+					russianRoulette);
+			if (cacheKey != null && renderCache.load(cacheKey, intBufferWrapper.getIntBuffer())) {
+				Utilities.saveIntBufferAsBMP(intBufferWrapper.getIntBuffer(), imageWidth, imageHeight, outputFileName);
+				System.out.printf("Loaded %s (%s, depth %d, %dx%d) from the render cache in %.3f s%n",
+						modelFileName, exercise.name(), depthOfRayTracing, imageWidth, imageHeight,
+						(System.nanoTime() - cacheStartTime) / 1e9);
+				return;
+			}
+		}
+
+		// no error logger, its window is a part of the JavaFX interface
+		WorldModel worldModel = new WorldModel(imageWidth, imageHeight, null);
+		worldModel.setAccelerator(accelerator);
+		if (!worldModel.load(modelFileName)) {
+			System.err.println("Failed to load the model file: " + modelFileName);
+			System.exit(1);
+		}
+		worldModel.setExercise(exercise);
+		worldModel.setRenderingParams(depthOfRayTracing);
+		worldModel.setTracer(tracer);
+		worldModel.setRussianRoulette(russianRoulette);
+		boolean statistics = Boolean.getBoolean("raytracing.statistics");
+		worldModel.setStatisticsEnabled(statistics);
+
+		TileRenderEngine renderEngine = new TileRenderEngine(threadsCount, TileRenderEngine.DEFAULT_TILE_SIZE);
+		renderEngine.setMaxSamplesPerPixel(maxSamplesPerPixel);
+		long startTime = System.nanoTime();
+		renderEngine.start(worldModel, intBufferWrapper);
+		renderEngine.awaitCompletion();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		double samplesPerPixel = renderEngine.getAverageSamplesPerPixel();
+		boolean complete = renderEngine.isComplete();
+		renderEngine.shutdown();
+		if (!complete) {
+			// the exception of the failed worker was printed, a partial image must not look like a result
+			System.err.println("The render failed, the image was not written: " + outputFileName);
+			System.exit(1);
+		}
+		if (renderCache != null) {
+			// the key of the model that was rendered, the file may have changed since the lookup
+			String cacheKey = renderCacheKey(worldModel.getModel(), exercise, depthOfRayTracing, imageWidth, imageHeight, maxSamplesPerPixel,
+					russianRoulette);
+			if (cacheKey != null)
+				renderCache.store(cacheKey, intBufferWrapper.getIntBuffer(), imageWidth, imageHeight);
+		}
+
+		Utilities.saveIntBufferAsBMP(intBufferWrapper.getIntBuffer(), imageWidth, imageHeight, outputFileName);
+		long primaryRays = (long) imageWidth * imageHeight;
+		System.out.printf("Rendered %s (%s, depth %d, %dx%d) on %d threads in %.3f s, %.0f primary rays per second%n",
+				modelFileName, exercise.name(), depthOfRayTracing, imageWidth, imageHeight, threadsCount,
+				seconds, primaryRays * samplesPerPixel / seconds);
+		if (maxSamplesPerPixel > 1)
+			System.out.printf("Anti-aliasing with up to %d samples per pixel, %.3f samples per pixel on average%n",
+					maxSamplesPerPixel, samplesPerPixel);
+		if (statistics) {
+			RenderStatistics renderStatistics = worldModel.getStatistics();
+			System.out.printf("%.0f rays per second, %s%n", renderStatistics.getTotalRays() / seconds, renderStatistics);
+		}
+	}
+}
@@ -9,12 +9,8 @@ import javax.imageio.ImageIO;
 
 import org.joml.Vector3f;
 
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
-
+// Must not refer to JavaFX classes, it is used by the headless renderer too.
+// Writing text into the image is in FxUtilities.
 class IntBufferWrapper {
     private IntBuffer intBuffer;
     private int imageWidth;
@@ -185,36 +181,6 @@ class IntBufferWrapper {
 //            }
 //        }
 //    }
-    // Method to write text on IntBuffer at (x, y) with specified height and color
-    void writeText(String text, int x, int y, int textHeight, float r, float g, float b) {
-        Canvas canvas = new Canvas(imageWidth, imageHeight);
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-
-        // Set the font size
-        gc.setFont(new javafx.scene.text.Font(textHeight));
-        // Set the text color
-        gc.setFill(Color.rgb((int)(r*255), (int)(g*255), (int)(b*255)));
-
-        // Draw the text at the specified (x, y) position
-        gc.fillText(text, x, y + textHeight);
-
-        // Create a WritableImage to extract pixel data
-        WritableImage writableImage = new WritableImage(imageWidth, imageHeight);
-        canvas.snapshot(null, writableImage);
-        PixelReader pixelReader = writableImage.getPixelReader();
-
-        // Transfer pixel data from the WritableImage to the IntBuffer
-        for (int j = 0; j < imageHeight; j++) {
-            for (int i = 0; i < imageWidth; i++) {
-                int argb = pixelReader.getArgb(i, j);
-                if(argb!=-1)
-//                	intBuffer.put(j * imageWidth + i, argb);
-                    setPixel(i, imageHeight - j - 1, r, g, b);
-                	
-            }
-        }
-    }
-
     
 //    // Method to set all pixels in the IntBuffer to a single RGB color
 //    void fillImageWithColor(int r, int g, int b) {
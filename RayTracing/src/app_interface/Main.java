@@ -1,8 +1,9 @@
 package app_interface;
 
+import java.io.IOException;
 import java.nio.IntBuffer;
 import java.nio.file.Paths;
-import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -31,6 +32,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import your_code.ErrorLogger;
+import your_code.RenderStatistics;
 import your_code.WorldModel;
 import your_code.YourSelectionEnum;
 
@@ -54,6 +56,20 @@ public class Main extends Application {
 	// The 3D model class that handles rendering
 	private WorldModel worldModel = new WorldModel(IMAGE_WIDTH, IMAGE_HEIGHT, errorLogger);
 
+	// Renders the image of the world model on worker threads
+	private TileRenderEngine renderEngine = new TileRenderEngine();
+
+	// The frames that were already rendered, null if the cache is turned off
+	private final RenderResultCache renderCache = RenderResultCache.openDefault();
+	// The key of the frame of the current render in the render cache, null if it is not stored when it completes
+	private volatile String renderCacheKey;
+	// Encodes and writes the frames to the render cache, so the timer does not wait for the disk
+	private final ExecutorService renderCacheWriter = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "render-cache-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	// User interface variables
 
 	// Image variables
@@ -68,9 +84,11 @@ public class Main extends Application {
 	private Label labelInfo1;
 	private Label labelInfo2;
 	private Label labelInfo3;
+	private Label labelInfo4;
 	private StringProperty labelInfo1StringProperty = new SimpleStringProperty("");
 	private StringProperty labelInfo2StringProperty = new SimpleStringProperty("");
 	private StringProperty labelInfo3StringProperty = new SimpleStringProperty("");
+	private StringProperty labelInfo4StringProperty = new SimpleStringProperty("");
 	private long labelLastUpdateTime = 0;
 
 	// comboboxes
@@ -88,6 +106,8 @@ public class Main extends Application {
 	private TimeMeasurement timeMeasurementRendering = new TimeMeasurement(10);
 	private TimeMeasurement timeMeasurementDisplay = new TimeMeasurement(10);
 	private int renderingPercentDone;
+	// the time of the render so far, it stops when the render ends
+	private double renderTimeInMs;
 
 	
 	// Loading the model and creating the window method
@@ -139,10 +159,12 @@ public class Main extends Application {
 		labelInfo1 = new Label("");
 		labelInfo2 = new Label("");
 		labelInfo3 = new Label("");
+		labelInfo4 = new Label("");
 		// Bind labels to the properties
 		labelInfo1.textProperty().bind(labelInfo1StringProperty);
 		labelInfo2.textProperty().bind(labelInfo2StringProperty);
 		labelInfo3.textProperty().bind(labelInfo3StringProperty);
+		labelInfo4.textProperty().bind(labelInfo4StringProperty);
 
 		// Exercise label and combobox
 		Label labelExercise = new Label("Exercise: ");
@@ -167,7 +189,7 @@ public class Main extends Application {
 		labelOpenLog.textProperty().bind(labelOpenLogProperty);
 				
 		// combining button and combobox row with image and lables
-		VBox vbox = new VBox(buttonRow, imageView, labelInfo1, labelInfo2, labelInfo3, hboxExercise, hboxOpenLog);
+		VBox vbox = new VBox(buttonRow, imageView, labelInfo1, labelInfo2, labelInfo4, labelInfo3, hboxExercise, hboxOpenLog);
 
 		// creating scene setting the stage
 		Scene scene = new Scene(vbox);
@@ -197,6 +219,9 @@ public class Main extends Application {
 		scene.setOnMouseDragged(this::handleMouseDragged);
 		scene.addEventFilter(ScrollEvent.SCROLL, this::handleMouseWheelScrolling);
 
+		// the interface shows a coarse image of the whole model first
+		renderEngine.setRenderOrder(TileRenderEngine.RenderOrder.PROGRESSIVE);
+
 		// Create animation timer
 		timer = new AnimationTimer() {
 			@Override
@@ -208,7 +233,7 @@ public class Main extends Application {
 		// Force rendering and label update after the stage is visible
 		Platform.runLater(() -> {
 			intBufferWrapper.fillImageWithColor(50f/255, 50f/255, 50f/255);
-			intBufferWrapper.writeText("Loading model...", IMAGE_WIDTH/2-150, IMAGE_HEIGHT/2-20, 40, 100f/255, 200f/255, 100f/255);
+			FxUtilities.writeText(intBufferWrapper, "Loading model...", IMAGE_WIDTH/2-150, IMAGE_HEIGHT/2-20, 40, 100f/255, 200f/255, 100f/255);
 			updateDisplay();
 
 			ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
@@ -217,6 +242,8 @@ public class Main extends Application {
 				imageLoaded = worldModel.load(savedParams.getModelFileName());
 				worldModel.setRenderingParams(savedParams.getDepthOfRayTracing());
 				worldModel.setExercise(savedParams.getExercise());
+				// the rays per second label counts the work of the render
+				worldModel.setStatisticsEnabled(true);
 
 				startRender();
 			}, 0, TimeUnit.SECONDS);			
@@ -246,12 +273,13 @@ public class Main extends Application {
 		handleOpenFile();
 	}
 	private void handleOpenFile() {
-		String filePath = Utilities.openFileChooser(primaryStage, "model",
+		String filePath = FxUtilities.openFileChooser(primaryStage, "model",
 				Paths.get(savedParams.getModelFileName()).getParent().toString());
 		if (filePath != null) {
-			intBufferWrapper.writeText("Loading model...", IMAGE_WIDTH/2-150, IMAGE_HEIGHT/2-20, 40, 100f/255, 200f/255, 100f/255);
+			FxUtilities.writeText(intBufferWrapper, "Loading model...", IMAGE_WIDTH/2-150, IMAGE_HEIGHT/2-20, 40, 100f/255, 200f/255, 100f/255);
 			updateDisplay();
 
+			stopRedering();
 			ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
 			executor.schedule(() -> {
 				imageLoaded = worldModel.load(filePath);
@@ -272,7 +300,7 @@ public class Main extends Application {
 	}
 
 	private void handleSaveFile(ActionEvent event) {
-		String filePath = Utilities.saveFileChooser(primaryStage, "bmp", savedParams.getSaveImagePath());
+		String filePath = FxUtilities.saveFileChooser(primaryStage, "bmp", savedParams.getSaveImagePath());
 		if (filePath != null) {
 			intBufferWrapper.saveToBMP(filePath);
 			savedParams.setSaveImagePath(Paths.get(filePath).getParent().toString());
@@ -284,23 +312,32 @@ public class Main extends Application {
 	}
 	
 	
-	int counter;
-	RandomPixelIterable randomPixelIterable;
-	Iterator<Integer[]> iterator;
-
 	private void startRender() {
 		if (imageLoaded || savedParams.getExercise().ordinal() <= ExerciseEnum.EX_1_2_Colors_Color_space.ordinal()) {
-			counter = 0;
-			randomPixelIterable = new RandomPixelIterable(IMAGE_WIDTH, IMAGE_HEIGHT);
-			iterator = randomPixelIterable.iterator();
+			renderEngine.cancel();
 			intBufferWrapper.imageClear();
-			timer.start();
+			worldModel.resetStatistics();
+			renderTimeInMs = 0;
+			String cacheKey = renderCacheKey();
+			if (cacheKey != null && renderCache.load(cacheKey, intBuffer)) {
+				// the same frame was already rendered, it is shown without a render
+				renderCacheKey = null;
+				Platform.runLater(() -> {
+					renderingPercentDone = 100;
+					updateDisplay();
+					setDescriptionStrings();
+				});
+			} else {
+				renderCacheKey = cacheKey;
+				renderEngine.start(worldModel, intBufferWrapper);
+				timer.start();
+			}
 		} else {
 			Platform.runLater(() -> {
 				//System.err.println("Fail to load file.");
 				setDescriptionStrings();
 				intBufferWrapper.fillImageWithColor(50f/255, 50f/255, 50f/255);
-				intBufferWrapper.writeText("Fail to load model file !", IMAGE_WIDTH/2-200, IMAGE_HEIGHT/2-20, 40, 1f, 0, 0);
+				FxUtilities.writeText(intBufferWrapper, "Fail to load model file !", IMAGE_WIDTH/2-200, IMAGE_HEIGHT/2-20, 40, 1f, 0, 0);
 				updateDisplay();
 				handleOpenFile();
 			});
@@ -308,7 +345,20 @@ public class Main extends Application {
 		timeMeasurementRendering.start();
 	}
 
+	// The key of the frame of the current model and parameters in the render cache, null if the frame is not cached
+	private String renderCacheKey() {
+		if (renderCache == null || !imageLoaded)
+			return null;
+		try {
+			return RenderResultCache.key(worldModel.getModel(), savedParams.getExercise(), savedParams.getDepthOfRayTracing(),
+					IMAGE_WIDTH, IMAGE_HEIGHT, renderEngine.getMaxSamplesPerPixel(), worldModel.isRussianRoulette());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	private void stopRedering() {
+		renderEngine.cancel();
 		timer.stop();
 	}
 
@@ -324,25 +374,22 @@ public class Main extends Application {
 	boolean firstTime = true;
 	private void timerRender() {
 
-		// Rendering
-		while (System.nanoTime() - imageLastTimesUpdated < InterfaceDefaultParams.IMAGE_UPDATE_INTERVAL_IN_MS * 1_000_000) {
-			for (int i = 0; i < IMAGE_WIDTH; i++) {
-				if (!iterator.hasNext()) {
-					if (!imageLoaded && savedParams.getExercise().ordinal() <= ExerciseEnum.EX_1_2_Colors_Color_space.ordinal()) 
-						intBufferWrapper.writeText("Fail to load model file !", IMAGE_WIDTH/2-200, IMAGE_HEIGHT/2-20, 40, 1f, 0, 0);
-					timer.stop();
-					setDescriptionStrings();
-					break;
-				} else {
-					Integer[] indexPercentArray = iterator.next();
-					int imageIndex = indexPercentArray[0];
-					renderingPercentDone = indexPercentArray[1];
-					int imageX = imageIndex % IMAGE_WIDTH;
-					int imageY = imageIndex / IMAGE_WIDTH;
-					Vector3f pixelColor = worldModel.renderPixel(imageX, imageY);
-					intBufferWrapper.setPixel(imageX, imageY, pixelColor);
-				}
+		// Rendering is done by the render engine workers, the timer only follows its progress
+		renderingPercentDone = renderEngine.getPercentDone();
+		renderTimeInMs = timeMeasurementRendering.getTimeFromStart();
+		if (!renderEngine.isRendering()) {
+			// a cancelled render is not stored, the next render replaces its key
+			String cacheKey = renderCacheKey;
+			if (cacheKey != null && renderEngine.isComplete()) {
+				// a copy, the next render clears the image while the frame may still be written
+				IntBuffer frame = IntBuffer.wrap(intBuffer.array().clone());
+				renderCacheWriter.execute(() -> renderCache.store(cacheKey, frame, IMAGE_WIDTH, IMAGE_HEIGHT));
+				renderCacheKey = null;
 			}
+			if (!imageLoaded && savedParams.getExercise().ordinal() <= ExerciseEnum.EX_1_2_Colors_Color_space.ordinal()) 
+				FxUtilities.writeText(intBufferWrapper, "Fail to load model file !", IMAGE_WIDTH/2-200, IMAGE_HEIGHT/2-20, 40, 1f, 0, 0);
+			timer.stop();
+			setDescriptionStrings();
 		}
 
 		// Update labels
@@ -407,9 +454,21 @@ public class Main extends Application {
 				100f/(float)renderingPercentDone*timeMeasurementRendering.getTimeFromStart()/1000);
 	}
 
+	// The rays per second of the render, the counts are of the pixels rendered so far
+	private String descriptionString4() {
+		RenderStatistics statistics = worldModel.getStatistics();
+		double seconds = renderTimeInMs / 1000;
+		return String.format(
+				"Rays per second: %.0f. rays: %d primary, %d shadow, %d reflected, %d transmitted. sphere tests: %d",
+				seconds > 0 ? statistics.getTotalRays() / seconds : 0.0,
+				statistics.getPrimaryRays(), statistics.getShadowRays(), statistics.getReflectionRays(),
+				statistics.getTransmissionRays(), statistics.getSphereIntersectionTests());
+	}
+
 	private void setDescriptionStrings() {
 		labelInfo1StringProperty.set(descriptionString1());
 		labelInfo2StringProperty.set(descriptionString2());
+		labelInfo4StringProperty.set(descriptionString4());
 		
 		if(errorLogger.getTotalCount()>0)
 			labelOpenLogProperty.set(" Errors count: "+errorLogger.getTotalCount());
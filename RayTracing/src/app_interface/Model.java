@@ -8,12 +8,14 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.joml.Vector3f;
 
 /**
  * This class represents a model object containing information about spheres,
- * lights, materials, skybox image, sphere texture filenames, and a comment.
+ * planes, lights, materials, skybox image, sphere texture filenames, and a comment.
  */
 public class Model {
 	public String comment; // comment
@@ -29,6 +31,8 @@ public class Model {
 
 	public List<ModelSphere> spheres = new ArrayList<>(); // List of spheres
 
+	public List<ModelPlane> planes = new ArrayList<>(); // List of planes, e.g. the ground
+
 
 	
 	public List<SphereTexture> skyBoxImageSphereTextures = new ArrayList<>();// List of sphere texture objects
@@ -46,6 +50,56 @@ public class Model {
 		this(Files.readString(Paths.get(modelFilename)), false);
 	}
 
+	/**
+	 * Parses a model file without loading its textures, the textures are loaded
+	 * by {@link #loadTexturesAsync()} while the caller continues, e.g. with the
+	 * scene of the model.
+	 * 
+	 * @param modelFilename The filename of the model file.
+	 * @return the model, without textures
+	 * @throws IOException          If there is an error reading the model file.
+	 * @throws FileParsingException If there is an error parsing the model file
+	 *                              format.
+	 */
+	public static Model parse(String modelFilename) throws IOException, FileParsingException {
+		return new Model(Files.readString(Paths.get(modelFilename)), false, false);
+	}
+
+	/**
+	 * Starts loading the sphere textures of the model, all at the same time on
+	 * the pool of the texture decoders. When the returned future completes,
+	 * {@link #skyBoxImageSphereTextures} holds the textures.
+	 * 
+	 * @return the future textures in the order of
+	 *         {@link #sphereTextureFileNames}, it completes with a
+	 *         {@link RuntimeException} if a texture fails to load
+	 */
+	public CompletableFuture<List<SphereTexture>> loadTexturesAsync() {
+		List<CompletableFuture<SphereTexture>> textureLoads = new ArrayList<>();
+		for (String sphereTextureFileName : sphereTextureFileNames) {
+			CompletableFuture<SphereTexture> textureLoad;
+			try {
+				textureLoad = SphereTexture.loadAsync(sphereTextureFileName);
+			} catch (IOException e) {
+				textureLoad = CompletableFuture.failedFuture(e);
+			}
+			textureLoads.add(textureLoad.exceptionally(e -> {
+				String errorMessage = "At Model constructor from toStringStr.\n Fail to load texture file: \""
+						+ sphereTextureFileName + "\"";
+				System.err.println(errorMessage);
+				throw new RuntimeException(errorMessage);
+			}));
+		}
+		return CompletableFuture.allOf(textureLoads.toArray(new CompletableFuture<?>[0])).thenApply(loaded -> {
+			List<SphereTexture> textures = new ArrayList<>();
+			for (CompletableFuture<SphereTexture> textureLoad : textureLoads)
+				textures.add(textureLoad.join());
+			skyBoxImageSphereTextures.clear();
+			skyBoxImageSphereTextures.addAll(textures);
+			return textures;
+		});
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -69,6 +123,13 @@ public class Model {
 		for (ModelSphere sphere : spheres) {
 			sb.append(sphere + "\n");
 		}
+		// a model without planes is written as before the planes existed
+		if (!planes.isEmpty()) {
+			sb.append("\n");
+			for (ModelPlane plane : planes) {
+				sb.append(plane + "\n");
+			}
+		}
 		return sb.toString();
 	}
 
@@ -79,6 +140,10 @@ public class Model {
 	}
 
 	Model(String toStringStr, boolean stam) throws FileParsingException {
+		this(toStringStr, stam, true);
+	}
+
+	private Model(String toStringStr, boolean stam, boolean loadTextures) throws FileParsingException {
 		try (Scanner allStringScanner = new Scanner(toStringStr)) {
 			String line;
 			while (allStringScanner.hasNextLine()) {
@@ -115,6 +180,10 @@ public class Model {
 						ModelSphere sphere = new ModelSphere(line);
 						spheres.add(sphere);
 						break;
+					case "Plane":
+						ModelPlane plane = new ModelPlane(line);
+						planes.add(plane);
+						break;
 					default:
 						throw new RuntimeException("At Model constructor from toStringStr, line type \"" + lineType
 								+ "\" not legal. Failed to parse model file. line: \"" + line + "\" failed.");
@@ -128,15 +197,11 @@ public class Model {
 			throw new FileParsingException(errorMessage);
 		}
 
-		for (String sphereTextureFileName : sphereTextureFileNames) {
+		if (loadTextures) {
 			try {
-				skyBoxImageSphereTextures.add(new SphereTexture(sphereTextureFileName));
-			} catch (IOException e) {
-				String errorMessage = "At Model constructor from toStringStr.\n Fail to load texture file: \""
-						+ sphereTextureFileName + "\"";
-				System.err.println(errorMessage);
-				throw new RuntimeException("At Model constructor from toStringStr.\n Fail to load texture file: \""
-						+ sphereTextureFileName + "\"");
+				loadTexturesAsync().join();
+			} catch (CompletionException e) {
+				throw (RuntimeException) e.getCause();
 			}
 		}
 	}
@@ -211,6 +276,17 @@ public class Model {
 		} else
 			System.out.println("success - strings are equals.");
 
+		ModelPlane p1 = new ModelPlane(new Vector3f(1, -3, 2), new Vector3f(0, 1, 0), 2.5f, 1, 3);
+		System.out.println(p1);
+		ModelPlane p2 = new ModelPlane(p1.toString());
+		System.out.println(p2);
+		if (!p1.toString().equals(p2.toString())) {
+			System.err.println(
+					"toString of an object and the toString of the constucted object from its toString are not equal");
+			throw new Exception();
+		} else
+			System.out.println("success - strings are equals.");
+
 		ModelMaterial mirror1 = new ModelMaterial(0.0f, new Vector3f(1.0f, 1.0f, 1.0f), // Color
 				0.3f, new Vector3f(0.25f, 0.20725f, 0.20725f), new Vector3f(1.0f, 0.829f, 0.829f),
 				new Vector3f(0.296648f, 0.296648f, 0.296648f), 1000.0f, // Direct light
@@ -646,7 +722,7 @@ public class Model {
 		model.materials.add(mirror);
 
 		model.spheres.add(new ModelSphere(new Vector3f(0, -1f, -20f), 2f, 0, 0));
-		model.spheres.add(new ModelSphere(new Vector3f(0, -100003f, -20f), 100000f, 1, 0));
+		model.planes.add(new ModelPlane(new Vector3f(0, -3f, -20f), new Vector3f(0, 1, 0), 1f, 1, 0));
 
 		writeModelToFileIfChanged(fileName, model);
 
@@ -680,9 +756,9 @@ public class Model {
 
 		model.materials.add(mirror); // 0
 
-		model.spheres.add(new ModelSphere(new Vector3f(0f, -100003f, -12f), 100000f, 0, 0));
 		model.spheres.add(new ModelSphere(new Vector3f(3.5f, 0f, -12f), 3f, 0, 0));
 		model.spheres.add(new ModelSphere(new Vector3f(-3.5f, 0f, -12f), 3f, 0, 0));
+		model.planes.add(new ModelPlane(new Vector3f(0f, -3f, -12f), new Vector3f(0, 1, 0), 1f, 0, 0));
 
 		writeModelToFileIfChanged(fileName, model);
 
@@ -785,7 +861,7 @@ public class Model {
 		model.spheres.add(new ModelSphere(new Vector3f(1.5f, -2.5f, -9f), 0.5f, 7, 0));
 		model.spheres.add(new ModelSphere(new Vector3f(3.5f, -1.5f, -15f), 1.5f, 9, 1));
 
-		model.spheres.add(new ModelSphere(new Vector3f(-1, -100003, -20f), 100000f, 0, 0));
+		model.planes.add(new ModelPlane(new Vector3f(-1, -3, -20f), new Vector3f(0, 1, 0), 1f, 0, 0));
 		// model.spheres.add(new Sphere(new Vector3f(-4, -1.25f, -16f), 1.5f, 9, 0)); //
 		// Optional sphere
 
@@ -21,7 +21,7 @@ public class ModelLight {
 				location.get(0), location.get(1), location.get(2), intensity, comment);
 	}
 
-	ModelLight(Vector3f location, float intensity, String comment) {
+	public ModelLight(Vector3f location, float intensity, String comment) {
 		this.location = location;
 		this.intensity = intensity;
 		this.comment = comment;
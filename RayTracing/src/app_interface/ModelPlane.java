@@ -0,0 +1,72 @@
+package app_interface;
+
+import java.util.Scanner;
+
+import org.joml.Vector3f;
+
+/**
+ * This class represents an infinite plane in a 3D scene, e.g. the ground.
+ *
+ * A ModelPlane object contains a point on the plane, the normal of the plane,
+ * the material index and the texture index. The texture is repeated over the
+ * plane in tiles whose side is textureScale.
+ */
+public class ModelPlane {
+	public Vector3f point;
+	public Vector3f normal; // The side of the plane the normal points to is its outside
+	public float textureScale; // The side of one tile of the texture on the plane
+	public int materialIndex;
+	public int textureIndex; // Index for the texture image of this plane
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Plane: point_x: %s point_y: %s point_z: %s normal_x: %s normal_y: %s normal_z: %s textureScale: %s materialIndex: %d textureIndex: %d",
+				point.x, point.y, point.z, normal.x, normal.y, normal.z, textureScale, materialIndex, textureIndex);
+	}
+
+	/**
+	 * Constructs a new {@code ModelPlane} with the specified point, normal,
+	 * texture scale, material index, and texture index.
+	 *
+	 * @param point         a point on the plane as a {@link Vector3f}
+	 * @param normal        the normal of the plane, it does not need to be
+	 *                      normalized
+	 * @param textureScale  the side of one tile of the texture on the plane
+	 * @param materialIndex the index referring to the material properties of the
+	 *                      plane
+	 * @param textureIndex  the index referring to the texture image of the plane
+	 */
+	public ModelPlane(Vector3f point, Vector3f normal, float textureScale, int materialIndex, int textureIndex) {
+		this.point = point;
+		this.normal = normal;
+		this.textureScale = textureScale;
+		this.materialIndex = materialIndex;
+		this.textureIndex = textureIndex;
+	}
+
+	ModelPlane() {
+		this(new Vector3f(0.0f, 0.0f, 0.0f), new Vector3f(0.0f, 1.0f, 0.0f), 1.0f, 0, 0);
+	}
+
+	// Constructor that takes a string from toString and reconstructs the object
+	ModelPlane(String toStringStr) throws FileParsingException {
+		try (Scanner scanner = new Scanner(toStringStr)) {
+			Utilities.parseTokenWithoutParameter(scanner, "Plane");
+			point = new Vector3f(Utilities.parseTokenFloat(scanner, "point_x"),
+					Utilities.parseTokenFloat(scanner, "point_y"), Utilities.parseTokenFloat(scanner, "point_z"));
+			normal = new Vector3f(Utilities.parseTokenFloat(scanner, "normal_x"),
+					Utilities.parseTokenFloat(scanner, "normal_y"), Utilities.parseTokenFloat(scanner, "normal_z"));
+			textureScale = Utilities.parseTokenFloat(scanner, "textureScale");
+			materialIndex = Utilities.parseTokenInt(scanner, "materialIndex");
+			textureIndex = Utilities.parseTokenInt(scanner, "textureIndex");
+			if (normal.lengthSquared() == 0 || !(textureScale > 0))
+				throw new FileParsingException("The normal of a plane must not be zero and its textureScale must be positive.");
+		} catch (FileParsingException e) {
+			String errorMessage = e.getMessage()
+					+ "\nAt Plane constructor from toStringStr.\n Fail to load parse string:\n" + toStringStr;
+			System.err.println(errorMessage);
+			throw new FileParsingException(errorMessage);
+		}
+	}
+}
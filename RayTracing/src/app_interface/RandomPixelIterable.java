@@ -1,51 +1,136 @@
 package app_interface;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-
-class RandomPixelIterable implements Iterable<Integer[]> {
-    private final int width;
-    private final int height;
-    private final List<Integer> lookupTable;
-
-    RandomPixelIterable(int width, int height) {
-        this.width = width;
-        this.height = height;
-        this.lookupTable = generateLookupTable(); // Generate the random lookup table based on image width
-    }
-
-    // Generate a lookup table for randomization based on the width of the image
-    private List<Integer> generateLookupTable() {
-    	List<Integer> table = new ArrayList<>(width*height); 
-        for (int i = 0; i < width*height; i++) {
-            table.add(i); 
-        }
-        Collections.shuffle(table);
-        return table;
-    }
-
-    // Custom iterator to return random (x, y) pixel coordinates twice for each pixel
-    @Override
-    public Iterator<Integer[]> iterator() {
-        return new PixelIterator();
-    }
-
-    private class PixelIterator implements Iterator<Integer[]> {
-        private int curIndex = 0;
-        private Integer[] indexPercentArray = new Integer[2];
-
-        @Override
-        public boolean hasNext() {
-            return curIndex < width * height;
-        }
-
-        @Override
-        public Integer[] next() {
-        	indexPercentArray[0] = lookupTable.get(curIndex++);
-        	indexPercentArray[1] = 100*curIndex/(width * height);
-        	return indexPercentArray;
-        }
-    }
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The pixels of an image in a pseudo-random order, as indices {@code y*width+x}.
+ *
+ * The order is a bijective permutation of the indices, so every pixel is
+ * returned exactly once, and it is calculated instead of stored: the position
+ * in the order is encrypted by a small Feistel network over the smallest even
+ * number of bits that covers all the indices, and encrypted again until the
+ * result is an index of the image (cycle walking, less than 4 rounds on
+ * average). No table of the pixels is built, so the memory does not depend on
+ * the size of the image.
+ *
+ * The pixel at any position of the order can be calculated directly, so the
+ * order can be split into disjoint ranges of positions, e.g. one for each
+ * worker thread, see {@link #iterator(int, int)}.
+ */
+class RandomPixelIterable implements Iterable<Integer> {
+	private static final int ROUNDS_COUNT = 4;
+
+	private final int pixelsCount;
+	private final int halfBits;
+	private final int halfMask;
+	private final int[] roundKeys = new int[ROUNDS_COUNT];
+
+	/**
+	 * Constructs a {@code RandomPixelIterable} with a new random order.
+	 *
+	 * @param width  the width of the image
+	 * @param height the height of the image
+	 */
+	RandomPixelIterable(int width, int height) {
+		this(width, height, ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * Constructs a {@code RandomPixelIterable}, the same seed always gives the same order.
+	 *
+	 * @param width  the width of the image
+	 * @param height the height of the image
+	 * @param seed   the seed of the order
+	 */
+	RandomPixelIterable(int width, int height, long seed) {
+		this.pixelsCount = Math.multiplyExact(width, height);
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(pixelsCount - 1, 1));
+		this.halfBits = (bits + 1) / 2;
+		this.halfMask = (1 << halfBits) - 1;
+		for (int i = 0; i < ROUNDS_COUNT; i++) {
+			seed = seed * 6364136223846793005L + 1442695040888963407L;
+			roundKeys[i] = (int) (seed >>> 32);
+		}
+	}
+
+	/** @return the number of pixels, the positions of the order are 0 to size()-1 */
+	int size() {
+		return pixelsCount;
+	}
+
+	/**
+	 * @param position the position in the order, 0 to size()-1
+	 * @return the index of the pixel at the position
+	 */
+	int pixelIndex(int position) {
+		// the walk ends at an index of the image only if it starts at one
+		long index = Objects.checkIndex(position, pixelsCount);
+		do {
+			index = encrypt(index);
+		} while (index >= pixelsCount);
+		return (int) index;
+	}
+
+	// A bijection of the numbers of 2*halfBits bits
+	private long encrypt(long value) {
+		int left = (int) (value >>> halfBits);
+		int right = (int) value & halfMask;
+		for (int roundKey : roundKeys) {
+			int newRight = left ^ round(right, roundKey);
+			left = right;
+			right = newRight;
+		}
+		return ((long) left << halfBits) | right;
+	}
+
+	// The round function of the Feistel network, a hash of half of the bits
+	private int round(int half, int roundKey) {
+		int hash = (half ^ roundKey) * 0x9E3779B1;
+		hash ^= hash >>> 15;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return hash & halfMask;
+	}
+
+	/** @return an iterator over the indices of all the pixels */
+	@Override
+	public PrimitiveIterator.OfInt iterator() {
+		return iterator(0, pixelsCount);
+	}
+
+	/**
+	 * @param fromPosition the first position in the order, inclusive
+	 * @param toPosition   the last position in the order, exclusive
+	 * @return an iterator over the indices of the pixels at the positions
+	 */
+	PrimitiveIterator.OfInt iterator(int fromPosition, int toPosition) {
+		if (fromPosition < 0 || toPosition > pixelsCount || fromPosition > toPosition)
+			throw new IndexOutOfBoundsException("Positions " + fromPosition + " to " + toPosition + " of " + pixelsCount);
+		return new PixelIterator(fromPosition, toPosition);
+	}
+
+	private class PixelIterator implements PrimitiveIterator.OfInt {
+		private int position;
+		private final int toPosition;
+
+		PixelIterator(int fromPosition, int toPosition) {
+			this.position = fromPosition;
+			this.toPosition = toPosition;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < toPosition;
+		}
+
+		@Override
+		public int nextInt() {
+			if (position >= toPosition)
+				throw new NoSuchElementException();
+			return pixelIndex(position++);
+		}
+	}
 }
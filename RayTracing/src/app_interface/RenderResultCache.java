@@ -0,0 +1,377 @@
+package app_interface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code RenderResultCache} class keeps the finished frames on the local
+ * disk, so a render of the same model with the same settings, e.g. a repeated
+ * job of a pipeline, returns the frame of the previous render instead of
+ * tracing it again.
+ *
+ * A frame is stored in a file named by its key, a SHA-256 hash of everything
+ * the frame depends on: the text of the model without its comment, the
+ * contents of the texture files, the exercise, the depth of the ray tracing,
+ * the resolution, the maximal number of samples per pixel and the Russian
+ * roulette, see {@link #key(Model, ExerciseEnum, int, int, int, int, boolean)}.
+ * {@link #RENDERER_VERSION} is a part of the key too, it must be increased when
+ * a change of the ray tracer changes the images. The ray tracer and the
+ * acceleration structure are not a part of the key, all of them render the same
+ * images to the last bit. The exercises of the colors are not cached, they do
+ * not depend on the model and one of them is random.
+ *
+ * The files are written to a temporary file and moved into place, and every
+ * file holds its key and a CRC32 of its pixels, so a truncated or corrupted
+ * file is detected, deleted and treated as a miss. The size of all the files
+ * is bounded, the least recently used files are evicted first, the time of the
+ * last use is the modification time of the file.
+ */
+final class RenderResultCache {
+	/** Increase when the images of the ray tracer change, the frames of the older versions are not used anymore */
+	static final int RENDERER_VERSION = 2;
+
+	/** The system property of the directory of the cache, "off" turns the cache off */
+	static final String DIRECTORY_PROPERTY = "raytracing.renderCache";
+	/** The system property of the bound of the size of the cache in bytes */
+	static final String CAPACITY_PROPERTY = "raytracing.renderCacheBytes";
+	/** The default bound of the size of the cache */
+	static final long DEFAULT_CAPACITY_BYTES = 256L * 1024 * 1024;
+
+	private static final String FRAME_SUFFIX = ".frame";
+	private static final int MAGIC = 0x52544652; // "RTFR"
+	private static final int FORMAT_VERSION = 1;
+	// magic, format version, width, height, CRC32 of the pixels and the length of the key
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 4;
+
+	/** The bound of the number of the hashes of the texture files that are kept */
+	static final int TEXTURE_HASHES_CAPACITY = 256;
+
+	/**
+	 * The hashes of the texture files by their canonical path, with the state of the file when it was hashed.
+	 * In access order, the least recently used hash is evicted first.
+	 */
+	private static final Map<String, String[]> textureHashes = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+			return size() > TEXTURE_HASHES_CAPACITY;
+		}
+	};
+
+	private final Path directory;
+	private final long capacityBytes;
+
+	/**
+	 * Constructs a {@code RenderResultCache} in a directory, the directory is
+	 * created if it does not exist.
+	 *
+	 * @param directory     the directory of the frames
+	 * @param capacityBytes the bound of the size of all the frames
+	 * @throws IOException if the directory cannot be created
+	 */
+	RenderResultCache(Path directory, long capacityBytes) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.capacityBytes = capacityBytes;
+	}
+
+	/**
+	 * Opens the cache of the system properties, by default in
+	 * {@code .cache/raytracing-renders} of the home directory of the user.
+	 *
+	 * @return the cache, or null if it is turned off or its directory cannot be created
+	 */
+	static RenderResultCache openDefault() {
+		String directory = System.getProperty(DIRECTORY_PROPERTY,
+				Paths.get(System.getProperty("user.home"), ".cache", "raytracing-renders").toString());
+		if (directory.equalsIgnoreCase("off"))
+			return null;
+		try {
+			long capacityBytes = Long.parseLong(System.getProperty(CAPACITY_PROPERTY, Long.toString(DEFAULT_CAPACITY_BYTES)));
+			return new RenderResultCache(Paths.get(directory), capacityBytes);
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("The render cache is turned off: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Calculates the key of the frame of a render. The exercises of the colors
+	 * have no key, they do not depend on the model and one of them is random.
+	 *
+	 * @param model              the model that is rendered
+	 * @param exercise           the exercise
+	 * @param depthOfRayTracing  the depth of the ray tracing
+	 * @param imageWidth         the width of the image
+	 * @param imageHeight        the height of the image
+	 * @param maxSamplesPerPixel the maximal number of samples per pixel
+	 * @param russianRoulette    whether the rays with a negligible weight are traced with the Russian roulette
+	 * @return the key, 64 hexadecimal digits, or null if the frames of the exercise are not cached
+	 * @throws IOException if a texture file cannot be read
+	 */
+	static String key(Model model, ExerciseEnum exercise, int depthOfRayTracing, int imageWidth, int imageHeight,
+			int maxSamplesPerPixel, boolean russianRoulette) throws IOException {
+		if (exercise.ordinal() <= ExerciseEnum.EX_1_3_Colors_linear.ordinal())
+			return null;
+		StringBuilder description = new StringBuilder();
+		description.append("renderer: ").append(RENDERER_VERSION).append('\n');
+		description.append("exercise: ").append(exercise.name()).append('\n');
+		description.append("depth: ").append(depthOfRayTracing).append('\n');
+		description.append("resolution: ").append(imageWidth).append('x').append(imageHeight).append('\n');
+		description.append("samples: ").append(maxSamplesPerPixel).append('\n');
+		description.append("russianRoulette: ").append(russianRoulette).append('\n');
+		description.append("skyBox: ").append(textureHash(model.skyBoxImageFileName)).append('\n');
+		for (String sphereTextureFileName : model.sphereTextureFileNames)
+			description.append("texture: ").append(textureHash(sphereTextureFileName)).append('\n');
+		description.append(normalizedModelText(model));
+		return hex(sha256().digest(description.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	// The text of the model without the comment, which does not change the image
+	private static String normalizedModelText(Model model) {
+		StringBuilder text = new StringBuilder();
+		for (String line : model.toString().split("\n")) {
+			if (!line.isEmpty() && !line.startsWith("comment:"))
+				text.append(line.strip()).append('\n');
+		}
+		return text.toString();
+	}
+
+	// The SHA-256 of the contents of a texture file, hashed again only if the file changed
+	private static String textureHash(String fileName) throws IOException {
+		File file = new File(fileName);
+		String path = file.getCanonicalPath();
+		String state = file.lastModified() + ":" + file.length();
+		synchronized (textureHashes) {
+			String[] cached = textureHashes.get(path);
+			if (cached != null && cached[0].equals(state))
+				return cached[1];
+		}
+		MessageDigest digest = sha256();
+		try (InputStream input = Files.newInputStream(file.toPath())) {
+			byte[] buffer = new byte[64 * 1024];
+			for (int read; (read = input.read(buffer)) > 0;)
+				digest.update(buffer, 0, read);
+		}
+		String hash = hex(digest.digest());
+		synchronized (textureHashes) {
+			textureHashes.put(path, new String[] { state, hash });
+		}
+		return hash;
+	}
+
+	/**
+	 * Reads the frame of a key.
+	 *
+	 * @param key    the key of the frame
+	 * @param pixels the pixels of the image from index 0 to its limit, receives the frame only if it is found and intact
+	 * @return true if the frame was found, false if it is not cached or the file is corrupted
+	 */
+	synchronized boolean load(String key, IntBuffer pixels) {
+		Path file = frameFile(key);
+		ByteBuffer contents;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				return discard(file, "too large");
+			contents = ByteBuffer.allocate((int) channel.size());
+			while (contents.hasRemaining() && channel.read(contents) >= 0)
+				;
+			contents.flip();
+		} catch (IOException e) {
+			return false; // not cached, or evicted by another process meanwhile
+		}
+
+		if (contents.remaining() < HEADER_BYTES || contents.getInt() != MAGIC || contents.getInt() != FORMAT_VERSION)
+			return discard(file, "not a frame");
+		int width = contents.getInt();
+		int height = contents.getInt();
+		long crc = contents.getLong();
+		int keyLength = contents.getInt();
+		long pixelsBytes = 4L * width * height;
+		if (width < 0 || height < 0 || keyLength != key.length() || contents.remaining() != keyLength + pixelsBytes)
+			return discard(file, "wrong size");
+		byte[] storedKey = new byte[keyLength];
+		contents.get(storedKey);
+		if (!key.equals(new String(storedKey, StandardCharsets.US_ASCII)))
+			return discard(file, "wrong key");
+		if (pixelsBytes != 4L * pixels.limit())
+			return false; // the frame of another resolution, the key includes the resolution so this does not happen
+		CRC32 checksum = new CRC32();
+		checksum.update(contents.duplicate());
+		if (checksum.getValue() != crc)
+			return discard(file, "wrong checksum");
+
+		IntBuffer target = pixels.duplicate();
+		target.rewind();
+		target.put(contents.asIntBuffer());
+		touch(file);
+		return true;
+	}
+
+	/**
+	 * Stores the frame of a key and evicts the least recently used frames if the
+	 * cache is larger than its bound. A frame that cannot be written is not
+	 * cached, the error is printed.
+	 *
+	 * @param key         the key of the frame
+	 * @param pixels      the pixels of the image from index 0 to its limit
+	 * @param imageWidth  the width of the image
+	 * @param imageHeight the height of the image
+	 */
+	synchronized void store(String key, IntBuffer pixels, int imageWidth, int imageHeight) {
+		IntBuffer source = pixels.duplicate();
+		source.rewind();
+		if (source.remaining() != imageWidth * imageHeight)
+			throw new IllegalArgumentException("The image has " + source.remaining() + " pixels, not " + imageWidth + "x" + imageHeight);
+		byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer pixelsBytes = ByteBuffer.allocate(4 * source.remaining());
+		pixelsBytes.asIntBuffer().put(source);
+		CRC32 checksum = new CRC32();
+		checksum.update(pixelsBytes.duplicate());
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + keyBytes.length);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(imageWidth).putInt(imageHeight)
+				.putLong(checksum.getValue()).putInt(keyBytes.length).put(keyBytes).flip();
+		Path file = frameFile(key);
+		Path temporaryFile = null;
+		try {
+			temporaryFile = Files.createTempFile(directory, key, ".tmp");
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+				while (header.hasRemaining())
+					channel.write(header);
+				while (pixelsBytes.hasRemaining())
+					channel.write(pixelsBytes);
+			}
+			// another process reads either the previous file or the whole new file
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Failed to store the frame in the render cache: " + e.getMessage());
+			if (temporaryFile != null)
+				deleteQuietly(temporaryFile);
+			return;
+		}
+		evict();
+	}
+
+	/** @return the size of all the frames in bytes */
+	synchronized long sizeInBytes() {
+		long size = 0;
+		for (FrameFile frame : listFrames())
+			size += frame.size;
+		return size;
+	}
+
+	/** Deletes all the frames */
+	synchronized void clear() {
+		for (FrameFile frame : listFrames())
+			deleteQuietly(frame.path);
+	}
+
+	// A frame in the directory, with the size and the time of the last use read once for the eviction
+	private static final class FrameFile {
+		final Path path;
+		final long size;
+		final FileTime lastUsed;
+
+		FrameFile(Path path, long size, FileTime lastUsed) {
+			this.path = path;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	private List<FrameFile> listFrames() {
+		List<FrameFile> frames = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FRAME_SUFFIX)) {
+			for (Path file : files) {
+				try {
+					frames.add(new FrameFile(file, Files.size(file), Files.getLastModifiedTime(file)));
+				} catch (IOException e) {
+					// deleted meanwhile, e.g. by another process
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to list the render cache: " + e.getMessage());
+		}
+		return frames;
+	}
+
+	// Deletes the least recently used frames until the cache is within its bound
+	private void evict() {
+		List<FrameFile> frames = listFrames();
+		long size = 0;
+		for (FrameFile frame : frames)
+			size += frame.size;
+		if (size <= capacityBytes)
+			return;
+		frames.sort(Comparator.comparing(frame -> frame.lastUsed));
+		for (FrameFile frame : frames) {
+			if (size <= capacityBytes)
+				break;
+			deleteQuietly(frame.path);
+			size -= frame.size;
+		}
+	}
+
+	private Path frameFile(String key) {
+		if (!key.matches("[0-9a-f]{64}"))
+			throw new IllegalArgumentException("Not a key of the render cache: " + key);
+		return directory.resolve(key + FRAME_SUFFIX);
+	}
+
+	// Marks the frame as the most recently used
+	private static void touch(Path file) {
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the frame is evicted earlier
+		}
+	}
+
+	private static boolean discard(Path file, String reason) {
+		System.err.println("Discarded the corrupted frame " + file.getFileName() + " of the render cache: " + reason);
+		deleteQuietly(file);
+		return false;
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// deleted on the next eviction
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform supports SHA-256", e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+}
@@ -5,17 +5,35 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The {@code SphereTexture} class represents a texture mapped onto a sphere and
  * provides methods to sample pixel colors based on direction vectors. The
  * texture is loaded from an image file, and pixel colors are retrieved through
  * bilinear interpolation or nearest-neighbor sampling.
+ *
+ * The texels are stored packed as RGB bytes in an int, 4 bytes per texel
+ * like the decoded image, and converted to floats through a table of the 256
+ * values of a channel when they are sampled. Besides the exact sampling there is a fast sampling for the ray
+ * tracer, see {@link #sampleDirectionFromMiddleFast(Vector3f, Vector3f)}.
+ *
+ * A texture does not change once it is loaded. The models load their textures
+ * with {@link #load(String)}, which shares the textures of the same file
+ * between the models.
  */
 public class SphereTexture {
+	/** The value in [0, 1] of every byte of a channel */
+	private static final float[] CHANNEL_VALUES = new float[256];
+	static {
+		for (int i = 0; i < CHANNEL_VALUES.length; i++)
+			CHANNEL_VALUES[i] = (float) i / 255;
+	}
+
 	private int width = -1;
 	private int height = -1;
-	private byte[] imageData = null;
+	/** The RGB of every texel, 0xRRGGBB */
+	private int[] texels = null;
 	private String filename;
 
 	/**
@@ -29,6 +47,39 @@ public class SphereTexture {
 		loadImage(filepath);
 	}
 
+	/**
+	 * Returns the texture of the image file from the cache of the decoded
+	 * textures of the process, see {@link SphereTextureCache}. The file is
+	 * decoded only if it was not loaded yet, or if it changed since it was
+	 * loaded.
+	 *
+	 * @param filepath the path to the image file to be used as the texture
+	 * @return the texture, possibly shared with other models
+	 * @throws IOException if the image fails to load from the specified file path
+	 */
+	public static SphereTexture load(String filepath) throws IOException {
+		return SphereTextureCache.shared().get(filepath);
+	}
+
+	/**
+	 * Same as {@link #load(String)}, but the file is decoded on a pool of
+	 * decoder threads while the calling thread continues, so several textures can
+	 * be decoded at the same time.
+	 *
+	 * @param filepath the path to the image file to be used as the texture
+	 * @return the future texture, it completes with an
+	 *         {@link java.io.UncheckedIOException} if the image fails to load
+	 * @throws IOException if the path of the file cannot be resolved
+	 */
+	public static CompletableFuture<SphereTexture> loadAsync(String filepath) throws IOException {
+		return SphereTextureCache.shared().getAsync(filepath);
+	}
+
+	/** @return the memory of the texels in bytes */
+	long sizeInBytes() {
+		return (long) texels.length * Integer.BYTES;
+	}
+
 	/**
 	 * Samples the color from the texture based on a given direction vector. The
 	 * direction is normalized, and the corresponding texture coordinates are
@@ -41,17 +92,36 @@ public class SphereTexture {
 	 *         {@code Vector3f} (RGB values)
 	 */
 	public Vector3f sampleDirectionFromMiddle(Vector3f direction) {
+		return sampleDirectionFromMiddle(direction, new Vector3f());
+	}
+
+	/**
+	 * Samples the color from the texture based on a given direction vector, same
+	 * as {@link #sampleDirectionFromMiddle(Vector3f)} but without allocating, the
+	 * color is written into {@code dest}.
+	 *
+	 * @param direction the direction vector used to determine the texture
+	 *                  coordinates
+	 * @param dest      the vector that receives the color
+	 * @return dest
+	 */
+	public Vector3f sampleDirectionFromMiddle(Vector3f direction, Vector3f dest) {
 		boolean interpolate = true;
 
 		float directionLength = direction.length();
-		Vector3f normalizedDirection = new Vector3f(direction);
+		float directionX = direction.x;
+		float directionY = direction.y;
+		float directionZ = direction.z;
 		if (directionLength != 0) {
-			normalizedDirection.div(directionLength);
+			float invLength = 1.0f / directionLength;
+			directionX *= invLength;
+			directionY *= invLength;
+			directionZ *= invLength;
 		}
 
 		// Calculate texture coordinates from the direction vector
-		float u = 0.5f + (float) (Math.atan2(normalizedDirection.z, normalizedDirection.x) / (2.0 * Math.PI));
-		float v = 0.5f - (float) (Math.asin(normalizedDirection.y) / Math.PI);
+		float u = 0.5f + (float) (Math.atan2(directionZ, directionX) / (2.0 * Math.PI));
+		float v = 0.5f - (float) (Math.asin(directionY) / Math.PI);
 
 		// Perform bilinear interpolation if needed
 		if (interpolate) {
@@ -67,32 +137,132 @@ public class SphereTexture {
 			float wx2 = (x1 - u * (width - 1)) * (v * (height - 1) - y0);
 			float wx3 = (u * (width - 1) - x0) * (v * (height - 1) - y0);
 
-			// Sample colors
-			Vector3f c0 = getImagePixel(x0, y0);
-			Vector3f c1 = getImagePixel(x1, y0);
-			Vector3f c2 = getImagePixel(x0, y1);
-			Vector3f c3 = getImagePixel(x1, y1);
-
 			// Perform bilinear interpolation
-			Vector3f pixelColor = new Vector3f(c0).mul(wx0).add(new Vector3f(c1).mul(wx1))
-					.add(new Vector3f(c2).mul(wx2)).add(new Vector3f(c3).mul(wx3));
-
-			return pixelColor;
+			getImagePixel(x0, y0, dest).mul(wx0);
+			addImagePixel(x1, y0, wx1, dest);
+			addImagePixel(x0, y1, wx2, dest);
+			addImagePixel(x1, y1, wx3, dest);
+			return dest;
 		} else {
 			// No interpolation, sample the nearest pixel
 			int x = (int) (u * (width - 1));
 			int y = (int) (v * (height - 1));
-			return getImagePixel(x, y);
+			return getImagePixel(x, y, dest);
 		}
 	}
 
-	// Get pixel color as a Vector3f at a specific (x, y) position
-	private Vector3f getImagePixel(int x, int y) {
-		int index = (y * width + x) * 3;
-		return new Vector3f((float) (imageData[index] & 0xFF) / 255, // Red
-				(float) (imageData[index + 1] & 0xFF) / 255, // Green
-				(float) (imageData[index + 2] & 0xFF) / 255 // Blue
-		);
+	/**
+	 * Samples the color from the texture based on a given direction vector, a
+	 * faster version of {@link #sampleDirectionFromMiddle(Vector3f, Vector3f)}.
+	 * The direction does not need to be normalized, the texture coordinates are
+	 * calculated with an approximation of atan2 in float precision instead of
+	 * atan2 and asin in double precision. The error of the angles is a few
+	 * 1e-7 radians, a small fraction of a texel for any texture of a practical
+	 * size.
+	 *
+	 * @param direction the direction vector used to determine the texture
+	 *                  coordinates
+	 * @param dest      the vector that receives the color
+	 * @return dest
+	 */
+	public Vector3f sampleDirectionFromMiddleFast(Vector3f direction, Vector3f dest) {
+		float horizontalLength = (float) Math.sqrt(direction.x * direction.x + direction.z * direction.z);
+		// same as the exact sampling, asin(y / length) is the angle above the horizontal plane
+		float u = 0.5f + fastAtan2(direction.z, direction.x) * (float) (0.5 / Math.PI);
+		float v = 0.5f - fastAtan2(direction.y, horizontalLength) * (float) (1.0 / Math.PI);
+		u = Math.min(Math.max(u, 0), 1);
+		v = Math.min(Math.max(v, 0), 1);
+
+		float tx = u * (width - 1);
+		float ty = v * (height - 1);
+		int x0 = (int) tx;
+		int y0 = (int) ty;
+		int x1 = Math.min(x0 + 1, width - 1);
+		int y1 = Math.min(y0 + 1, height - 1);
+
+		float wx0 = (x1 - tx) * (y1 - ty);
+		float wx1 = (tx - x0) * (y1 - ty);
+		float wx2 = (x1 - tx) * (ty - y0);
+		float wx3 = (tx - x0) * (ty - y0);
+
+		getImagePixel(x0, y0, dest).mul(wx0);
+		addImagePixel(x1, y0, wx1, dest);
+		addImagePixel(x0, y1, wx2, dest);
+		addImagePixel(x1, y1, wx3, dest);
+		return dest;
+	}
+
+	/**
+	 * Samples the color of the texture repeated over a plane, the texture
+	 * covers [0, 1) in both coordinates and is repeated in tiles beyond it. The
+	 * color is interpolated bilinearly, across the edges of the tiles too.
+	 *
+	 * @param u    the horizontal texture coordinate, in tiles
+	 * @param v    the vertical texture coordinate, in tiles
+	 * @param dest the vector that receives the color
+	 * @return dest
+	 */
+	public Vector3f sampleRepeated(float u, float v, Vector3f dest) {
+		float tx = (u - (float) Math.floor(u)) * width;
+		float ty = (v - (float) Math.floor(v)) * height;
+		// the rounding of a coordinate just below 1 may give the size of the texture
+		int x0 = Math.min((int) tx, width - 1);
+		int y0 = Math.min((int) ty, height - 1);
+		int x1 = x0 + 1 == width ? 0 : x0 + 1;
+		int y1 = y0 + 1 == height ? 0 : y0 + 1;
+		float fx = tx - x0;
+		float fy = ty - y0;
+
+		getImagePixel(x0, y0, dest).mul((1 - fx) * (1 - fy));
+		addImagePixel(x1, y0, fx * (1 - fy), dest);
+		addImagePixel(x0, y1, (1 - fx) * fy, dest);
+		addImagePixel(x1, y1, fx * fy, dest);
+		return dest;
+	}
+
+	/**
+	 * Approximation of {@link Math#atan2(double, double)} in float precision,
+	 * with an error of a few 1e-7 radians. The argument is reduced to
+	 * [-tan(pi/8), tan(pi/8)] and atan is evaluated with the polynomial of the
+	 * atanf function of the Cephes library.
+	 *
+	 * @param y the ordinate
+	 * @param x the abscissa
+	 * @return the angle of (x, y) in [-pi, pi], 0 for (0, 0)
+	 */
+	static float fastAtan2(float y, float x) {
+		float absX = Math.abs(x);
+		float absY = Math.abs(y);
+		if (absX == 0 && absY == 0)
+			return 0;
+		// the ratio of the smaller to the larger component is in [0, 1]
+		float a = Math.min(absX, absY) / Math.max(absX, absY);
+		float angle = 0;
+		if (a > 0.41421356f) { // tan(pi/8)
+			angle = (float) (Math.PI / 4);
+			a = (a - 1) / (a + 1);
+		}
+		float s = a * a;
+		angle += (((8.05374449538e-2f * s - 1.38776856032e-1f) * s + 1.99777106478e-1f) * s - 3.33329491539e-1f) * s * a + a;
+		if (absY > absX)
+			angle = (float) (Math.PI / 2) - angle;
+		if (x < 0)
+			angle = (float) Math.PI - angle;
+		return y < 0 ? -angle : angle;
+	}
+
+	// Get pixel color at a specific (x, y) position into dest
+	private Vector3f getImagePixel(int x, int y, Vector3f dest) {
+		int texel = texels[y * width + x];
+		return dest.set(CHANNEL_VALUES[(texel >> 16) & 0xFF], CHANNEL_VALUES[(texel >> 8) & 0xFF], CHANNEL_VALUES[texel & 0xFF]);
+	}
+
+	// Add the pixel color at a specific (x, y) position multiplied by weight to dest
+	private void addImagePixel(int x, int y, float weight, Vector3f dest) {
+		int texel = texels[y * width + x];
+		dest.x += CHANNEL_VALUES[(texel >> 16) & 0xFF] * weight;
+		dest.y += CHANNEL_VALUES[(texel >> 8) & 0xFF] * weight;
+		dest.z += CHANNEL_VALUES[texel & 0xFF] * weight;
 	}
 
 	// Load image from a file
@@ -105,17 +275,10 @@ public class SphereTexture {
 		this.height = image.getHeight();
 		this.filename = filepath;
 
-		// Store image data in byte array (RGB format)
-		this.imageData = new byte[width * height * 3]; // 3 bytes per pixel (RGB)
-		int index = 0;
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				int pixel = image.getRGB(x, y);
-				imageData[index++] = (byte) ((pixel >> 16) & 0xFF); // Red
-				imageData[index++] = (byte) ((pixel >> 8) & 0xFF); // Green
-				imageData[index++] = (byte) (pixel & 0xFF); // Blue
-			}
-		}
+		// Store image data in an int array (RGB format), one int per pixel like the decoded image
+		this.texels = image.getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < texels.length; i++)
+			texels[i] &= 0xFFFFFF; // the alpha is not used
 	}
 
 	// Main method for testing
@@ -0,0 +1,182 @@
+package app_interface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code SphereTextureCache} class keeps the decoded textures of the
+ * process, so a model that uses an image file that was already loaded, e.g.
+ * the same skybox as the previous model, does not decode it again.
+ *
+ * The textures are keyed by the canonical path of the file and are decoded
+ * again if the modification time or the length of the file changed since. The
+ * memory of the texels of all the cached textures is bounded, the least
+ * recently used textures are evicted first. A texture is immutable once it is
+ * loaded, so the same object is shared by every model that uses it.
+ *
+ * The files are decoded on a small pool of threads, so the textures of a model
+ * are decoded at the same time, see {@link #getAsync(String)}. A file that is
+ * already being decoded is not decoded again for another request.
+ */
+final class SphereTextureCache {
+	/** The default bound of the memory of the cached texels */
+	static final long DEFAULT_CAPACITY_BYTES = 512L * 1024 * 1024;
+
+	/** The number of threads that decode the files, each of them holds a whole decoded image */
+	private static final int DECODER_THREADS_COUNT = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+	private static final ExecutorService decoders = Executors.newFixedThreadPool(DECODER_THREADS_COUNT, runnable -> {
+		Thread thread = new Thread(runnable, "texture-decoder");
+		thread.setDaemon(true); // the decoders must not keep the application alive
+		return thread;
+	});
+
+	private static final SphereTextureCache shared = new SphereTextureCache(DEFAULT_CAPACITY_BYTES);
+
+	// A cached texture and the state of its file when it was decoded
+	private static final class Entry {
+		final long lastModified;
+		final long length;
+		final SphereTexture texture;
+
+		Entry(long lastModified, long length, SphereTexture texture) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.texture = texture;
+		}
+	}
+
+	private final long capacityBytes;
+	/** In access order, the first entry is the least recently used */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long sizeBytes;
+	/** The decodes that were not completed yet, by the canonical path of the file */
+	private final Map<String, CompletableFuture<SphereTexture>> pending = new HashMap<>();
+
+	/**
+	 * Constructs an empty {@code SphereTextureCache}.
+	 *
+	 * @param capacityBytes the bound of the memory of the cached texels
+	 */
+	SphereTextureCache(long capacityBytes) {
+		this.capacityBytes = capacityBytes;
+	}
+
+	/** @return the cache that is shared by the whole process */
+	static SphereTextureCache shared() {
+		return shared;
+	}
+
+	/**
+	 * Returns the texture of the image file, decoded now or taken from the
+	 * cache. The calling thread waits for the decode.
+	 *
+	 * @param filepath the path to the image file
+	 * @return the texture of the file
+	 * @throws IOException if the image fails to load from the file
+	 */
+	SphereTexture get(String filepath) throws IOException {
+		try {
+			return getAsync(filepath).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the texture of the image file as a future. The future is already
+	 * complete if the texture is in the cache, otherwise the file is decoded on
+	 * the pool of the decoders. If the image fails to load the future completes
+	 * with an {@link UncheckedIOException}.
+	 *
+	 * @param filepath the path to the image file
+	 * @return the future texture of the file
+	 * @throws IOException if the canonical path of the file cannot be resolved
+	 */
+	CompletableFuture<SphereTexture> getAsync(String filepath) throws IOException {
+		File file = new File(filepath);
+		String key = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.lastModified == lastModified && entry.length == length)
+					return CompletableFuture.completedFuture(entry.texture);
+				remove(key); // the file changed since it was decoded
+			}
+			CompletableFuture<SphereTexture> decode = pending.get(key);
+			if (decode == null) {
+				decode = CompletableFuture.supplyAsync(() -> decode(filepath, key, lastModified, length), decoders);
+				pending.put(key, decode);
+				CompletableFuture<SphereTexture> started = decode;
+				decode.whenComplete((texture, exception) -> {
+					synchronized (this) {
+						pending.remove(key, started);
+					}
+				});
+			}
+			return decode;
+		}
+	}
+
+	// Decodes the file on a decoder thread and adds it to the cache
+	private SphereTexture decode(String filepath, String key, long lastModified, long length) {
+		SphereTexture texture;
+		try {
+			texture = new SphereTexture(filepath);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		synchronized (this) {
+			remove(key);
+			if (texture.sizeInBytes() <= capacityBytes) {
+				entries.put(key, new Entry(lastModified, length, texture));
+				sizeBytes += texture.sizeInBytes();
+				evict();
+			}
+		}
+		return texture;
+	}
+
+	/** @return the number of cached textures */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/** @return the memory of the texels of the cached textures in bytes */
+	synchronized long sizeInBytes() {
+		return sizeBytes;
+	}
+
+	/** Removes all the textures from the cache, the decodes that were not completed yet still add their textures */
+	synchronized void clear() {
+		entries.clear();
+		sizeBytes = 0;
+	}
+
+	private void remove(String key) {
+		Entry removed = entries.remove(key);
+		if (removed != null)
+			sizeBytes -= removed.texture.sizeInBytes();
+	}
+
+	// Removes the least recently used textures until the cache is within its capacity
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (sizeBytes > capacityBytes && iterator.hasNext()) {
+			sizeBytes -= iterator.next().getValue().texture.sizeInBytes();
+			iterator.remove();
+		}
+	}
+}
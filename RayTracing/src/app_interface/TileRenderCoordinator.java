@@ -0,0 +1,309 @@
+package app_interface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code TileRenderCoordinator} class renders an image on several worker
+ * processes, see {@link TileRenderWorker}, so the render is not bounded by the
+ * heap and the garbage collector of a single JVM. The image is split into
+ * square tiles, and every worker repeatedly takes the next tile that was not
+ * rendered yet, like the threads of {@link TileRenderEngine}. The pixels of the
+ * tiles are written into the {@link IntBufferWrapper} as they arrive.
+ *
+ * Every worker loads the model file itself, so the file and its textures must
+ * be at the same paths for the workers, which is always the case for the
+ * workers on the local machine, see {@link #startLocalWorkers(int)}. A tile of
+ * a worker that fails, disconnects or does not reply in time is returned to the
+ * queue and rendered by another worker, the render fails only if all the
+ * workers failed.
+ *
+ * <pre>
+ * java app_interface.TileRenderCoordinator &lt;model file&gt; &lt;exercise&gt; &lt;depth&gt; &lt;width&gt;x&lt;height&gt; &lt;output bmp&gt; &lt;workers&gt;
+ * </pre>
+ *
+ * The workers are either a number of workers to start on the local machine or
+ * a comma separated list of host:port of running workers.
+ */
+public class TileRenderCoordinator {
+	/** How long a worker may take to accept the connection */
+	private static final int CONNECT_TIMEOUT_MS = 10_000;
+	/** The default of how long a worker may take to load the model or to render a tile */
+	static final int DEFAULT_READ_TIMEOUT_MS = 120_000;
+	/** How often a worker without a tile checks whether the render is complete */
+	private static final long TILE_POLL_MS = 50;
+
+	private final List<InetSocketAddress> workers;
+	private final int tileSize;
+	private final int readTimeoutMs;
+
+	/**
+	 * Constructs a {@code TileRenderCoordinator} with the default read timeout.
+	 *
+	 * @param workers  the addresses of the workers
+	 * @param tileSize the size of the side of a square tile in pixels
+	 */
+	TileRenderCoordinator(List<InetSocketAddress> workers, int tileSize) {
+		this(workers, tileSize, DEFAULT_READ_TIMEOUT_MS);
+	}
+
+	/**
+	 * Constructs a {@code TileRenderCoordinator}.
+	 *
+	 * @param workers       the addresses of the workers
+	 * @param tileSize      the size of the side of a square tile in pixels
+	 * @param readTimeoutMs how long a worker may take to load the model or to render a tile, a worker that
+	 *                      takes longer is treated like a worker that disconnected
+	 */
+	TileRenderCoordinator(List<InetSocketAddress> workers, int tileSize, int readTimeoutMs) {
+		if (workers.isEmpty())
+			throw new IllegalArgumentException("There must be at least one worker");
+		this.workers = new ArrayList<>(workers);
+		this.tileSize = tileSize;
+		this.readTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * Renders the whole image, the calling thread waits until all the tiles are
+	 * rendered.
+	 *
+	 * @param modelFileName     the path of the model file, as the workers see it
+	 * @param exercise          the exercise
+	 * @param depthOfRayTracing the depth of the ray tracing
+	 * @param target            the image the pixels are written to
+	 * @throws IOException          if all the workers failed before the image was complete
+	 * @throws InterruptedException if the calling thread was interrupted
+	 */
+	void render(String modelFileName, ExerciseEnum exercise, int depthOfRayTracing, IntBufferWrapper target)
+			throws IOException, InterruptedException {
+		int imageWidth = target.getImageWidth();
+		int imageHeight = target.getImageHeight();
+		BlockingDeque<int[]> tiles = new LinkedBlockingDeque<>();
+		for (int y = 0; y < imageHeight; y += tileSize)
+			for (int x = 0; x < imageWidth; x += tileSize)
+				tiles.add(new int[] { x, y, Math.min(tileSize, imageWidth - x), Math.min(tileSize, imageHeight - y) });
+		AtomicInteger remainingTiles = new AtomicInteger(tiles.size());
+
+		ExecutorService sessions = Executors.newFixedThreadPool(workers.size());
+		List<Future<?>> results = new ArrayList<>();
+		try {
+			for (InetSocketAddress worker : workers)
+				results.add(sessions.submit(() -> {
+					renderOnWorker(worker, modelFileName, exercise, depthOfRayTracing, target, tiles, remainingTiles, readTimeoutMs);
+					return null;
+				}));
+			// a session ends when the image is complete or when its worker failed
+			IOException lastFailure = null;
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					System.err.println("The worker " + workers.get(i) + " failed: " + e.getCause());
+					lastFailure = new IOException(e.getCause());
+				}
+			}
+			if (remainingTiles.get() > 0)
+				throw new IOException("All the workers failed, " + remainingTiles.get() + " tiles were not rendered", lastFailure);
+		} finally {
+			sessions.shutdownNow();
+		}
+	}
+
+	// Renders tiles on a single worker until the image is complete, a tile of a failed worker is returned to the queue
+	private static void renderOnWorker(InetSocketAddress worker, String modelFileName, ExerciseEnum exercise,
+			int depthOfRayTracing, IntBufferWrapper target, BlockingDeque<int[]> tiles, AtomicInteger remainingTiles,
+			int readTimeoutMs) throws IOException, InterruptedException {
+		try (Socket socket = new Socket()) {
+			socket.connect(worker, CONNECT_TIMEOUT_MS);
+			socket.setTcpNoDelay(true);
+			// a worker that hangs fails the reads with a SocketTimeoutException, so its tile is returned like on a disconnect
+			socket.setSoTimeout(readTimeoutMs);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			output.writeInt(TileRenderWorker.MAGIC);
+			output.writeInt(TileRenderWorker.PROTOCOL_VERSION);
+			output.writeUTF(modelFileName);
+			output.writeUTF(exercise.name());
+			output.writeInt(depthOfRayTracing);
+			output.writeInt(target.getImageWidth());
+			output.writeInt(target.getImageHeight());
+			output.flush();
+			if (!input.readBoolean())
+				throw new IOException(input.readUTF());
+
+			int[] pixels = new int[0];
+			while (remainingTiles.get() > 0) {
+				int[] tile = tiles.poll(TILE_POLL_MS, TimeUnit.MILLISECONDS);
+				if (tile == null)
+					continue; // the last tiles are rendered by other workers, which may still fail
+				int tileWidth = tile[2];
+				int tileHeight = tile[3];
+				try {
+					output.writeInt(tile[0]);
+					output.writeInt(tile[1]);
+					output.writeInt(tileWidth);
+					output.writeInt(tileHeight);
+					output.flush();
+					if (pixels.length < tileWidth * tileHeight)
+						pixels = new int[tileWidth * tileHeight];
+					for (int i = 0; i < tileWidth * tileHeight; i++)
+						pixels[i] = input.readInt();
+				} catch (IOException e) {
+					tiles.addFirst(tile);
+					throw e;
+				}
+				putTile(target, tile, pixels);
+				remainingTiles.decrementAndGet();
+			}
+			output.writeInt(0);
+			output.writeInt(0);
+			output.writeInt(0);
+			output.writeInt(0);
+			output.flush();
+		}
+	}
+
+	// Copies the pixels of a tile into the image, the rows of both are in the order of IntBufferWrapper
+	private static void putTile(IntBufferWrapper target, int[] tile, int[] pixels) {
+		IntBuffer image = target.getIntBuffer();
+		int imageWidth = target.getImageWidth();
+		int tileWidth = tile[2];
+		int tileHeight = tile[3];
+		// the image is stored from its last row, so the last row of the tile is the first one in the buffer
+		int firstRow = target.getImageHeight() - tile[1] - tileHeight;
+		for (int row = 0; row < tileHeight; row++)
+			image.put((firstRow + row) * imageWidth + tile[0], pixels, row * tileWidth, tileWidth);
+	}
+
+	/** Worker processes started on the local machine, they are stopped when this is closed */
+	static final class LocalWorkers implements AutoCloseable {
+		final List<Process> processes = new ArrayList<>();
+		final List<InetSocketAddress> addresses = new ArrayList<>();
+
+		@Override
+		public void close() {
+			for (Process process : processes)
+				process.destroy();
+		}
+	}
+
+	/**
+	 * Starts worker processes on the local machine, with the Java and the class
+	 * path of this process, in the working directory of this process.
+	 *
+	 * @param count the number of workers
+	 * @return the workers, listening on free ports of the loopback address
+	 * @throws IOException if a worker failed to start
+	 */
+	static LocalWorkers startLocalWorkers(int count) throws IOException {
+		LocalWorkers localWorkers = new LocalWorkers();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		try {
+			for (int i = 0; i < count; i++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						TileRenderWorker.class.getName());
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				Process process = builder.start();
+				localWorkers.processes.add(process);
+				// the first line of the worker is its port, it writes nothing else to its standard output
+				BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+				String line = reader.readLine();
+				if (line == null || !line.startsWith("TileRenderWorker listening on "))
+					throw new IOException("The worker did not start: " + line);
+				int port = Integer.parseInt(line.substring("TileRenderWorker listening on ".length()).trim());
+				localWorkers.addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			}
+		} catch (IOException | RuntimeException e) {
+			localWorkers.close();
+			throw e;
+		}
+		return localWorkers;
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: java app_interface.TileRenderCoordinator <model file> <exercise> <depth> <width>x<height> <output bmp> <workers>");
+		System.err.println("  workers: the number of workers to start on this machine, or host:port,host:port,... of running workers");
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length != 6) {
+			printUsage();
+			System.exit(2);
+		}
+		String modelFileName = args[0];
+		String outputFileName = args[4];
+		ExerciseEnum exercise;
+		int depthOfRayTracing;
+		int imageWidth;
+		int imageHeight;
+		int localWorkersCount = 0;
+		List<InetSocketAddress> workers = new ArrayList<>();
+		try {
+			exercise = ExerciseEnum.valueOf(args[1]);
+			depthOfRayTracing = Integer.parseInt(args[2]);
+			String[] resolution = args[3].toLowerCase().split("x");
+			if (resolution.length != 2)
+				throw new IllegalArgumentException("The resolution must be given as <width>x<height>: " + args[3]);
+			imageWidth = Integer.parseInt(resolution[0]);
+			imageHeight = Integer.parseInt(resolution[1]);
+			if (args[5].matches("\\d+")) {
+				localWorkersCount = Integer.parseInt(args[5]);
+				if (localWorkersCount < 1)
+					throw new IllegalArgumentException("There must be at least one worker");
+			} else {
+				for (String worker : args[5].split(",")) {
+					int colon = worker.lastIndexOf(':');
+					if (colon < 0)
+						throw new IllegalArgumentException("A worker must be given as host:port: " + worker);
+					workers.add(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
+				}
+			}
+			if (depthOfRayTracing < 0 || imageWidth < 2 || imageHeight < 2)
+				throw new IllegalArgumentException("The depth must not be negative and the image must be at least 2x2.");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+			return;
+		}
+
+		IntBufferWrapper intBufferWrapper = new IntBufferWrapper(imageWidth, imageHeight);
+		// the workers load the model from the same path, so it must not depend on their working directory
+		String modelPath = new File(modelFileName).getAbsolutePath();
+		try (LocalWorkers localWorkers = localWorkersCount > 0 ? startLocalWorkers(localWorkersCount) : new LocalWorkers()) {
+			workers.addAll(localWorkers.addresses);
+			TileRenderCoordinator coordinator = new TileRenderCoordinator(workers, TileRenderEngine.DEFAULT_TILE_SIZE);
+			long startTime = System.nanoTime();
+			coordinator.render(modelPath, exercise, depthOfRayTracing, intBufferWrapper);
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			Utilities.saveIntBufferAsBMP(intBufferWrapper.getIntBuffer(), imageWidth, imageHeight, outputFileName);
+			System.out.printf("Rendered %s (%s, depth %d, %dx%d) on %d workers in %.3f s, %.0f primary rays per second%n",
+					modelFileName, exercise.name(), depthOfRayTracing, imageWidth, imageHeight, workers.size(),
+					seconds, imageWidth * (double) imageHeight / seconds);
+		} catch (IOException e) {
+			System.err.println("The render failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
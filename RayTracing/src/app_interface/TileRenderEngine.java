@@ -0,0 +1,501 @@
+package app_interface;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joml.Vector3f;
+
+import your_code.ErrorLogger;
+import your_code.WorldModel;
+
+/**
+ * The {@code TileRenderEngine} class renders the image of a {@link WorldModel}
+ * on a fixed pool of worker threads. The image is split into square tiles and
+ * every worker repeatedly takes the next tile that was not rendered yet, so fast
+ * and slow parts of the image are balanced between the workers. The rendered
+ * pixels are written straight into the {@link IntBufferWrapper}.
+ *
+ * A render that is still running is cancelled when a new one is started, e.g.
+ * when the exercise or the depth of ray tracing are changed in the interface.
+ *
+ * In the progressive order the image is rendered in passes from coarse to fine,
+ * see {@link RenderOrder#PROGRESSIVE}, so the composition of the whole image is
+ * visible long before the render is complete. In the random order the pixels
+ * are spread over the whole image, see {@link RenderOrder#RANDOM}.
+ *
+ * With anti-aliasing, see {@link #setMaxSamplesPerPixel(int)}, every pixel is
+ * first rendered with one sample as usual. A last pass then compares every
+ * pixel with its neighbors and adds stratified samples inside the pixels where
+ * the contrast is high, typically the edges of the spheres, so the cost is far
+ * below the cost of sampling every pixel several times.
+ */
+class TileRenderEngine {
+	static final int DEFAULT_TILE_SIZE = 32;
+
+	/** The order in which the pixels of the image are rendered */
+	enum RenderOrder {
+		/** Tile after tile from the top of the image, every pixel once */
+		TILES,
+		/**
+		 * Passes of 1/16 and then 1/4 of the resolution of the image before the
+		 * full resolution. Every pixel of a coarse pass fills its block of the
+		 * image until a finer pass renders the rest of the block, and every pixel is
+		 * still rendered only once. The first pass is 1/256 of the pixels.
+		 */
+		PROGRESSIVE,
+		/**
+		 * The pixels in a pseudo-random order of the whole image, see
+		 * {@link RandomPixelIterable}. The workers take continuous ranges of the
+		 * order, every pixel is rendered once.
+		 */
+		RANDOM
+	}
+
+	/** The block sizes of the passes of the progressive order, each divides the previous one */
+	private static final int[] PROGRESSIVE_BLOCK_SIZES = { 16, 4, 1 };
+	private static final int[] TILES_BLOCK_SIZES = { 1 };
+	/** The number of pixels a worker takes at once in the random order */
+	private static final int RANDOM_RANGE_SIZE = 1024;
+	/** A pixel gets more samples if a channel differs from a neighbor pixel by more than this */
+	static final float ANTI_ALIASING_CONTRAST_THRESHOLD = 0.1f;
+	/** How often a worker that waits for the previous pass checks whether the render was cancelled */
+	private static final long PASS_WAIT_POLL_MS = 20;
+
+	private final int threadsCount;
+	private final int tileSize;
+	private final ExecutorService workers;
+
+	private RenderJob currentJob;
+	private RenderOrder renderOrder = RenderOrder.TILES;
+	private int maxSamplesPerPixel = 1;
+
+	/**
+	 * Constructs a {@code TileRenderEngine} with one worker per available processor.
+	 */
+	TileRenderEngine() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Constructs a {@code TileRenderEngine}.
+	 *
+	 * @param threadsCount the number of worker threads
+	 * @param tileSize     the width and height of a tile in pixels
+	 */
+	TileRenderEngine(int threadsCount, int tileSize) {
+		this.threadsCount = threadsCount;
+		this.tileSize = tileSize;
+		this.workers = Executors.newFixedThreadPool(threadsCount, runnable -> {
+			Thread thread = new Thread(runnable, "render-worker");
+			thread.setDaemon(true); // the workers must not keep the application alive
+			return thread;
+		});
+	}
+
+	/**
+	 * Sets the order in which the next renders are rendered.
+	 *
+	 * @param renderOrder the order of the pixels
+	 */
+	synchronized void setRenderOrder(RenderOrder renderOrder) {
+		this.renderOrder = renderOrder;
+	}
+
+	/**
+	 * Sets the maximal number of samples of a pixel of the next renders, 1 turns
+	 * the anti-aliasing off. A pixel with a high contrast gets the first sample
+	 * and a stratified grid of k*k samples, the largest grid within the maximum,
+	 * e.g. 2*2 for 5 to 9 samples and 3*3 for 10 to 16 samples.
+	 *
+	 * @param maxSamplesPerPixel the maximal number of samples of a pixel, at least 1
+	 */
+	synchronized void setMaxSamplesPerPixel(int maxSamplesPerPixel) {
+		if (maxSamplesPerPixel < 1)
+			throw new IllegalArgumentException("There must be at least one sample per pixel: " + maxSamplesPerPixel);
+		this.maxSamplesPerPixel = maxSamplesPerPixel;
+	}
+
+	/** @return the maximal number of samples of a pixel of the next renders */
+	synchronized int getMaxSamplesPerPixel() {
+		return maxSamplesPerPixel;
+	}
+
+	/**
+	 * Starts rendering the whole image. A render that is still running is
+	 * cancelled first, see {@link #cancel()}.
+	 *
+	 * @param worldModel the world model that calculates the color of each pixel
+	 * @param target     the image the pixels are written to
+	 */
+	synchronized void start(WorldModel worldModel, IntBufferWrapper target) {
+		cancel();
+		currentJob = new RenderJob(worldModel, target,
+				renderOrder == RenderOrder.PROGRESSIVE ? PROGRESSIVE_BLOCK_SIZES : TILES_BLOCK_SIZES,
+				renderOrder == RenderOrder.RANDOM, (int) Math.sqrt(maxSamplesPerPixel - 1));
+		for (int i = 0; i < threadsCount; i++)
+			workers.execute(currentJob::renderTiles);
+	}
+
+	/**
+	 * Cancels the current render and waits until its workers stopped. The
+	 * workers stop after the pixels they are currently rendering without writing
+	 * them, so the image may be cleared or rendered again as soon as this returns.
+	 */
+	synchronized void cancel() {
+		if (currentJob == null)
+			return;
+		currentJob.cancelled = true;
+		try {
+			currentJob.finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** @return true if a render was started and was neither finished nor cancelled, and none of its workers failed */
+	synchronized boolean isRendering() {
+		return currentJob != null && !currentJob.cancelled && !currentJob.failed && currentJob.finished.getCount() > 0;
+	}
+
+	/** @return true if all the pixels of the current render were rendered, the render was not cancelled and none of its workers failed */
+	synchronized boolean isComplete() {
+		return currentJob != null && !currentJob.cancelled && !currentJob.failed && currentJob.finished.getCount() == 0;
+	}
+
+	/** @return the percent of the pixels of the current render that were already rendered */
+	synchronized int getPercentDone() {
+		if (currentJob == null)
+			return 0;
+		// the passes render every pixel once together, the anti-aliasing pass visits every pixel once more
+		long pixelsCount = (long) currentJob.imageWidth * currentJob.imageHeight * (currentJob.strata > 0 ? 2 : 1);
+		return (int) (100 * currentJob.pixelsDone.get() / pixelsCount);
+	}
+
+	/** @return the average number of samples of the pixels of the current render that were already rendered */
+	synchronized double getAverageSamplesPerPixel() {
+		if (currentJob == null)
+			return 0;
+		long pixelsCount = Math.min(currentJob.pixelsDone.get(), (long) currentJob.imageWidth * currentJob.imageHeight);
+		return pixelsCount == 0 ? 0 : (double) currentJob.samplesDone.get() / pixelsCount;
+	}
+
+	/**
+	 * Waits until all the workers of the current render stopped, either because
+	 * the image is complete, because the render was cancelled or because a worker
+	 * failed.
+	 *
+	 * @throws InterruptedException if the waiting thread was interrupted
+	 */
+	void awaitCompletion() throws InterruptedException {
+		RenderJob job;
+		synchronized (this) {
+			job = currentJob;
+		}
+		if (job != null)
+			job.finished.await();
+	}
+
+	/** Cancels the current render and stops the worker threads. */
+	synchronized void shutdown() {
+		cancel();
+		workers.shutdownNow();
+	}
+
+	// A single render of the whole image, shared by all the workers
+	private class RenderJob {
+		private final WorldModel worldModel;
+		private final IntBufferWrapper target;
+		private final int imageWidth;
+		private final int imageHeight;
+		private final int tilesInRow;
+		private final int tilesCount;
+		/** The block size of every pass, the last one is 1 */
+		private final int[] passBlockSizes;
+		/** The order of the pixels in the random order, null in the other orders */
+		private final RandomPixelIterable randomOrder;
+		/**
+		 * The work is split into units of one tile of one pass, or of one range of
+		 * the random order. The units of a pass are continuous.
+		 */
+		private final int unitsInPass;
+		private final int unitsCount;
+		private final AtomicInteger nextUnit = new AtomicInteger();
+		/** The rendered pixels, counted once in the passes and once more in the anti-aliasing pass */
+		private final AtomicLong pixelsDone = new AtomicLong();
+		private final AtomicLong samplesDone = new AtomicLong();
+		/** The stratified samples of a pixel with a high contrast are a grid of strata*strata, 0 without anti-aliasing */
+		private final int strata;
+		/** R, G, B of the first sample of every pixel, read by the anti-aliasing pass, null without anti-aliasing */
+		private final float[] firstSamples;
+		/** Counts down the units of every pass, a pass starts only after the previous one is complete */
+		private final CountDownLatch[] passesFinished;
+		private final CountDownLatch finished = new CountDownLatch(threadsCount);
+		private volatile boolean cancelled;
+		/** Set when a worker failed, the other workers stop like on a cancel since the pass of the failed unit never completes */
+		private volatile boolean failed;
+
+		RenderJob(WorldModel worldModel, IntBufferWrapper target, int[] passBlockSizes, boolean random, int strata) {
+			this.worldModel = worldModel;
+			this.target = target;
+			this.imageWidth = target.getImageWidth();
+			this.imageHeight = target.getImageHeight();
+			this.tilesInRow = (imageWidth + tileSize - 1) / tileSize;
+			this.tilesCount = tilesInRow * ((imageHeight + tileSize - 1) / tileSize);
+			this.passBlockSizes = passBlockSizes;
+			this.randomOrder = random ? new RandomPixelIterable(imageWidth, imageHeight) : null;
+			this.unitsInPass = random ? (randomOrder.size() + RANDOM_RANGE_SIZE - 1) / RANDOM_RANGE_SIZE : tilesCount;
+			this.strata = strata;
+			this.firstSamples = strata > 0 ? new float[imageWidth * imageHeight * 3] : null;
+			this.unitsCount = unitsInPass * passesCount();
+			this.passesFinished = new CountDownLatch[passesCount()];
+			for (int pass = 0; pass < passesFinished.length; pass++)
+				passesFinished[pass] = new CountDownLatch(unitsInPass);
+		}
+
+		// The passes of the block sizes and the anti-aliasing pass
+		int passesCount() {
+			return passBlockSizes.length + (strata > 0 ? 1 : 0);
+		}
+
+		// The loop of a single worker - takes units until there are no more units or the render is cancelled
+		void renderTiles() {
+			try {
+				int unit;
+				while (!cancelled && !failed && (unit = nextUnit.getAndIncrement()) < unitsCount) {
+					int pass = unit / unitsInPass;
+					// the blocks of a pass must not overwrite pixels of the next pass
+					if (pass > 0 && !awaitPass(pass - 1))
+						return;
+					if (randomOrder != null)
+						renderRandomRange(unit % unitsInPass, pass);
+					else
+						renderTile(unit % unitsInPass, pass);
+					passesFinished[pass].countDown();
+				}
+			} catch (RuntimeException | Error e) {
+				// the unit is never counted down, so the workers that wait for its pass stop instead
+				failed = true;
+				System.err.println("A render worker failed: " + e);
+				e.printStackTrace();
+				worldModel.reportError(ErrorLogger.ErrorType.RENDER_WORKER_FAILED);
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		// Waits until all the tiles of the pass were rendered, returns false if the render was cancelled or failed meanwhile
+		private boolean awaitPass(int pass) {
+			try {
+				while (!passesFinished[pass].await(PASS_WAIT_POLL_MS, TimeUnit.MILLISECONDS))
+					if (cancelled || failed)
+						return false;
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		private void renderTile(int tile, int pass) {
+			// tiles are numbered from the top of the image, where y is the highest
+			int xStart = (tile % tilesInRow) * tileSize;
+			int yEnd = imageHeight - (tile / tilesInRow) * tileSize;
+			int xEnd = Math.min(xStart + tileSize, imageWidth);
+			int yStart = Math.max(yEnd - tileSize, 0);
+			// the pixels of the pass are the corners of its blocks that are not corners of the blocks of the previous pass,
+			// the anti-aliasing pass visits all the pixels
+			boolean antiAliasingPass = pass == passBlockSizes.length;
+			int blockSize = antiAliasingPass ? 1 : passBlockSizes[pass];
+			int previousBlockSize = pass > 0 && !antiAliasingPass ? passBlockSizes[pass - 1] : 0;
+			PixelBatch batch = new PixelBatch(worldModel.getPixelsBatchSize()); // reused for every pixel of the tile
+			Vector3f pixelColor = new Vector3f();
+			Vector3f sampleColor = new Vector3f();
+			long renderedPixels = 0;
+			long addedSamples = 0;
+			for (int y = yEnd - 1; y >= yStart; y--) {
+				if (y % blockSize != 0)
+					continue;
+				for (int x = xStart; x < xEnd; x++) {
+					if (x % blockSize != 0 || (previousBlockSize > 0 && x % previousBlockSize == 0 && y % previousBlockSize == 0))
+						continue;
+					int samples;
+					if (antiAliasingPass) {
+						samples = antiAliasPixel(x, y, pixelColor, sampleColor);
+						renderedPixels++;
+					} else {
+						samples = batch.add(x, y) ? renderBatch(batch, blockSize) : 0;
+						renderedPixels += samples;
+					}
+					if (samples < 0)
+						return;
+					addedSamples += samples;
+				}
+			}
+			int samples = renderBatch(batch, blockSize);
+			if (samples < 0)
+				return;
+			pixelsDone.addAndGet(renderedPixels + samples);
+			samplesDone.addAndGet(addedSamples + samples);
+		}
+
+		private void renderRandomRange(int range, int pass) {
+			boolean antiAliasingPass = pass == passBlockSizes.length;
+			int fromPosition = range * RANDOM_RANGE_SIZE;
+			PrimitiveIterator.OfInt pixels = randomOrder.iterator(fromPosition,
+					Math.min(fromPosition + RANDOM_RANGE_SIZE, randomOrder.size()));
+			PixelBatch batch = new PixelBatch(worldModel.getPixelsBatchSize()); // reused for every pixel of the range
+			Vector3f pixelColor = new Vector3f();
+			Vector3f sampleColor = new Vector3f();
+			long renderedPixels = 0;
+			long addedSamples = 0;
+			while (pixels.hasNext()) {
+				int pixelIndex = pixels.nextInt();
+				int x = pixelIndex % imageWidth;
+				int y = pixelIndex / imageWidth;
+				int samples;
+				if (antiAliasingPass) {
+					samples = antiAliasPixel(x, y, pixelColor, sampleColor);
+					renderedPixels++;
+				} else {
+					samples = batch.add(x, y) ? renderBatch(batch, 1) : 0;
+					renderedPixels += samples;
+				}
+				if (samples < 0)
+					return;
+				addedSamples += samples;
+			}
+			int samples = renderBatch(batch, 1);
+			if (samples < 0)
+				return;
+			pixelsDone.addAndGet(renderedPixels + samples);
+			samplesDone.addAndGet(addedSamples + samples);
+		}
+
+		// Renders the first samples of the pixels of the batch and fills their blocks, returns the number of
+		// the pixels or -1 if the render was cancelled meanwhile
+		private int renderBatch(PixelBatch batch, int blockSize) {
+			int count = batch.count;
+			batch.count = 0;
+			if (count == 0)
+				return 0;
+			worldModel.renderPixels(batch.xs, batch.ys, count, batch.colors);
+			// checked after rendering, the pixels of a cancelled render are not written, see cancel()
+			if (cancelled)
+				return -1;
+			for (int i = 0; i < count; i++) {
+				int x = batch.xs[i];
+				int y = batch.ys[i];
+				Vector3f pixelColor = batch.colors[i];
+				if (blockSize == 1)
+					target.setPixel(x, y, pixelColor);
+				else
+					fillBlock(x, y, blockSize, pixelColor);
+				if (firstSamples != null) {
+					int index = 3 * (y * imageWidth + x);
+					clamp(pixelColor);
+					firstSamples[index] = pixelColor.x;
+					firstSamples[index + 1] = pixelColor.y;
+					firstSamples[index + 2] = pixelColor.z;
+				}
+			}
+			return count;
+		}
+
+		// Adds the stratified samples to a pixel with a high contrast, returns the number of the added samples
+		// or -1 if the render was cancelled meanwhile
+		private int antiAliasPixel(int x, int y, Vector3f pixelColor, Vector3f sampleColor) {
+			if (contrast(x, y) <= ANTI_ALIASING_CONTRAST_THRESHOLD)
+				return 0;
+			int index = 3 * (y * imageWidth + x);
+			pixelColor.set(firstSamples[index], firstSamples[index + 1], firstSamples[index + 2]);
+			// a random point in every cell of a strata*strata grid over the pixel
+			for (int i = 0; i < strata; i++) {
+				for (int j = 0; j < strata; j++) {
+					int sample = i * strata + j;
+					float sampleX = x - 0.5f + (i + jitter(x, y, 2 * sample)) / strata;
+					float sampleY = y - 0.5f + (j + jitter(x, y, 2 * sample + 1)) / strata;
+					pixelColor.add(clamp(worldModel.renderSubPixel(sampleX, sampleY, sampleColor)));
+				}
+			}
+			if (cancelled)
+				return -1;
+			target.setPixel(x, y, pixelColor.div(1 + strata * strata));
+			return strata * strata;
+		}
+
+		// The largest difference of a color channel between the first samples of the pixel and of its 4 neighbors
+		private float contrast(int x, int y) {
+			int index = 3 * (y * imageWidth + x);
+			float contrast = 0;
+			if (x > 0)
+				contrast = Math.max(contrast, difference(index, index - 3));
+			if (x < imageWidth - 1)
+				contrast = Math.max(contrast, difference(index, index + 3));
+			if (y > 0)
+				contrast = Math.max(contrast, difference(index, index - 3 * imageWidth));
+			if (y < imageHeight - 1)
+				contrast = Math.max(contrast, difference(index, index + 3 * imageWidth));
+			return contrast;
+		}
+
+		private float difference(int index, int neighborIndex) {
+			return Math.max(Math.abs(firstSamples[index] - firstSamples[neighborIndex]),
+					Math.max(Math.abs(firstSamples[index + 1] - firstSamples[neighborIndex + 1]),
+							Math.abs(firstSamples[index + 2] - firstSamples[neighborIndex + 2])));
+		}
+
+		// Fills the block of the image that starts at the pixel, the other pixels of the block belong to later passes
+		private void fillBlock(int x, int y, int blockSize, Vector3f pixelColor) {
+			int xEnd = Math.min(x + blockSize, imageWidth);
+			int yEnd = Math.min(y + blockSize, imageHeight);
+			for (int blockY = y; blockY < yEnd; blockY++)
+				for (int blockX = x; blockX < xEnd; blockX++)
+					target.setPixel(blockX, blockY, pixelColor);
+		}
+	}
+
+	// The pixels whose first samples are rendered together, see WorldModel.renderPixels
+	private static final class PixelBatch {
+		final int[] xs;
+		final int[] ys;
+		final Vector3f[] colors;
+		int count;
+
+		// size is the number of the pixels of a full batch, see WorldModel.getPixelsBatchSize
+		PixelBatch(int size) {
+			xs = new int[size];
+			ys = new int[size];
+			colors = new Vector3f[size];
+			for (int i = 0; i < size; i++)
+				colors[i] = new Vector3f();
+		}
+
+		// Adds the pixel, returns true if the batch is full
+		boolean add(int x, int y) {
+			xs[count] = x;
+			ys[count++] = y;
+			return count == xs.length;
+		}
+	}
+
+	// The color as it is written into the image, the samples are averaged after they are clamped
+	private static Vector3f clamp(Vector3f color) {
+		return color.set(Math.min(Math.max(color.x, 0), 1), Math.min(Math.max(color.y, 0), 1), Math.min(Math.max(color.z, 0), 1));
+	}
+
+	// A pseudo-random number in [0, 1) for a sample of a pixel, the same in every render
+	private static float jitter(int x, int y, int sample) {
+		int hash = x * 0x8DA6B343 ^ y * 0xD8163841 ^ sample * 0xCB1AB31F;
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		hash ^= hash >>> 16;
+		return (hash >>> 8) * 0x1.0p-24f;
+	}
+}
@@ -0,0 +1,153 @@
+package app_interface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.IntBuffer;
+
+import org.joml.Vector3f;
+
+import your_code.WorldModel;
+
+/**
+ * The {@code TileRenderWorker} class is a render process of the distributed
+ * render, see {@link TileRenderCoordinator}. It listens on a socket, and every
+ * coordinator that connects sends a job, the model file and the parameters of
+ * the render, and then the tiles of the image one by one. The worker loads the
+ * model into a {@link WorldModel} of its own and sends back the pixels of every
+ * tile. It does not read or write any file except the model and its textures,
+ * and does not load any JavaFX class.
+ *
+ * <pre>
+ * java app_interface.TileRenderWorker [port] [bind address]
+ * </pre>
+ *
+ * The default port 0 takes any free port, and by default only connections
+ * from the local machine are accepted. The first line of the standard output
+ * is {@code TileRenderWorker listening on <port>}.
+ *
+ * The messages of the protocol are written with {@link DataOutputStream}:
+ * <ul>
+ * <li>job: the magic number, the protocol version, the path of the model file,
+ * the name of the exercise, the depth of the ray tracing, the width and the
+ * height of the image. The reply is true, or false and the error message.</li>
+ * <li>tile: x, y, width and height, a width of 0 ends the job. The reply is the
+ * pixels of the tile in the order of the buffer of {@link IntBufferWrapper}:
+ * row after row from the highest y of the tile, y + height - 1, down to y, and
+ * every row from x to x + width - 1.</li>
+ * </ul>
+ */
+public class TileRenderWorker {
+	static final int MAGIC = 0x52544A42; // "RTJB"
+	static final int PROTOCOL_VERSION = 1;
+
+	// the pixels of a row are rendered together, see WorldModel.renderPixels
+	private static final int PIXELS_BATCH_SIZE = 8;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 2) {
+			System.err.println("Usage: java app_interface.TileRenderWorker [port] [bind address]");
+			System.exit(2);
+		}
+		int port = args.length >= 1 ? Integer.parseInt(args[0]) : 0;
+		InetAddress bindAddress = args.length == 2 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+		try (ServerSocket serverSocket = new ServerSocket(port, 50, bindAddress)) {
+			System.out.println("TileRenderWorker listening on " + serverSocket.getLocalPort());
+			System.out.flush();
+			while (true) {
+				Socket socket = serverSocket.accept();
+				Thread session = new Thread(() -> serve(socket), "render-session");
+				session.start();
+			}
+		}
+	}
+
+	// Serves the jobs of one coordinator until it disconnects
+	private static void serve(Socket socket) {
+		try (Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			while (serveJob(input, output))
+				;
+		} catch (IOException e) {
+			System.err.println("TileRenderWorker: the connection to " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+		}
+	}
+
+	// Serves a single job, returns false when the coordinator disconnected
+	private static boolean serveJob(DataInputStream input, DataOutputStream output) throws IOException {
+		int magic;
+		try {
+			magic = input.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		int version = input.readInt();
+		if (magic != MAGIC || version != PROTOCOL_VERSION)
+			throw new IOException("Not a coordinator of protocol version " + PROTOCOL_VERSION);
+		String modelFileName = input.readUTF();
+		String exerciseName = input.readUTF();
+		int depthOfRayTracing = input.readInt();
+		int imageWidth = input.readInt();
+		int imageHeight = input.readInt();
+
+		WorldModel worldModel = new WorldModel(imageWidth, imageHeight, null);
+		String error = null;
+		try {
+			worldModel.setExercise(ExerciseEnum.valueOf(exerciseName));
+			if (!worldModel.load(modelFileName))
+				error = "Failed to load the model file: " + modelFileName;
+		} catch (IllegalArgumentException e) {
+			error = "Unknown exercise: " + exerciseName;
+		}
+		worldModel.setRenderingParams(depthOfRayTracing);
+		output.writeBoolean(error == null);
+		if (error != null)
+			output.writeUTF(error);
+		output.flush();
+		if (error != null)
+			return true;
+
+		int[] xs = new int[PIXELS_BATCH_SIZE];
+		int[] ys = new int[PIXELS_BATCH_SIZE];
+		Vector3f[] colors = new Vector3f[PIXELS_BATCH_SIZE];
+		for (int i = 0; i < PIXELS_BATCH_SIZE; i++)
+			colors[i] = new Vector3f();
+		while (true) {
+			int tileX = input.readInt();
+			int tileY = input.readInt();
+			int tileWidth = input.readInt();
+			int tileHeight = input.readInt();
+			if (tileWidth == 0)
+				return true;
+			if (tileX < 0 || tileY < 0 || tileWidth < 0 || tileHeight < 0
+					|| tileX + tileWidth > imageWidth || tileY + tileHeight > imageHeight)
+				throw new IOException("The tile " + tileX + "," + tileY + " " + tileWidth + "x" + tileHeight + " is not in the image");
+			// the tile is written like an image of its own, so its rows are in the order of the image
+			IntBufferWrapper tile = new IntBufferWrapper(tileWidth, tileHeight);
+			for (int y = tileY; y < tileY + tileHeight; y++) {
+				for (int x = tileX; x < tileX + tileWidth; x += PIXELS_BATCH_SIZE) {
+					int count = Math.min(PIXELS_BATCH_SIZE, tileX + tileWidth - x);
+					for (int i = 0; i < count; i++) {
+						xs[i] = x + i;
+						ys[i] = y;
+					}
+					worldModel.renderPixels(xs, ys, count, colors);
+					for (int i = 0; i < count; i++)
+						tile.setPixel(x + i - tileX, y - tileY, colors[i]);
+				}
+			}
+			IntBuffer pixels = tile.getIntBuffer();
+			for (int i = 0; i < tileWidth * tileHeight; i++)
+				output.writeInt(pixels.get(i));
+			output.flush();
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package app_interface;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.joml.Vector3f;
+
+import your_code.WorldModel;
+
+// The tests of the classes of the interface that do not need JavaFX, run like your_code.UnitTests
+public class UnitTests {
+
+	private static void testRenderProgress() {
+		WorldModel worldModel = new WorldModel(60, 60, null);
+		if (!worldModel.load("./Models/ex_08___4SpheresFromFewMaterials.model")) {
+			System.out.println("testRenderProgress failed. The model could not be loaded.");
+			return;
+		}
+		worldModel.setRenderingParams(6);
+		TileRenderEngine renderEngine = new TileRenderEngine(4, 16);
+		renderEngine.setRenderOrder(TileRenderEngine.RenderOrder.PROGRESSIVE);
+		String failure = null;
+		try {
+			// a completed render is at 100 percent, with and without the anti-aliasing pass
+			for (int maxSamplesPerPixel : new int[] { 1, 5 }) {
+				renderEngine.setMaxSamplesPerPixel(maxSamplesPerPixel);
+				renderEngine.start(worldModel, new IntBufferWrapper(60, 60));
+				renderEngine.awaitCompletion();
+				if (failure == null && (!renderEngine.isComplete() || renderEngine.getPercentDone() != 100))
+					failure = maxSamplesPerPixel + " samples per pixel: complete " + renderEngine.isComplete()
+							+ ", " + renderEngine.getPercentDone() + " percent";
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = "interrupted";
+		} finally {
+			renderEngine.shutdown();
+		}
+		if (failure == null) {
+			System.out.println("testRenderProgress passed.");
+		} else {
+			System.out.println("testRenderProgress failed. " + failure);
+		}
+	}
+
+	private static void testRenderWorkerFailure() {
+		// the first pixels throw, the workers that wait for their pass must stop too
+		WorldModel worldModel = new WorldModel(60, 60, null) {
+			@Override
+			public void renderPixels(int[] xs, int[] ys, int count, Vector3f[] dest) {
+				throw new IllegalStateException("A failure of the test");
+			}
+		};
+		TileRenderEngine renderEngine = new TileRenderEngine(2, 16);
+		renderEngine.setRenderOrder(TileRenderEngine.RenderOrder.PROGRESSIVE);
+		String failure = null;
+		try {
+			System.err.println("testRenderWorkerFailure: the render workers fail on purpose");
+			renderEngine.start(worldModel, new IntBufferWrapper(60, 60));
+			Thread waiting = new Thread(() -> {
+				try {
+					renderEngine.awaitCompletion();
+				} catch (InterruptedException e) {
+					// the test thread stops waiting
+				}
+			});
+			waiting.start();
+			waiting.join(10_000);
+			if (waiting.isAlive()) {
+				waiting.interrupt();
+				failure = "The workers did not stop.";
+			} else if (renderEngine.isComplete()) {
+				failure = "The failed render is reported as complete.";
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = "interrupted";
+		} finally {
+			renderEngine.shutdown();
+		}
+		if (failure == null) {
+			System.out.println("testRenderWorkerFailure passed.");
+		} else {
+			System.out.println("testRenderWorkerFailure failed. " + failure);
+		}
+	}
+
+	private static void testRenderCancel() {
+		WorldModel worldModel = new WorldModel(60, 60, null) {
+			@Override
+			public void renderPixels(int[] xs, int[] ys, int count, Vector3f[] dest) {
+				for (int i = 0; i < count; i++)
+					dest[i].set(1);
+			}
+		};
+		TileRenderEngine renderEngine = new TileRenderEngine(4, 16);
+		// the pixels are written slowly, so the render is cancelled while the workers write a batch
+		IntBufferWrapper image = new IntBufferWrapper(60, 60) {
+			@Override
+			void setPixel(int x, int y, Vector3f color) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.setPixel(x, y, color);
+			}
+		};
+		String failure = null;
+		try {
+			renderEngine.start(worldModel, image);
+			Thread.sleep(20);
+			renderEngine.cancel();
+			// the cleared image must stay clear, the workers of the cancelled render do not write anymore
+			image.fillImageWithColor(0, 0, 0);
+			int cleared = image.getIntBuffer().get(0);
+			Thread.sleep(50);
+			for (int i = 0; i < 60 * 60 && failure == null; i++)
+				if (image.getIntBuffer().get(i) != cleared)
+					failure = "The cancelled render wrote the pixel " + i + " after the image was cleared.";
+			if (failure == null && (renderEngine.isRendering() || renderEngine.isComplete()))
+				failure = "The cancelled render is still rendering or complete.";
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = "interrupted";
+		} finally {
+			renderEngine.shutdown();
+		}
+		if (failure == null) {
+			System.out.println("testRenderCancel passed.");
+		} else {
+			System.out.println("testRenderCancel failed. " + failure);
+		}
+	}
+
+	private static void testRenderCacheKey() {
+		try {
+			Model model = Model.parse("./Models/ex_08___4SpheresFromFewMaterials.model");
+			String key = RenderResultCache.key(model, ExerciseEnum.EX_8___Transparency, 6, 60, 60, 1, false);
+			boolean sameKey = key.equals(RenderResultCache.key(model, ExerciseEnum.EX_8___Transparency, 6, 60, 60, 1, false));
+			// every setting that changes the image changes the key
+			boolean distinctKeys = !key.equals(RenderResultCache.key(model, ExerciseEnum.EX_7___Reflection, 6, 60, 60, 1, false))
+					&& !key.equals(RenderResultCache.key(model, ExerciseEnum.EX_8___Transparency, 5, 60, 60, 1, false))
+					&& !key.equals(RenderResultCache.key(model, ExerciseEnum.EX_8___Transparency, 6, 60, 61, 1, false))
+					&& !key.equals(RenderResultCache.key(model, ExerciseEnum.EX_8___Transparency, 6, 60, 60, 5, false))
+					&& !key.equals(RenderResultCache.key(model, ExerciseEnum.EX_8___Transparency, 6, 60, 60, 1, true));
+			// the exercises of the colors are not cached, one of them is random
+			boolean colorsNotCached = true;
+			for (ExerciseEnum exercise : ExerciseEnum.values())
+				if (exercise.ordinal() <= ExerciseEnum.EX_1_3_Colors_linear.ordinal())
+					colorsNotCached &= RenderResultCache.key(model, exercise, 6, 60, 60, 1, false) == null;
+			if (key.length() == 64 && sameKey && distinctKeys && colorsNotCached) {
+				System.out.println("testRenderCacheKey passed.");
+			} else {
+				System.out.println("testRenderCacheKey failed. Same key: " + sameKey + ", distinct keys: " + distinctKeys
+						+ ", the exercises of the colors are not cached: " + colorsNotCached);
+			}
+		} catch (Exception e) {
+			System.out.println("testRenderCacheKey failed. " + e);
+		}
+	}
+
+	private static void testRenderCacheChecksum() {
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("render-cache-test");
+			RenderResultCache cache = new RenderResultCache(directory, RenderResultCache.DEFAULT_CAPACITY_BYTES);
+			String key = "a".repeat(64);
+			IntBuffer frame = testFrame(8, 8, 1);
+			cache.store(key, frame, 8, 8);
+			IntBuffer loaded = IntBuffer.allocate(8 * 8);
+			boolean intact = cache.load(key, loaded) && loaded.equals(frame);
+			// a flipped bit of the last pixel, the file is deleted and the pixels are not changed
+			Path file = directory.resolve(key + ".frame");
+			byte[] contents = Files.readAllBytes(file);
+			contents[contents.length - 1] ^= 1;
+			Files.write(file, contents);
+			IntBuffer untouched = IntBuffer.allocate(8 * 8);
+			boolean rejected = !cache.load(key, untouched) && !Files.exists(file) && untouched.equals(IntBuffer.allocate(8 * 8));
+			if (intact && rejected) {
+				System.out.println("testRenderCacheChecksum passed.");
+			} else {
+				System.out.println("testRenderCacheChecksum failed. Intact frame loaded: " + intact + ", corrupted frame rejected: " + rejected);
+			}
+		} catch (IOException e) {
+			System.out.println("testRenderCacheChecksum failed. " + e);
+		} finally {
+			deleteCache(directory);
+		}
+	}
+
+	private static void testRenderCacheEviction() {
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("render-cache-test");
+			String first = "a".repeat(64);
+			String second = "b".repeat(64);
+			String third = "c".repeat(64);
+			// room for two frames of 8x8
+			RenderResultCache sizing = new RenderResultCache(directory, RenderResultCache.DEFAULT_CAPACITY_BYTES);
+			sizing.store(first, testFrame(8, 8, 1), 8, 8);
+			long frameBytes = sizing.sizeInBytes();
+			sizing.clear();
+			RenderResultCache cache = new RenderResultCache(directory, 2 * frameBytes + frameBytes / 2);
+			cache.store(first, testFrame(8, 8, 1), 8, 8);
+			cache.store(second, testFrame(8, 8, 2), 8, 8);
+			// the times of the last use are set, the resolution of the times of the files may be coarse
+			long now = System.currentTimeMillis();
+			Files.setLastModifiedTime(directory.resolve(first + ".frame"), FileTime.fromMillis(now - 7_200_000));
+			Files.setLastModifiedTime(directory.resolve(second + ".frame"), FileTime.fromMillis(now - 3_600_000));
+			// the first frame is used, so the second one is the least recently used
+			IntBuffer loaded = IntBuffer.allocate(8 * 8);
+			boolean firstLoaded = cache.load(first, loaded);
+			cache.store(third, testFrame(8, 8, 3), 8, 8);
+			boolean evicted = cache.load(first, loaded) && !cache.load(second, loaded) && cache.load(third, loaded)
+					&& loaded.equals(testFrame(8, 8, 3)) && cache.sizeInBytes() == 2 * frameBytes;
+			if (firstLoaded && evicted) {
+				System.out.println("testRenderCacheEviction passed.");
+			} else {
+				System.out.println("testRenderCacheEviction failed. The least recently used frame was not the only one evicted.");
+			}
+		} catch (IOException e) {
+			System.out.println("testRenderCacheEviction failed. " + e);
+		} finally {
+			deleteCache(directory);
+		}
+	}
+
+	// The pixels of a frame of a test, different for every seed
+	private static IntBuffer testFrame(int imageWidth, int imageHeight, int seed) {
+		IntBuffer frame = IntBuffer.allocate(imageWidth * imageHeight);
+		for (int i = 0; i < frame.limit(); i++)
+			frame.put(i, 0xFF000000 | (seed * 0x9E3779B1 + i * 0x85EBCA6B) >>> 8);
+		return frame;
+	}
+
+	private static void deleteCache(Path directory) {
+		if (directory == null)
+			return;
+		try {
+			new RenderResultCache(directory, 0).clear();
+			Files.delete(directory);
+		} catch (IOException e) {
+			System.err.println("Failed to delete the render cache of a test: " + e.getMessage());
+		}
+	}
+
+	private static void testCoordinatorHungWorker() {
+		String modelFile = new File("./Models/ex_08___4SpheresFromFewMaterials.model").getAbsolutePath();
+		// a worker that accepts the job and the first tile and never replies
+		AtomicBoolean tileTaken = new AtomicBoolean();
+		try (ServerSocket hungWorker = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+				TileRenderCoordinator.LocalWorkers localWorkers = TileRenderCoordinator.startLocalWorkers(1)) {
+			Thread hungSession = new Thread(() -> {
+				try (Socket socket = hungWorker.accept()) {
+					DataInputStream input = new DataInputStream(socket.getInputStream());
+					DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+					input.readInt();
+					input.readInt();
+					input.readUTF();
+					input.readUTF();
+					input.readInt();
+					input.readInt();
+					input.readInt();
+					output.writeBoolean(true);
+					output.flush();
+					for (int i = 0; i < 4; i++)
+						input.readInt();
+					tileTaken.set(true);
+					while (input.read() >= 0)
+						; // until the coordinator gives up and disconnects
+				} catch (IOException e) {
+					// the coordinator disconnected
+				}
+			}, "hung-worker");
+			hungSession.setDaemon(true);
+			hungSession.start();
+
+			List<InetSocketAddress> workers = new ArrayList<>();
+			workers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), hungWorker.getLocalPort()));
+			workers.addAll(localWorkers.addresses);
+			TileRenderCoordinator coordinator = new TileRenderCoordinator(workers, 16, 500);
+			IntBufferWrapper image = new IntBufferWrapper(48, 48);
+			System.err.println("testCoordinatorHungWorker: a worker does not reply on purpose");
+			coordinator.render(modelFile, ExerciseEnum.EX_8___Transparency, 3, image);
+
+			// the tile of the hung worker was rendered by the other worker, the image is the image of a single process
+			WorldModel worldModel = new WorldModel(48, 48, null);
+			worldModel.load(modelFile);
+			worldModel.setExercise(ExerciseEnum.EX_8___Transparency);
+			worldModel.setRenderingParams(3);
+			IntBufferWrapper expected = new IntBufferWrapper(48, 48);
+			Vector3f pixelColor = new Vector3f();
+			for (int y = 0; y < 48; y++)
+				for (int x = 0; x < 48; x++)
+					expected.setPixel(x, y, worldModel.renderPixel(x, y, pixelColor));
+			boolean sameImage = image.getIntBuffer().equals(expected.getIntBuffer());
+			if (tileTaken.get() && sameImage) {
+				System.out.println("testCoordinatorHungWorker passed.");
+			} else {
+				System.out.println("testCoordinatorHungWorker failed. The hung worker took a tile: " + tileTaken.get()
+						+ ", the same image as a single process: " + sameImage);
+			}
+		} catch (IOException e) {
+			System.out.println("testCoordinatorHungWorker failed. " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("testCoordinatorHungWorker failed. interrupted");
+		}
+	}
+
+	private static void testRandomPixelOrder() {
+		int[][] sizes = { { 1, 1 }, { 1, 2 }, { 2, 1 }, { 7, 13 }, { 64, 64 }, { 640, 480 }, { 1921, 1081 }, { 1920, 1080 } };
+		String failure = null;
+		for (int[] size : sizes) {
+			for (long seed = 0; seed < 3 && failure == null; seed++) {
+				RandomPixelIterable order = new RandomPixelIterable(size[0], size[1], seed);
+				int pixelsCount = size[0] * size[1];
+				// the whole order visits every pixel exactly once
+				BitSet visited = new BitSet(pixelsCount);
+				int[] positions = new int[pixelsCount];
+				int count = 0;
+				PrimitiveIterator.OfInt pixels = order.iterator();
+				while (pixels.hasNext() && count <= pixelsCount) {
+					int pixel = pixels.nextInt();
+					if (pixel < 0 || pixel >= pixelsCount || visited.get(pixel)) {
+						failure = size[0] + "x" + size[1] + ": the pixel " + pixel + " is outside the image or visited twice";
+						break;
+					}
+					visited.set(pixel);
+					if (count < pixelsCount)
+						positions[count] = pixel;
+					count++;
+				}
+				if (failure == null && (count != pixelsCount || order.size() != pixelsCount))
+					failure = size[0] + "x" + size[1] + ": " + count + " pixels visited of " + pixelsCount;
+				// the ranges of the workers are the continuous parts of the same order, so they are disjoint
+				int rangeSize = 1 + pixelsCount / 7;
+				for (int from = 0; from < pixelsCount && failure == null; from += rangeSize) {
+					int to = Math.min(from + rangeSize, pixelsCount);
+					PrimitiveIterator.OfInt range = order.iterator(from, to);
+					for (int position = from; position < to && failure == null; position++)
+						if (!range.hasNext() || range.nextInt() != positions[position])
+							failure = size[0] + "x" + size[1] + ": the range from " + from + " differs from the order at " + position;
+					if (failure == null && range.hasNext())
+						failure = size[0] + "x" + size[1] + ": the range from " + from + " is longer than " + (to - from);
+				}
+			}
+		}
+		if (failure == null) {
+			System.out.println("testRandomPixelOrder passed.");
+		} else {
+			System.out.println("testRandomPixelOrder failed. " + failure);
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("\nRender engine tests");
+		System.out.println("=========================");
+		testRandomPixelOrder();
+		testRenderProgress();
+		testRenderWorkerFailure();
+		testRenderCancel();
+
+		System.out.println("\nRender cache tests");
+		System.out.println("=========================");
+		testRenderCacheKey();
+		testRenderCacheChecksum();
+		testRenderCacheEviction();
+
+		System.out.println("\nDistributed render tests");
+		System.out.println("=========================");
+		testCoordinatorHungWorker();
+	}
+}
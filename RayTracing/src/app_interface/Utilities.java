@@ -7,71 +7,10 @@ import java.io.IOException;
 import java.nio.IntBuffer;
 import java.util.Scanner;
 
-import javafx.stage.FileChooser;
-import javafx.stage.Stage;
-
 
+// Must not refer to JavaFX classes, it is used by the model parsing of the headless renderer too.
+// The file choosers of the interface are in FxUtilities.
 class Utilities {
-    static String openFileChooser(Stage stage, String fileExtension, String initialDirectory) {
-        FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Select File");
-        
-        // Set initial directory (optional)
-        File initialDirFile = new File(initialDirectory);
-        if (initialDirFile.exists() && initialDirFile.isDirectory()) 
-        	fileChooser.setInitialDirectory(initialDirFile);
-        else
-        	fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
-        
-        // Set file extension filters (optional)
-        fileChooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("Files", "*." + fileExtension)
-//                new FileChooser.ExtensionFilter("All Files", "*.*"),
-//                new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg", "*.gif"),
-//                new FileChooser.ExtensionFilter("Text Files", "*.txt")
-        );
-        
-        // Open the file chooser dialog
-        File selectedFile = fileChooser.showOpenDialog(stage);
-        
-        if (selectedFile != null) {
-//            return selectedFile.getAbsolutePath();
-			return getRelativePath(selectedFile);
-        } else {
-            return null;
-        }
-    }	
-    
-    static String saveFileChooser(Stage stage, String fileExtension, String initialDirectory) {
-        FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Save File");
-        
-        // Set initial directory (optional)
-        File initialDirFile = new File(initialDirectory);
-        if (initialDirFile.exists() && initialDirFile.isDirectory()) 
-        	fileChooser.setInitialDirectory(initialDirFile);
-        else
-        	fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
-        
-        // Set file extension filter
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("Files", "*." + fileExtension)
-        );
-        
-        // Set initial file name (optional)
-        fileChooser.setInitialFileName("untitled." + fileExtension);
-        
-        // Open the file chooser dialog
-        File selectedFile = fileChooser.showSaveDialog(stage);
-        
-        if (selectedFile != null) {
-//            return selectedFile.getAbsolutePath();
-			return getRelativePath(selectedFile);
-        } else {
-            return null;
-        }
-    }   
-   
 	// Method to compute the relative path of a file
 	public static String getRelativePath(File file) {
 		// Get the current working directory
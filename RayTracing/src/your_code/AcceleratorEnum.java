@@ -0,0 +1,12 @@
+package your_code;
+
+/**
+ * The acceleration structures that find the spheres a ray hits, one of them is
+ * built for every scene, see {@link WorldModel#setAccelerator(AcceleratorEnum)}.
+ */
+public enum AcceleratorEnum {
+	/** Bounding volume hierarchy, adapts to scenes of any distribution of spheres */
+	BVH,
+	/** Uniform grid, built faster and traversed in order, for scenes of evenly spread spheres such as lattices */
+	GRID
+};
@@ -10,7 +10,8 @@ import javafx.stage.Stage;
 public class ErrorLogger {
     public enum ErrorType {
         EXAMPLE_ERROR_1("One example of error that can happen."),
-        EXAMPLE_ERROR_2("Second example of error that can happen.");
+        EXAMPLE_ERROR_2("Second example of error that can happen."),
+        RENDER_WORKER_FAILED("A render worker failed, the image is incomplete. The exception is printed to the standard error.");
 
         private final String description;
         private String firstOccurrence;
@@ -50,7 +51,8 @@ public class ErrorLogger {
         this.errorCounts = new int[ErrorType.values().length];
     }
 
-    public void report(ErrorType errorType) {
+    // synchronized, the render workers report too
+    public synchronized void report(ErrorType errorType) {
     	totalCount++;
         errorCounts[errorType.ordinal()]++;
         String callerInfo = getCallerInfo();
@@ -85,7 +87,7 @@ public class ErrorLogger {
         return report.toString();
     }
 
-    public int getTotalCount() {
+    public synchronized int getTotalCount() {
     	return totalCount;
     }
     
@@ -14,6 +14,10 @@ class IntersectionResults {
 	boolean rayFromOutsideOfSphere;
 	/** The ModelSphere object that was intersected */
 	ModelSphere intersectedSphere;
+	/** The index of the intersected sphere in the RenderScene, the planes follow the spheres, -1 if unknown */
+	int sphereIndex = -1;
+	/** The distance along the ray from its start to the point of intersection */
+	float distance;
 
 	/** Constructor that sets all fields of the IntersectionResults object
 	 * @param intersected            true if an intersection occurred, false otherwise
@@ -28,4 +32,23 @@ class IntersectionResults {
 		this.rayFromOutsideOfSphere = rayFromOutsideOfSphere;
 		this.intersectedSphere = intersectedSphere;
 	}
-}
\ No newline at end of file
+
+	/** Constructor of an empty record with its own vectors, used as a reusable hit record */
+	IntersectionResults() {
+		this.intersectionPoint = new Vector3f();
+		this.normal = new Vector3f();
+	}
+
+	/** Copies the intersection of another record into the vectors of this record
+	 * @param other the record to copy
+	 * @return this */
+	IntersectionResults set(IntersectionResults other) {
+		intersectionPoint.set(other.intersectionPoint);
+		normal.set(other.normal);
+		rayFromOutsideOfSphere = other.rayFromOutsideOfSphere;
+		intersectedSphere = other.intersectedSphere;
+		sphereIndex = other.sphereIndex;
+		distance = other.distance;
+		return this;
+	}
+}
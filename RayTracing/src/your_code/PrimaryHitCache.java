@@ -0,0 +1,123 @@
+package your_code;
+
+import java.util.Arrays;
+
+/**
+ * The nearest hits of the primary rays of the pixels of the image, kept
+ * between renders so a render of the same camera and geometry, e.g. with
+ * another depth of the ray tracing or with other materials, does not trace the
+ * primary rays again.
+ *
+ * The primary ray of a pixel depends only on the field of view and the hit
+ * only on the spheres and the planes, so a cache belongs to a geometry, see
+ * {@link RenderScene#sameGeometry(RenderScene)}. The hits are stored as the
+ * index of the sphere or the plane, the point, the normal and the side, the
+ * materials are looked up in the scene that is rendered.
+ *
+ * A pixel is written by one render worker at a time, the index of the sphere
+ * is written last, and the renders hand the cache over through the start of
+ * their workers.
+ */
+final class PrimaryHitCache {
+	/** The pixel was not traced yet */
+	static final int UNKNOWN = -2;
+	/** The primary ray of the pixel hits no sphere */
+	static final int MISS = -1;
+
+	private final int imageWidth;
+	private final int imageHeight;
+	/** The sphere of the hit of every pixel, or UNKNOWN or MISS */
+	private final int[] spheres;
+	/** x, y, z of the point of the hit of every pixel */
+	private final float[] points;
+	/** x, y, z of the normal of the hit of every pixel */
+	private final float[] normals;
+	private final boolean[] fromOutside;
+
+	/**
+	 * Constructs an empty {@code PrimaryHitCache}.
+	 *
+	 * @param imageWidth  the width of the image in pixels
+	 * @param imageHeight the height of the image in pixels
+	 */
+	PrimaryHitCache(int imageWidth, int imageHeight) {
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		int pixelsCount = Math.multiplyExact(imageWidth, imageHeight);
+		spheres = new int[pixelsCount];
+		points = new float[3 * pixelsCount];
+		normals = new float[3 * pixelsCount];
+		fromOutside = new boolean[pixelsCount];
+		clear();
+	}
+
+	/**
+	 * Reads the cached hit of a pixel.
+	 *
+	 * @param x   the x coordinate of the pixel
+	 * @param y   the y coordinate of the pixel
+	 * @param hit the record that receives the hit, written only if there is one
+	 * @return the sphere of the hit, MISS if the ray hits nothing or UNKNOWN if
+	 *         the pixel is not cached or not in the image
+	 */
+	int get(int x, int y, IntersectionResults hit) {
+		int pixel = pixelIndex(x, y);
+		if (pixel < 0)
+			return UNKNOWN;
+		int sphere = spheres[pixel];
+		if (sphere < 0)
+			return sphere;
+		hit.intersectionPoint.set(points[3 * pixel], points[3 * pixel + 1], points[3 * pixel + 2]);
+		hit.normal.set(normals[3 * pixel], normals[3 * pixel + 1], normals[3 * pixel + 2]);
+		hit.rayFromOutsideOfSphere = fromOutside[pixel];
+		hit.intersectedSphere = null;
+		hit.sphereIndex = sphere;
+		return sphere;
+	}
+
+	/**
+	 * Caches the hit of a pixel, a pixel that is not in the image is ignored.
+	 *
+	 * @param x   the x coordinate of the pixel
+	 * @param y   the y coordinate of the pixel
+	 * @param hit the nearest hit of the primary ray of the pixel
+	 */
+	void putHit(int x, int y, IntersectionResults hit) {
+		int pixel = pixelIndex(x, y);
+		if (pixel < 0)
+			return;
+		points[3 * pixel] = hit.intersectionPoint.x;
+		points[3 * pixel + 1] = hit.intersectionPoint.y;
+		points[3 * pixel + 2] = hit.intersectionPoint.z;
+		normals[3 * pixel] = hit.normal.x;
+		normals[3 * pixel + 1] = hit.normal.y;
+		normals[3 * pixel + 2] = hit.normal.z;
+		fromOutside[pixel] = hit.rayFromOutsideOfSphere;
+		spheres[pixel] = hit.sphereIndex;
+	}
+
+	/**
+	 * Caches a pixel whose primary ray hits no sphere, a pixel that is not in
+	 * the image is ignored.
+	 *
+	 * @param x the x coordinate of the pixel
+	 * @param y the y coordinate of the pixel
+	 */
+	void putMiss(int x, int y) {
+		int pixel = pixelIndex(x, y);
+		if (pixel >= 0)
+			spheres[pixel] = MISS;
+	}
+
+	/** Removes the hits of all the pixels */
+	void clear() {
+		Arrays.fill(spheres, UNKNOWN);
+	}
+
+	// The index of the pixel in the arrays, -1 if it is not in the image, e.g. the pixel under the cursor
+	private int pixelIndex(int x, int y) {
+		if (x < 0 || x >= imageWidth || y < 0 || y >= imageHeight)
+			return -1;
+		return y * imageWidth + x;
+	}
+}
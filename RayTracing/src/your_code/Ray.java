@@ -0,0 +1,69 @@
+package your_code;
+
+import org.joml.Vector3f;
+
+/**
+ * A ray of the ray tracer, its origin, its normalized direction and the
+ * interval [tMin, tMax] of the distances along the ray where a hit counts.
+ *
+ * Every query of {@link RenderScene} and of its {@link SphereAccelerator}
+ * ignores the hits outside the interval, so a shadow ray stops at its light
+ * and the structures skip everything beyond tMax. A nearest hit query narrows
+ * tMax to the distance of every closer hit it finds, so after the query tMax is
+ * the distance of the nearest hit.
+ *
+ * The rays are reused, every depth level of the recursion has its own ray in
+ * its frame of the {@link TraceContext}, and a ray is reset before it is traced
+ * again.
+ */
+final class Ray {
+	/** The hits closer than this to the origin are taken for the surface the ray starts on */
+	static final float DEFAULT_T_MIN = 1e-3f;
+	/** The distance the origin of a shadow or a transmitted ray is moved off the surface it starts on */
+	static final float SURFACE_OFFSET = 0.01f;
+
+	final Vector3f origin = new Vector3f();
+	/** The normalized direction */
+	final Vector3f direction = new Vector3f();
+	float tMin = DEFAULT_T_MIN;
+	float tMax = Float.MAX_VALUE;
+
+	/**
+	 * Sets the ray and opens its interval to [DEFAULT_T_MIN, Float.MAX_VALUE].
+	 *
+	 * @param origin    the origin of the ray
+	 * @param direction the normalized direction of the ray
+	 * @return this
+	 */
+	Ray set(Vector3f origin, Vector3f direction) {
+		this.origin.set(origin);
+		this.direction.set(direction);
+		return reset();
+	}
+
+	/**
+	 * Sets the origin of the ray near a point of a surface, moved by
+	 * SURFACE_OFFSET along the normal or against it to the side the ray leaves
+	 * to, and opens its interval. The direction is not changed.
+	 *
+	 * @param point       the point of the surface
+	 * @param normal      the normal of the surface at the point
+	 * @param alongNormal true to move the origin to the side the normal points to
+	 * @return this
+	 */
+	Ray setFromSurface(Vector3f point, Vector3f normal, boolean alongNormal) {
+		origin.set(normal).mul(alongNormal ? SURFACE_OFFSET : -SURFACE_OFFSET).add(point);
+		return reset();
+	}
+
+	/**
+	 * Opens the interval of the ray to [DEFAULT_T_MIN, Float.MAX_VALUE].
+	 *
+	 * @return this
+	 */
+	Ray reset() {
+		tMin = DEFAULT_T_MIN;
+		tMax = Float.MAX_VALUE;
+		return this;
+	}
+}
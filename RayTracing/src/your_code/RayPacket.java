@@ -0,0 +1,58 @@
+package your_code;
+
+/**
+ * A packet of coherent rays from the same origin, e.g. the primary rays of
+ * neighboring pixels, stored as struct of arrays so the nearest hit query of
+ * {@link SphereBVH} runs the same calculation over all the rays of the packet
+ * in tight loops over the lanes.
+ *
+ * The rays that are still in the query are the lanes of a bit mask, the rays
+ * of a packet take different paths through the hierarchy, so every node is
+ * visited with the mask of the rays that enter its box.
+ */
+final class RayPacket {
+	/** The maximal number of rays of a packet, the lanes fit in the bits of an int mask */
+	static final int SIZE = 8;
+
+	/** The number of rays in the packet, lanes 0 to raysCount-1 */
+	int raysCount;
+
+	// the origin of all the rays
+	float originX;
+	float originY;
+	float originZ;
+
+	// the normalized direction of every ray
+	final float[] directionX = new float[SIZE];
+	final float[] directionY = new float[SIZE];
+	final float[] directionZ = new float[SIZE];
+
+	// the inverse of the direction, for the box tests
+	final float[] inverseX = new float[SIZE];
+	final float[] inverseY = new float[SIZE];
+	final float[] inverseZ = new float[SIZE];
+
+	/** The distance along the rays below which intersections are ignored, see {@link Ray} */
+	float tMin = Ray.DEFAULT_T_MIN;
+
+	/** The distance to the nearest hit of every ray, Float.MAX_VALUE if there is none, the tMax of the ray */
+	final float[] closestDistance = new float[SIZE];
+	/** The sphere or the plane of the nearest hit of every ray, see RenderScene, -1 if there is none */
+	final int[] closestSphere = new int[SIZE];
+
+	/** The entry distances into a box of every ray, scratch of the traversal */
+	final float[] boxDistance = new float[SIZE];
+
+	/** Clears the nearest hits of the rays of the packet before a nearest hit query */
+	void clearHits() {
+		for (int lane = 0; lane < raysCount; lane++) {
+			closestDistance[lane] = Float.MAX_VALUE;
+			closestSphere[lane] = -1;
+		}
+	}
+
+	/** @return the mask of all the rays of the packet */
+	int allRaysMask() {
+		return (1 << raysCount) - 1;
+	}
+}
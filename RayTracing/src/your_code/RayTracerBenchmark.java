@@ -0,0 +1,254 @@
+package your_code;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.joml.Vector3f;
+
+import app_interface.ExerciseEnum;
+
+/**
+ * Benchmark of the ray tracer over the model files in a directory, meant to be
+ * run before and after a change to compare the numbers.
+ *
+ * Every benchmark is run on the calling thread only: a few warmup iterations
+ * that are not measured, then the measured iterations. For every model it
+ * reports the time per primary ray of a full render at several depths, one
+ * pixel at a time (renderPixel, which calls rayTracing) and in packets of
+ * neighboring pixels (renderPixels), and the time per ray of the nearest hit
+ * query of single rays and of packets, the shadow test and the exact and fast
+ * texture sampling. The render and the queries are measured with every
+ * {@link AcceleratorEnum} too, with the time to build the structure. The bytes
+ * allocated per operation are measured with the allocation counter of the
+ * thread. The render in packets is measured with the wavefront ray tracer
+ * too, in batches of {@link WavefrontTracer#PIXELS_BATCH_SIZE} pixels.
+ *
+ * <pre>
+ * java your_code.RayTracerBenchmark [models directory] [depths, e.g. 1,3,6] [image size] [warmup iterations] [iterations]
+ * </pre>
+ *
+ * The defaults are ./Models, 1,3,6, 200, 3 and 5. Models that fail to load,
+ * e.g. because of a missing texture, are reported and skipped.
+ */
+public class RayTracerBenchmark {
+	private final int imageSize;
+	private final int warmupIterations;
+	private final int iterations;
+	private final com.sun.management.ThreadMXBean threadBean =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/** Results are added here so the compiler cannot remove the benchmarked calls */
+	private double sink;
+
+	RayTracerBenchmark(int imageSize, int warmupIterations, int iterations) {
+		this.imageSize = imageSize;
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+	}
+
+	// A benchmarked operation, one iteration performs operationsCount operations
+	private interface Iteration {
+		void run();
+	}
+
+	// Runs the warmup and the measured iterations and prints the time and the allocation per operation
+	private void measure(String modelName, String benchmarkName, long operationsCount, Iteration iteration) {
+		for (int i = 0; i < warmupIterations; i++)
+			iteration.run();
+		long threadId = Thread.currentThread().getId();
+		double[] nanosPerOperation = new double[iterations];
+		long allocatedBytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			long startTime = System.nanoTime();
+			iteration.run();
+			nanosPerOperation[i] = (double) (System.nanoTime() - startTime) / operationsCount;
+			allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		}
+		double mean = Arrays.stream(nanosPerOperation).average().orElse(0);
+		double variance = Arrays.stream(nanosPerOperation).map(v -> (v - mean) * (v - mean)).average().orElse(0);
+		System.out.printf(Locale.ROOT, "%-45s %-26s %12.1f %10.1f %14.2f%n", modelName, benchmarkName,
+				mean, Math.sqrt(variance), (double) allocatedBytes / iterations / operationsCount);
+	}
+
+	// Runs all the benchmarks of a single model
+	void run(File modelFile, int[] depths) {
+		String modelName = modelFile.getName().replace(".model", "");
+		WorldModel worldModel = new WorldModel(imageSize, imageSize, null);
+		if (!worldModel.load(modelFile.getPath())) {
+			System.out.printf("%-45s failed to load, skipped%n", modelName);
+			return;
+		}
+		worldModel.setExercise(ExerciseEnum.EX_8___Transparency);
+		RenderScene scene = worldModel.scene;
+		long pixelsCount = (long) imageSize * imageSize;
+
+		// full renders, one primary ray per pixel
+		Vector3f pixelColor = new Vector3f();
+		int[] packetXs = new int[RayPacket.SIZE];
+		int[] packetYs = new int[RayPacket.SIZE];
+		Vector3f[] packetColors = new Vector3f[RayPacket.SIZE];
+		for (int i = 0; i < RayPacket.SIZE; i++)
+			packetColors[i] = new Vector3f();
+		int[] batchXs = new int[WavefrontTracer.PIXELS_BATCH_SIZE];
+		int[] batchYs = new int[WavefrontTracer.PIXELS_BATCH_SIZE];
+		Vector3f[] batchColors = new Vector3f[WavefrontTracer.PIXELS_BATCH_SIZE];
+		for (int i = 0; i < WavefrontTracer.PIXELS_BATCH_SIZE; i++)
+			batchColors[i] = new Vector3f();
+		for (int depth : depths) {
+			worldModel.setRenderingParams(depth);
+			// the primary hits of the previous iteration are dropped, except in the measurement of the cached hits
+			measure(modelName, "render depth " + depth, pixelsCount, () -> {
+				scene.primaryHits.clear();
+				for (int y = 0; y < imageSize; y++)
+					for (int x = 0; x < imageSize; x++)
+						sink += worldModel.renderPixel(x, y, pixelColor).x;
+			});
+			measure(modelName, "render packets depth " + depth, pixelsCount, () -> {
+				scene.primaryHits.clear();
+				for (int y = 0; y < imageSize; y++) {
+					for (int x = 0; x < imageSize; x += RayPacket.SIZE) {
+						int count = Math.min(RayPacket.SIZE, imageSize - x);
+						for (int i = 0; i < count; i++) {
+							packetXs[i] = x + i;
+							packetYs[i] = y;
+						}
+						worldModel.renderPixels(packetXs, packetYs, count, packetColors);
+						sink += packetColors[0].x;
+					}
+				}
+			});
+			// the same render as the first one with the statistics counted, the first one shows they cost nothing when disabled
+			worldModel.setStatisticsEnabled(true);
+			measure(modelName, "render statistics depth " + depth, pixelsCount, () -> {
+				scene.primaryHits.clear();
+				for (int y = 0; y < imageSize; y++)
+					for (int x = 0; x < imageSize; x++)
+						sink += worldModel.renderPixel(x, y, pixelColor).x;
+			});
+			worldModel.setStatisticsEnabled(false);
+			measure(modelName, "render cached depth " + depth, pixelsCount, () -> {
+				for (int y = 0; y < imageSize; y++)
+					for (int x = 0; x < imageSize; x++)
+						sink += worldModel.renderPixel(x, y, pixelColor).x;
+			});
+			// the same render as the first one with the spheres in a grid instead of the hierarchy
+			worldModel.setAccelerator(AcceleratorEnum.GRID);
+			measure(modelName, "render grid depth " + depth, pixelsCount, () -> {
+				worldModel.scene.primaryHits.clear();
+				for (int y = 0; y < imageSize; y++)
+					for (int x = 0; x < imageSize; x++)
+						sink += worldModel.renderPixel(x, y, pixelColor).x;
+			});
+			worldModel.setAccelerator(AcceleratorEnum.BVH);
+			// the same render as the packets with the wavefront ray tracer, the pixels of a batch follow each other in the rows
+			worldModel.setTracer(TracerEnum.WAVEFRONT);
+			measure(modelName, "render wavefront depth " + depth, pixelsCount, () -> {
+				scene.primaryHits.clear();
+				for (long first = 0; first < pixelsCount; first += WavefrontTracer.PIXELS_BATCH_SIZE) {
+					int count = (int) Math.min(WavefrontTracer.PIXELS_BATCH_SIZE, pixelsCount - first);
+					for (int i = 0; i < count; i++) {
+						batchXs[i] = (int) ((first + i) % imageSize);
+						batchYs[i] = (int) ((first + i) / imageSize);
+					}
+					worldModel.renderPixels(batchXs, batchYs, count, batchColors);
+					sink += batchColors[0].x;
+				}
+			});
+			worldModel.setTracer(TracerEnum.RECURSIVE);
+		}
+
+		// the primary rays and their hits, the input of the other benchmarks
+		Vector3f origin = new Vector3f();
+		Vector3f[] directions = new Vector3f[(int) pixelsCount];
+		for (int y = 0; y < imageSize; y++)
+			for (int x = 0; x < imageSize; x++)
+				directions[y * imageSize + x] = WorldModel.calcPixelDirection(x, y, imageSize, imageSize, scene.fovXdegree);
+		TraceContext context = new TraceContext();
+		Ray ray = new Ray();
+		IntersectionResults hit = new IntersectionResults();
+		int hitsCount = 0;
+		for (Vector3f direction : directions)
+			if (scene.closestIntersection(ray.set(origin, direction), context, hit))
+				hitsCount++;
+		Vector3f[] hitPoints = new Vector3f[hitsCount];
+		Vector3f[] hitNormals = new Vector3f[hitsCount];
+		hitsCount = 0;
+		for (Vector3f direction : directions) {
+			if (scene.closestIntersection(ray.set(origin, direction), context, hit)) {
+				hitPoints[hitsCount] = new Vector3f(hit.intersectionPoint);
+				hitNormals[hitsCount++] = new Vector3f(hit.normal);
+			}
+		}
+
+		RayPacket packet = new RayPacket();
+		for (AcceleratorEnum accelerator : AcceleratorEnum.values()) {
+			// the rows of the hierarchy keep their names, the rows of the other structures are named after them
+			String suffix = accelerator == AcceleratorEnum.BVH ? "" : " " + accelerator.name().toLowerCase();
+			RenderScene acceleratedScene = new RenderScene(scene, accelerator);
+			measure(modelName, "build " + accelerator.name().toLowerCase(), 1, () -> {
+				sink += new RenderScene(scene, accelerator).spheresCount;
+			});
+			measure(modelName, "closestIntersection" + suffix, directions.length, () -> {
+				for (Vector3f direction : directions)
+					if (acceleratedScene.closestIntersection(ray.set(origin, direction), context, hit))
+						sink += hit.intersectionPoint.z;
+			});
+			measure(modelName, "closestIntersections" + suffix, directions.length, () -> {
+				for (int first = 0; first < directions.length; first += RayPacket.SIZE) {
+					packet.raysCount = Math.min(RayPacket.SIZE, directions.length - first);
+					for (int lane = 0; lane < packet.raysCount; lane++) {
+						packet.directionX[lane] = directions[first + lane].x;
+						packet.directionY[lane] = directions[first + lane].y;
+						packet.directionZ[lane] = directions[first + lane].z;
+					}
+					acceleratedScene.closestIntersections(packet, context);
+					sink += packet.closestSphere[0];
+				}
+			});
+			if (hitsCount > 0 && acceleratedScene.lightsCount > 0) {
+				Vector3f lightLocation = RenderScene.getVector(acceleratedScene.lights, RenderScene.LIGHT_LOCATION, new Vector3f());
+				measure(modelName, "isPointInShadow" + suffix, hitsCount, () -> {
+					for (int i = 0; i < hitPoints.length; i++)
+						if (WorldModel.isPointInShadow(lightLocation, hitPoints[i], hitNormals[i], acceleratedScene, context))
+							sink++;
+				});
+			}
+		}
+		Vector3f textureColor = new Vector3f();
+		measure(modelName, "sampleDirection", directions.length, () -> {
+			for (Vector3f direction : directions)
+				sink += scene.skyBoxImageSphereTexture.sampleDirectionFromMiddle(direction, textureColor).y;
+		});
+		measure(modelName, "sampleDirectionFast", directions.length, () -> {
+			for (Vector3f direction : directions)
+				sink += scene.skyBoxImageSphereTexture.sampleDirectionFromMiddleFast(direction, textureColor).y;
+		});
+	}
+
+	public static void main(String[] args) {
+		File modelsDirectory = new File(args.length > 0 ? args[0] : "./Models");
+		int[] depths = args.length > 1 ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray() : new int[] { 1, 3, 6 };
+		int imageSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int warmupIterations = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+		File[] modelFiles = modelsDirectory.listFiles((directory, name) -> name.endsWith(".model"));
+		if (modelFiles == null || modelFiles.length == 0) {
+			System.err.println("No model files in " + modelsDirectory.getPath());
+			System.exit(1);
+		}
+		Arrays.sort(modelFiles);
+
+		System.out.printf("%dx%d primary rays, %d warmup and %d measured iterations, %s%n", imageSize, imageSize,
+				warmupIterations, iterations, System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+		System.out.printf("%-45s %-26s %12s %10s %14s%n", "model", "benchmark", "ns/op", "stddev", "bytes/op");
+		RayTracerBenchmark benchmark = new RayTracerBenchmark(imageSize, warmupIterations, iterations);
+		for (File modelFile : modelFiles)
+			benchmark.run(modelFile, depths);
+		if (benchmark.sink == 42) // never true, keeps the sink alive
+			System.out.println();
+	}
+}
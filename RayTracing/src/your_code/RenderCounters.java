@@ -0,0 +1,58 @@
+package your_code;
+
+/**
+ * The counters of the work of the ray tracer of a single thread for a single
+ * {@link WorldModel}.
+ *
+ * Every thread counts into counters of its own with plain increments, without
+ * atomics or locks. The world model keeps the counters of the threads that
+ * rendered it and sums them only when they are read, see
+ * {@link WorldModel#getStatistics()}, so the statistics of a world model do
+ * not count the rays of another one. The ray tracer counts only while the
+ * statistics are enabled, otherwise the counters of the {@link TraceContext}
+ * are null and every count is a single null check.
+ *
+ * The counters are read by other threads without synchronization, so the sums
+ * of a render that is still running may miss the last counts of the workers.
+ */
+final class RenderCounters {
+	/** The depth levels of the histogram, the last level counts all the deeper rays too */
+	static final int DEPTH_LEVELS = 16;
+
+	long primaryRays;
+	long shadowRays;
+	long reflectionRays;
+	long transmissionRays;
+	long sphereIntersectionTests;
+	long textureSamples;
+	/** The number of the primary, reflected and transmitted rays of every depth level */
+	final long[] raysByDepth = new long[DEPTH_LEVELS];
+
+	/** Counts a primary, reflected or transmitted ray of a depth level in the histogram */
+	void countDepth(int depthLevel) {
+		raysByDepth[Math.min(depthLevel, DEPTH_LEVELS - 1)]++;
+	}
+
+	/** @return the sums of the counters of several threads */
+	static RenderStatistics sum(Iterable<RenderCounters> allCounters) {
+		long primaryRays = 0;
+		long shadowRays = 0;
+		long reflectionRays = 0;
+		long transmissionRays = 0;
+		long sphereIntersectionTests = 0;
+		long textureSamples = 0;
+		long[] raysByDepth = new long[DEPTH_LEVELS];
+		for (RenderCounters counters : allCounters) {
+			primaryRays += counters.primaryRays;
+			shadowRays += counters.shadowRays;
+			reflectionRays += counters.reflectionRays;
+			transmissionRays += counters.transmissionRays;
+			sphereIntersectionTests += counters.sphereIntersectionTests;
+			textureSamples += counters.textureSamples;
+			for (int level = 0; level < DEPTH_LEVELS; level++)
+				raysByDepth[level] += counters.raysByDepth[level];
+		}
+		return new RenderStatistics(primaryRays, shadowRays, reflectionRays, transmissionRays,
+				sphereIntersectionTests, textureSamples, raysByDepth);
+	}
+}
@@ -0,0 +1,676 @@
+package your_code;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.joml.Vector3f;
+
+import app_interface.Model;
+import app_interface.ModelLight;
+import app_interface.ModelMaterial;
+import app_interface.ModelPlane;
+import app_interface.ModelSphere;
+import app_interface.SphereTexture;
+
+/**
+ * The scene that is read by the ray tracer, compiled from a {@link Model} after
+ * it was parsed.
+ *
+ * The {@link Model} stays the authoring format with lists of objects. Here the
+ * spheres are stored as flat float arrays (struct of arrays) and the materials
+ * as one packed float table indexed by the material index, so the intersection
+ * and shading loops read contiguous memory instead of following references
+ * through the lists.
+ *
+ * The planes are unbounded, so they are not in the acceleration structure of
+ * the spheres, every query tests them one by one around the structure. A
+ * sphere or a plane of a hit is identified by one index, the spheres first and
+ * then the planes, so the plane of index {@code i} is the object
+ * {@code spheresCount + i}.
+ */
+class RenderScene {
+	// offsets of the fields of a material in the packed material table
+	static final int MATERIAL_K_COLOR = 0;
+	static final int MATERIAL_COLOR = 1; // R, G, B
+	static final int MATERIAL_K_DIRECT = 4;
+	static final int MATERIAL_KA = 5; // R, G, B
+	static final int MATERIAL_KD = 8; // R, G, B
+	static final int MATERIAL_KS = 11; // R, G, B
+	static final int MATERIAL_SHININESS = 14;
+	static final int MATERIAL_K_REFLECTION = 15;
+	static final int MATERIAL_K_TRANSMISSION = 16;
+	static final int MATERIAL_REFRACTIVE_INDEX = 17;
+	static final int MATERIAL_K_TEXTURE = 18;
+	static final int MATERIAL_STRIDE = 19;
+
+	// offsets of the fields of a light in the packed light table
+	static final int LIGHT_LOCATION = 0; // x, y, z
+	static final int LIGHT_INTENSITY = 3;
+	static final int LIGHT_STRIDE = 4;
+
+	final float fovXdegree;
+
+	final int spheresCount;
+	/** x, y, z of the center of every sphere */
+	final float[] sphereCenters;
+	final float[] sphereRadii;
+	final float[] sphereRadiiSquared;
+	/** Offset of the material of every sphere in the material table */
+	final int[] sphereMaterialOffsets;
+	final int[] sphereTextureIndices;
+
+	final int planesCount;
+	/** x, y, z of the normalized normal of every plane */
+	final float[] planeNormals;
+	/** The distance of every plane from the origin along its normal */
+	final float[] planeOffsets;
+	/** x, y, z of the point of every plane where its texture coordinates are 0 */
+	final float[] planeTextureOrigins;
+	/** x, y, z of the horizontal and the vertical axes of the texture of every plane, divided by the side of a tile */
+	final float[] planeTextureU;
+	final float[] planeTextureV;
+	final int[] planeMaterialOffsets;
+	final int[] planeTextureIndices;
+
+	/** Packed material table, MATERIAL_STRIDE floats per material */
+	final float[] materials;
+
+	final int lightsCount;
+	/** Packed light table, LIGHT_STRIDE floats per light */
+	final float[] lights;
+
+	final SphereTexture[] sphereTextures;
+	final SphereTexture skyBoxImageSphereTexture;
+
+	/** The kind of the acceleration structure over the spheres */
+	final AcceleratorEnum accelerator;
+	/** The acceleration structure over the spheres of the scene */
+	final SphereAccelerator sphereAccelerator;
+
+	/** The hits of the primary rays of the pixels, shared with the scenes of the later loads of the same
+	 * geometry, null if they are not cached. Set before the scene is published to the render workers. */
+	PrimaryHitCache primaryHits;
+
+	/**
+	 * Compiles the scene from a parsed model.
+	 *
+	 * @param model                    the parsed model
+	 * @param skyBoxImageSphereTexture the texture of the skybox of the model
+	 */
+	RenderScene(Model model, SphereTexture skyBoxImageSphereTexture) {
+		this(model.spheres, model.planes, model.materials, model.lights,
+				CompletableFuture.completedFuture(model.skyBoxImageSphereTextures),
+				CompletableFuture.completedFuture(skyBoxImageSphereTexture), model.fovXdegree, AcceleratorEnum.BVH);
+	}
+
+	/**
+	 * Compiles the scene from a parsed model whose textures are still being
+	 * decoded. The spheres, the materials, the lights and the acceleration
+	 * structure are compiled meanwhile, the constructor waits for the textures
+	 * only at the end.
+	 *
+	 * @param model                    the parsed model
+	 * @param sphereTextures           the future textures the spheres refer to
+	 * @param skyBoxImageSphereTexture the future texture of the skybox of the model
+	 * @param accelerator              the acceleration structure over the spheres
+	 * @throws java.util.concurrent.CompletionException if a texture failed to load
+	 */
+	RenderScene(Model model, CompletableFuture<List<SphereTexture>> sphereTextures,
+			CompletableFuture<SphereTexture> skyBoxImageSphereTexture, AcceleratorEnum accelerator) {
+		this(model.spheres, model.planes, model.materials, model.lights, sphereTextures, skyBoxImageSphereTexture,
+				model.fovXdegree, accelerator);
+	}
+
+	/**
+	 * Compiles the scene from the lists of its objects, without planes.
+	 *
+	 * @param spheres                  the spheres of the scene
+	 * @param materials                the materials the spheres refer to
+	 * @param lights                   the lights of the scene
+	 * @param sphereTextures           the textures the spheres refer to
+	 * @param skyBoxImageSphereTexture the texture of the skybox
+	 * @param fovXdegree               the horizontal field of view in degrees
+	 */
+	RenderScene(List<ModelSphere> spheres, List<ModelMaterial> materials, List<ModelLight> lights,
+			List<SphereTexture> sphereTextures, SphereTexture skyBoxImageSphereTexture, float fovXdegree) {
+		this(spheres, List.of(), materials, lights, sphereTextures, skyBoxImageSphereTexture, fovXdegree);
+	}
+
+	/**
+	 * Compiles the scene from the lists of its objects.
+	 *
+	 * @param spheres                  the spheres of the scene
+	 * @param planes                   the planes of the scene
+	 * @param materials                the materials the spheres and the planes refer to
+	 * @param lights                   the lights of the scene
+	 * @param sphereTextures           the textures the spheres and the planes refer to
+	 * @param skyBoxImageSphereTexture the texture of the skybox
+	 * @param fovXdegree               the horizontal field of view in degrees
+	 */
+	RenderScene(List<ModelSphere> spheres, List<ModelPlane> planes, List<ModelMaterial> materials, List<ModelLight> lights,
+			List<SphereTexture> sphereTextures, SphereTexture skyBoxImageSphereTexture, float fovXdegree) {
+		this(spheres, planes, materials, lights, CompletableFuture.completedFuture(sphereTextures),
+				CompletableFuture.completedFuture(skyBoxImageSphereTexture), fovXdegree, AcceleratorEnum.BVH);
+	}
+
+	/**
+	 * Makes a scene of the same objects as another scene with another
+	 * acceleration structure. The arrays, the textures and the cached primary
+	 * hits are shared with the other scene, only the structure is built.
+	 *
+	 * @param other       the scene whose objects are taken
+	 * @param accelerator the acceleration structure over the spheres
+	 */
+	RenderScene(RenderScene other, AcceleratorEnum accelerator) {
+		fovXdegree = other.fovXdegree;
+		spheresCount = other.spheresCount;
+		sphereCenters = other.sphereCenters;
+		sphereRadii = other.sphereRadii;
+		sphereRadiiSquared = other.sphereRadiiSquared;
+		sphereMaterialOffsets = other.sphereMaterialOffsets;
+		sphereTextureIndices = other.sphereTextureIndices;
+		planesCount = other.planesCount;
+		planeNormals = other.planeNormals;
+		planeOffsets = other.planeOffsets;
+		planeTextureOrigins = other.planeTextureOrigins;
+		planeTextureU = other.planeTextureU;
+		planeTextureV = other.planeTextureV;
+		planeMaterialOffsets = other.planeMaterialOffsets;
+		planeTextureIndices = other.planeTextureIndices;
+		materials = other.materials;
+		lightsCount = other.lightsCount;
+		lights = other.lights;
+		sphereTextures = other.sphereTextures;
+		skyBoxImageSphereTexture = other.skyBoxImageSphereTexture;
+		primaryHits = other.primaryHits;
+		this.accelerator = accelerator;
+		sphereAccelerator = buildAccelerator(accelerator);
+	}
+
+	private RenderScene(List<ModelSphere> spheres, List<ModelPlane> planes, List<ModelMaterial> materials, List<ModelLight> lights,
+			CompletableFuture<List<SphereTexture>> sphereTextures, CompletableFuture<SphereTexture> skyBoxImageSphereTexture,
+			float fovXdegree, AcceleratorEnum accelerator) {
+		this.fovXdegree = fovXdegree;
+
+		spheresCount = spheres.size();
+		sphereCenters = new float[3 * spheresCount];
+		sphereRadii = new float[spheresCount];
+		sphereRadiiSquared = new float[spheresCount];
+		sphereMaterialOffsets = new int[spheresCount];
+		sphereTextureIndices = new int[spheresCount];
+		for (int i = 0; i < spheresCount; i++) {
+			ModelSphere sphere = spheres.get(i);
+			sphereCenters[3 * i] = sphere.center.x;
+			sphereCenters[3 * i + 1] = sphere.center.y;
+			sphereCenters[3 * i + 2] = sphere.center.z;
+			sphereRadii[i] = sphere.radius;
+			sphereRadiiSquared[i] = sphere.radius * sphere.radius;
+			sphereMaterialOffsets[i] = sphere.materialIndex * MATERIAL_STRIDE;
+			sphereTextureIndices[i] = sphere.textureIndex;
+		}
+
+		planesCount = planes.size();
+		planeNormals = new float[3 * planesCount];
+		planeOffsets = new float[planesCount];
+		planeTextureOrigins = new float[3 * planesCount];
+		planeTextureU = new float[3 * planesCount];
+		planeTextureV = new float[3 * planesCount];
+		planeMaterialOffsets = new int[planesCount];
+		planeTextureIndices = new int[planesCount];
+		Vector3f normal = new Vector3f();
+		Vector3f textureU = new Vector3f();
+		Vector3f textureV = new Vector3f();
+		for (int i = 0; i < planesCount; i++) {
+			ModelPlane plane = planes.get(i);
+			plane.normal.normalize(normal);
+			putVector(planeNormals, 3 * i, normal);
+			planeOffsets[i] = normal.dot(plane.point);
+			putVector(planeTextureOrigins, 3 * i, plane.point);
+			// the axes of the texture are perpendicular to the normal, the horizontal one is taken
+			// from the axis that is the farthest from the normal
+			if (Math.abs(normal.x) < 0.9f)
+				normal.cross(1, 0, 0, textureU);
+			else
+				normal.cross(0, 1, 0, textureU);
+			textureU.normalize();
+			normal.cross(textureU, textureV);
+			putVector(planeTextureU, 3 * i, textureU.div(plane.textureScale));
+			putVector(planeTextureV, 3 * i, textureV.div(plane.textureScale));
+			planeMaterialOffsets[i] = plane.materialIndex * MATERIAL_STRIDE;
+			planeTextureIndices[i] = plane.textureIndex;
+		}
+
+		this.materials = new float[materials.size() * MATERIAL_STRIDE];
+		for (int i = 0; i < materials.size(); i++) {
+			ModelMaterial material = materials.get(i);
+			int offset = i * MATERIAL_STRIDE;
+			this.materials[offset + MATERIAL_K_COLOR] = material.kColor;
+			putVector(this.materials, offset + MATERIAL_COLOR, material.color);
+			this.materials[offset + MATERIAL_K_DIRECT] = material.kDirect;
+			putVector(this.materials, offset + MATERIAL_KA, material.ka);
+			putVector(this.materials, offset + MATERIAL_KD, material.kd);
+			putVector(this.materials, offset + MATERIAL_KS, material.ks);
+			this.materials[offset + MATERIAL_SHININESS] = material.shininess;
+			this.materials[offset + MATERIAL_K_REFLECTION] = material.kReflection;
+			this.materials[offset + MATERIAL_K_TRANSMISSION] = material.kTransmission;
+			this.materials[offset + MATERIAL_REFRACTIVE_INDEX] = material.refractiveIndex;
+			this.materials[offset + MATERIAL_K_TEXTURE] = material.kTexture;
+		}
+
+		lightsCount = lights.size();
+		this.lights = new float[lightsCount * LIGHT_STRIDE];
+		for (int i = 0; i < lightsCount; i++) {
+			ModelLight light = lights.get(i);
+			putVector(this.lights, i * LIGHT_STRIDE + LIGHT_LOCATION, light.location);
+			this.lights[i * LIGHT_STRIDE + LIGHT_INTENSITY] = light.intensity;
+		}
+
+		// the structure reads only the spheres, it is built while the textures may still be decoded
+		this.accelerator = accelerator;
+		sphereAccelerator = buildAccelerator(accelerator);
+
+		this.sphereTextures = sphereTextures.join().toArray(new SphereTexture[0]);
+		this.skyBoxImageSphereTexture = skyBoxImageSphereTexture.join();
+	}
+
+	// Builds the acceleration structure over the sphere arrays of this scene
+	private SphereAccelerator buildAccelerator(AcceleratorEnum accelerator) {
+		switch (accelerator) {
+		case GRID:
+			return new SphereGrid(this);
+		case BVH:
+		default:
+			return new SphereBVH(this);
+		}
+	}
+
+	/**
+	 * Checks whether the primary rays of the other scene have the same hits as
+	 * the rays of this scene, the same field of view and the same spheres and
+	 * planes in the same order. The materials, the lights and the textures may
+	 * differ.
+	 *
+	 * @param other the other scene
+	 * @return true if the scenes have the same geometry
+	 */
+	boolean sameGeometry(RenderScene other) {
+		return Float.compare(fovXdegree, other.fovXdegree) == 0
+				&& Arrays.equals(sphereCenters, other.sphereCenters)
+				&& Arrays.equals(sphereRadii, other.sphereRadii)
+				&& Arrays.equals(planeNormals, other.planeNormals)
+				&& Arrays.equals(planeOffsets, other.planeOffsets);
+	}
+
+	/**
+	 * @param object the index of a sphere or a plane, the planes follow the spheres
+	 * @return the offset of the material of the object in the material table
+	 */
+	int materialOffset(int object) {
+		return object < spheresCount ? sphereMaterialOffsets[object] : planeMaterialOffsets[object - spheresCount];
+	}
+
+	/**
+	 * @param object the index of a sphere or a plane, the planes follow the spheres
+	 * @return the texture of the object
+	 */
+	SphereTexture texture(int object) {
+		return sphereTextures[object < spheresCount ? sphereTextureIndices[object] : planeTextureIndices[object - spheresCount]];
+	}
+
+	private static void putVector(float[] table, int offset, Vector3f vector) {
+		table[offset] = vector.x;
+		table[offset + 1] = vector.y;
+		table[offset + 2] = vector.z;
+	}
+
+	/**
+	 * Reads three continuous floats of a packed table into a vector.
+	 *
+	 * @param table  the packed table
+	 * @param offset the offset of the first float
+	 * @param dest   the vector that receives the values
+	 * @return dest
+	 */
+	static Vector3f getVector(float[] table, int offset, Vector3f dest) {
+		return dest.set(table[offset], table[offset + 1], table[offset + 2]);
+	}
+
+	/**
+	 * Calculates the distance along a ray to one sphere of the scene, without
+	 * the point and the normal of the hit. The queries compare the spheres by
+	 * this distance and calculate the record of the nearest sphere only, with
+	 * {@link #rayIntersection(Ray, int, IntersectionResults)}, so the operations
+	 * and the branches are the same as there.
+	 *
+	 * The ray enters the sphere at the nearer distance and leaves it at the
+	 * farther one, the nearer distance is taken unless it is below tMin, e.g.
+	 * when the ray starts inside the sphere or on its surface. As in
+	 * {@link WorldModel#rayIntersection(Vector3f, Vector3f, ModelSphere)} the ray
+	 * misses a sphere whose center is behind its origin.
+	 *
+	 * @param tMin   The distance along the ray below which intersections are ignored.
+	 * @param sphere The index of the sphere.
+	 * @return the distance, Float.POSITIVE_INFINITY if the ray misses the sphere
+	 *         or hits it only closer than tMin
+	 */
+	float sphereDistance(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+			float tMin, int sphere) {
+		float cx = sphereCenters[3 * sphere];
+		float cy = sphereCenters[3 * sphere + 1];
+		float cz = sphereCenters[3 * sphere + 2];
+		float tm = (cx - originX) * directionX + ((cy - originY) * directionY + (cz - originZ) * directionZ);
+		if (tm < 0)
+			return Float.POSITIVE_INFINITY;
+		float dx = originX + directionX * tm - cx;
+		float dy = originY + directionY * tm - cy;
+		float dz = originZ + directionZ * tm - cz;
+		float pmDistance = (float) Math.sqrt(dx * dx + (dy * dy + dz * dz));
+		if (pmDistance > sphereRadii[sphere])
+			return Float.POSITIVE_INFINITY;
+		float dt = (float) Math.sqrt(sphereRadiiSquared[sphere] - pmDistance * pmDistance);
+		float distance = tm - dt;
+		if (distance >= tMin)
+			return distance;
+		distance = tm + dt;
+		return distance >= tMin ? distance : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Calculates the intersection between a ray and one sphere of the scene.
+	 * Same calculation as {@link WorldModel#rayIntersection(Vector3f, Vector3f, ModelSphere)},
+	 * but the intersection is written into a record of the caller instead of a new one,
+	 * and the intersections closer than tMin are ignored, see
+	 * {@link #sphereDistance(float, float, float, float, float, float, float, int)}.
+	 * The interval of the ray is not narrowed.
+	 *
+	 * @param ray    The ray.
+	 * @param sphere The index of the sphere.
+	 * @param result The record that receives the intersection, it must have its own vectors.
+	 * @return true if the ray intersects the sphere not closer than tMin, false otherwise (result is then unchanged).
+	 */
+	boolean rayIntersection(Ray ray, int sphere, IntersectionResults result) {
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		float cx = sphereCenters[3 * sphere];
+		float cy = sphereCenters[3 * sphere + 1];
+		float cz = sphereCenters[3 * sphere + 2];
+
+		// the operations are grouped as in the JOML calls of the original calculation,
+		// so the compiled scene renders exactly the same image
+
+		// distance along the ray to the closest point to the center
+		float tm = (cx - rayStart.x) * rayDirection.x + ((cy - rayStart.y) * rayDirection.y + (cz - rayStart.z) * rayDirection.z);
+		if (tm < 0)
+			return false;
+
+		float pmX = rayStart.x + rayDirection.x * tm;
+		float pmY = rayStart.y + rayDirection.y * tm;
+		float pmZ = rayStart.z + rayDirection.z * tm;
+		float dx = pmX - cx, dy = pmY - cy, dz = pmZ - cz;
+		float pmDistance = (float) Math.sqrt(dx * dx + (dy * dy + dz * dz));
+		if (pmDistance > sphereRadii[sphere])
+			return false;
+
+		float dt = (float) Math.sqrt(sphereRadiiSquared[sphere] - pmDistance * pmDistance);
+		Vector3f intersectionPoint = result.intersectionPoint;
+		if (tm - dt < ray.tMin) {
+			// the ray starts inside the sphere or on its surface, it hits the sphere where it leaves it
+			if (tm + dt < ray.tMin)
+				return false;
+			intersectionPoint.set(pmX + rayDirection.x * dt, pmY + rayDirection.y * dt, pmZ + rayDirection.z * dt);
+			result.normal.set(cx, cy, cz).sub(intersectionPoint).normalize();
+			result.rayFromOutsideOfSphere = false;
+			result.distance = tm + dt;
+		} else {
+			intersectionPoint.set(pmX - rayDirection.x * dt, pmY - rayDirection.y * dt, pmZ - rayDirection.z * dt);
+			result.normal.set(intersectionPoint).sub(cx, cy, cz).normalize();
+			result.rayFromOutsideOfSphere = true;
+			result.distance = tm - dt;
+		}
+		result.sphereIndex = sphere;
+		return true;
+	}
+
+	/**
+	 * Checks whether a ray intersects one sphere of the scene in its interval.
+	 * Same geometry as {@link #rayIntersection(Ray, int, IntersectionResults)},
+	 * but neither the point nor the normal are calculated.
+	 *
+	 * @param ray    The ray.
+	 * @param sphere The index of the sphere.
+	 * @return true if the ray intersects the sphere between tMin and tMax.
+	 */
+	boolean rayHitsSphere(Ray ray, int sphere) {
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		float cx = sphereCenters[3 * sphere];
+		float cy = sphereCenters[3 * sphere + 1];
+		float cz = sphereCenters[3 * sphere + 2];
+
+		float tm = (cx - rayStart.x) * rayDirection.x + ((cy - rayStart.y) * rayDirection.y + (cz - rayStart.z) * rayDirection.z);
+		if (tm < 0)
+			return false;
+
+		float dx = rayStart.x + rayDirection.x * tm - cx;
+		float dy = rayStart.y + rayDirection.y * tm - cy;
+		float dz = rayStart.z + rayDirection.z * tm - cz;
+		float pmDistanceSquared = dx * dx + (dy * dy + dz * dz);
+		if (pmDistanceSquared > sphereRadiiSquared[sphere])
+			return false;
+
+		float dt = (float) Math.sqrt(sphereRadiiSquared[sphere] - pmDistanceSquared);
+		// the ray leaves the sphere if it enters it closer than tMin
+		float t = tm - dt;
+		if (t < ray.tMin)
+			t = tm + dt;
+		return t >= ray.tMin && t <= ray.tMax;
+	}
+
+	/**
+	 * Finds the nearest intersection between a ray and the spheres and the planes
+	 * of the scene in the interval of the ray, and narrows tMax to its distance.
+	 *
+	 * @param ray     The ray.
+	 * @param context The scratch memory of the calling thread.
+	 * @param result  The record that receives the nearest intersection, it must have its own vectors.
+	 * @return true if the ray intersects a sphere or a plane, false otherwise.
+	 */
+	boolean closestIntersection(Ray ray, TraceContext context, IntersectionResults result) {
+		// the nearest plane narrows the ray, the structure skips the spheres behind it
+		int closestPlane = closestPlane(ray);
+		// on equal distances the sphere wins, it comes first in the scene; the structure finds the nearest
+		// sphere and its distance only, the point and the normal are calculated for that sphere alone
+		if (sphereAccelerator.closestIntersection(ray, context, result))
+			return rayIntersection(ray, result.sphereIndex, result);
+		return closestPlane >= 0 && planeIntersection(ray, closestPlane, result);
+	}
+
+	// The nearest plane that the ray hits in its interval, -1 if there is none, tMax is narrowed to its distance
+	private int closestPlane(Ray ray) {
+		int closestPlane = -1;
+		for (int plane = 0; plane < planesCount; plane++) {
+			float distance = planeDistance(ray.origin.x, ray.origin.y, ray.origin.z, ray.direction.x, ray.direction.y, ray.direction.z,
+					ray.tMin, plane);
+			if (distance <= ray.tMax && (closestPlane < 0 || distance < ray.tMax)) {
+				ray.tMax = distance;
+				closestPlane = plane;
+			}
+		}
+		return closestPlane;
+	}
+
+	/**
+	 * Finds the nearest sphere or plane of every ray of a packet, see
+	 * {@link SphereAccelerator#closestIntersections(RayPacket, TraceContext)}. The hit
+	 * of every ray is the same as the one of
+	 * {@link #closestIntersection(Ray, TraceContext, IntersectionResults)}, the spheres behind
+	 * the nearest plane of a ray are skipped in the same way.
+	 *
+	 * @param packet  The rays, the results are written into the packet.
+	 * @param context The scratch memory of the calling thread.
+	 */
+	void closestIntersections(RayPacket packet, TraceContext context) {
+		// the nearest planes narrow the rays, as for a single ray
+		packet.clearHits();
+		for (int plane = 0; plane < planesCount; plane++) {
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				float distance = planeDistance(packet.originX, packet.originY, packet.originZ,
+						packet.directionX[lane], packet.directionY[lane], packet.directionZ[lane], packet.tMin, plane);
+				if (distance < packet.closestDistance[lane]) {
+					packet.closestDistance[lane] = distance;
+					packet.closestSphere[lane] = spheresCount + plane;
+				}
+			}
+		}
+		sphereAccelerator.closestIntersections(packet, context);
+	}
+
+	/**
+	 * Calculates the hit record of a ray and a sphere or a plane it is known to
+	 * intersect, e.g. the nearest object of a ray of a packet.
+	 *
+	 * @param ray    The ray.
+	 * @param object The index of the sphere or the plane, the planes follow the spheres.
+	 * @param result The record that receives the intersection, it must have its own vectors.
+	 * @return true if the ray intersects the object, false otherwise (result is then unchanged).
+	 */
+	boolean objectIntersection(Ray ray, int object, IntersectionResults result) {
+		return object < spheresCount
+				? rayIntersection(ray, object, result)
+				: planeIntersection(ray, object - spheresCount, result);
+	}
+
+	/**
+	 * Calculates the distance along a ray to a plane of the scene.
+	 *
+	 * @param tMin  The distance along the ray below which intersections are ignored.
+	 * @param plane The index of the plane.
+	 * @return the distance, Float.POSITIVE_INFINITY if the ray is parallel to the plane,
+	 *         leaves it or hits it closer than tMin
+	 */
+	float planeDistance(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+			float tMin, int plane) {
+		float nx = planeNormals[3 * plane];
+		float ny = planeNormals[3 * plane + 1];
+		float nz = planeNormals[3 * plane + 2];
+		float cosine = nx * directionX + ny * directionY + nz * directionZ;
+		if (cosine == 0)
+			return Float.POSITIVE_INFINITY;
+		float distance = (planeOffsets[plane] - (nx * originX + ny * originY + nz * originZ)) / cosine;
+		return distance >= tMin ? distance : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Calculates the intersection between a ray and one plane of the scene. The
+	 * normal of the hit faces the start of the ray, and the ray comes from the
+	 * outside of the plane if it starts on the side its normal points to. The
+	 * intersections closer than tMin are ignored, the interval of the ray is not
+	 * narrowed.
+	 *
+	 * @param ray    The ray.
+	 * @param plane  The index of the plane.
+	 * @param result The record that receives the intersection, it must have its own vectors.
+	 * @return true if the ray intersects the plane, false otherwise (result is then unchanged).
+	 */
+	boolean planeIntersection(Ray ray, int plane, IntersectionResults result) {
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		float distance = planeDistance(rayStart.x, rayStart.y, rayStart.z, rayDirection.x, rayDirection.y, rayDirection.z, ray.tMin, plane);
+		if (distance == Float.POSITIVE_INFINITY)
+			return false;
+		rayDirection.mulAdd(distance, rayStart, result.intersectionPoint);
+		result.distance = distance;
+		getVector(planeNormals, 3 * plane, result.normal);
+		result.rayFromOutsideOfSphere = result.normal.dot(rayDirection) < 0;
+		if (!result.rayFromOutsideOfSphere)
+			result.normal.negate();
+		result.sphereIndex = spheresCount + plane;
+		return true;
+	}
+
+	/**
+	 * Samples the texture of a plane at a point, the texture is repeated over the
+	 * plane in tiles.
+	 *
+	 * @param plane   The index of the plane.
+	 * @param point   A point on the plane.
+	 * @param texture The texture of the plane.
+	 * @param dest    The vector that receives the color.
+	 * @return dest
+	 */
+	Vector3f samplePlaneTexture(int plane, Vector3f point, SphereTexture texture, Vector3f dest) {
+		float dx = point.x - planeTextureOrigins[3 * plane];
+		float dy = point.y - planeTextureOrigins[3 * plane + 1];
+		float dz = point.z - planeTextureOrigins[3 * plane + 2];
+		float u = dx * planeTextureU[3 * plane] + dy * planeTextureU[3 * plane + 1] + dz * planeTextureU[3 * plane + 2];
+		float v = dx * planeTextureV[3 * plane] + dy * planeTextureV[3 * plane + 1] + dz * planeTextureV[3 * plane + 2];
+		return texture.sampleRepeated(u, v, dest);
+	}
+
+	/**
+	 * Finds the nearest intersection by testing all the spheres and the planes of
+	 * the scene. Used as the reference for the results of the acceleration
+	 * structures.
+	 *
+	 * @param ray    The ray, its tMax is narrowed to the distance of the nearest intersection.
+	 * @param result The record that receives the nearest intersection, it must have its own vectors.
+	 * @return true if the ray intersects a sphere or a plane, false otherwise.
+	 */
+	boolean closestIntersectionLinear(Ray ray, IntersectionResults result) {
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		int closestSphere = -1;
+		for (int sphere = 0; sphere < spheresCount; sphere++) {
+			float distance = sphereDistance(rayStart.x, rayStart.y, rayStart.z, rayDirection.x, rayDirection.y, rayDirection.z,
+					ray.tMin, sphere);
+			if (distance < ray.tMax || (closestSphere < 0 && distance == ray.tMax)) {
+				ray.tMax = distance;
+				closestSphere = sphere;
+			}
+		}
+		// on equal distances the sphere wins, it comes first in the scene
+		float sphereDistance = ray.tMax;
+		int closestPlane = closestPlane(ray);
+		if (closestPlane >= 0 && (closestSphere < 0 || ray.tMax < sphereDistance))
+			return planeIntersection(ray, closestPlane, result);
+		ray.tMax = sphereDistance;
+		return closestSphere >= 0 && rayIntersection(ray, closestSphere, result);
+	}
+
+	/**
+	 * Checks whether a ray intersects any sphere or plane of the scene in the
+	 * interval of the ray, e.g. whether a shadow ray is blocked before it reaches the light.
+	 * Stops at the first intersection found.
+	 *
+	 * @param ray     The ray.
+	 * @param context The scratch memory of the calling thread.
+	 * @return true if the ray intersects a sphere or a plane between tMin and tMax.
+	 */
+	boolean anyIntersection(Ray ray, TraceContext context) {
+		// a plane costs one division, it is tested before the structure
+		return anyPlaneIntersection(ray) || sphereAccelerator.anyIntersection(ray, context);
+	}
+
+	private boolean anyPlaneIntersection(Ray ray) {
+		for (int plane = 0; plane < planesCount; plane++)
+			if (planeDistance(ray.origin.x, ray.origin.y, ray.origin.z, ray.direction.x, ray.direction.y, ray.direction.z, ray.tMin, plane) <= ray.tMax)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Checks whether a ray intersects any sphere or plane of the scene in the
+	 * interval of the ray by testing all of them. Used as the reference for the results
+	 * of the acceleration structures.
+	 *
+	 * @param ray The ray.
+	 * @return true if the ray intersects a sphere or a plane between tMin and tMax.
+	 */
+	boolean anyIntersectionLinear(Ray ray) {
+		for (int sphere = 0; sphere < spheresCount; sphere++)
+			if (rayHitsSphere(ray, sphere))
+				return true;
+		return anyPlaneIntersection(ray);
+	}
+}
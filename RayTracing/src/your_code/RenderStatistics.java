@@ -0,0 +1,97 @@
+package your_code;
+
+import java.util.Arrays;
+
+/**
+ * The counts of the work of the ray tracer, the rays of every kind, the
+ * intersection tests of the spheres, the samples of the textures and the
+ * number of rays of every depth level of the recursion. A snapshot that does
+ * not change, see {@link WorldModel#getStatistics()}.
+ */
+public final class RenderStatistics {
+	private final long primaryRays;
+	private final long shadowRays;
+	private final long reflectionRays;
+	private final long transmissionRays;
+	private final long sphereIntersectionTests;
+	private final long textureSamples;
+	private final long[] raysByDepth;
+
+	RenderStatistics(long primaryRays, long shadowRays, long reflectionRays, long transmissionRays,
+			long sphereIntersectionTests, long textureSamples, long[] raysByDepth) {
+		this.primaryRays = primaryRays;
+		this.shadowRays = shadowRays;
+		this.reflectionRays = reflectionRays;
+		this.transmissionRays = transmissionRays;
+		this.sphereIntersectionTests = sphereIntersectionTests;
+		this.textureSamples = textureSamples;
+		this.raysByDepth = raysByDepth;
+	}
+
+	/** @return the primary rays, one for every sample of a pixel, including the pixels whose hit was cached */
+	public long getPrimaryRays() {
+		return primaryRays;
+	}
+
+	/** @return the shadow rays, one for every light of every hit that is not skipped by the direct light */
+	public long getShadowRays() {
+		return shadowRays;
+	}
+
+	/** @return the reflected rays that were traced */
+	public long getReflectionRays() {
+		return reflectionRays;
+	}
+
+	/** @return the transmitted rays that were traced */
+	public long getTransmissionRays() {
+		return transmissionRays;
+	}
+
+	/** @return all the rays, primary, shadow, reflected and transmitted */
+	public long getTotalRays() {
+		return primaryRays + shadowRays + reflectionRays + transmissionRays;
+	}
+
+	/** @return the intersection tests of a ray and a sphere */
+	public long getSphereIntersectionTests() {
+		return sphereIntersectionTests;
+	}
+
+	/** @return the samples of the textures of the spheres and of the skybox */
+	public long getTextureSamples() {
+		return textureSamples;
+	}
+
+	/**
+	 * @return the number of the primary, reflected and transmitted rays of every
+	 *         depth level, the last level counts all the deeper rays too
+	 */
+	public long[] getRaysByDepth() {
+		return raysByDepth.clone();
+	}
+
+	/**
+	 * @param earlier the statistics of an earlier time
+	 * @return the counts since the earlier time
+	 */
+	public RenderStatistics minus(RenderStatistics earlier) {
+		long[] depths = new long[raysByDepth.length];
+		for (int level = 0; level < depths.length; level++)
+			depths[level] = raysByDepth[level] - earlier.raysByDepth[level];
+		return new RenderStatistics(primaryRays - earlier.primaryRays, shadowRays - earlier.shadowRays,
+				reflectionRays - earlier.reflectionRays, transmissionRays - earlier.transmissionRays,
+				sphereIntersectionTests - earlier.sphereIntersectionTests, textureSamples - earlier.textureSamples, depths);
+	}
+
+	@Override
+	public String toString() {
+		// the histogram ends at the deepest level that has rays
+		int levels = raysByDepth.length;
+		while (levels > 1 && raysByDepth[levels - 1] == 0)
+			levels--;
+		return String.format("rays: %d primary, %d shadow, %d reflected, %d transmitted; sphere tests: %d; texture samples: %d; rays by depth: %s",
+				primaryRays, shadowRays, reflectionRays, transmissionRays, sphereIntersectionTests, textureSamples,
+				Arrays.toString(Arrays.copyOf(raysByDepth, levels)));
+	}
+}
@@ -0,0 +1,53 @@
+package your_code;
+
+/**
+ * An acceleration structure over the spheres of a {@link RenderScene}, it
+ * finds the spheres a ray hits without testing every sphere of the scene. The
+ * scene builds the structure that is selected by {@link AcceleratorEnum}.
+ *
+ * The results are the same as the ones of the linear scans of the scene, the
+ * spheres are compared by {@link RenderScene#sphereDistance}, and on equal
+ * distances the sphere that is first in the scene wins. The queries find the
+ * nearest sphere and its distance only, the point and the normal of the hit
+ * are calculated by the scene for that sphere alone. The hits outside the
+ * interval [tMin, tMax] of the ray are ignored, and the box or the cell of the
+ * structure that begins after tMax is skipped.
+ */
+interface SphereAccelerator {
+	/**
+	 * Finds the nearest sphere a ray intersects in its interval and the distance
+	 * to it, and narrows tMax to the distance. A sphere at exactly tMax is still
+	 * taken.
+	 *
+	 * @param ray     The ray.
+	 * @param context The scratch memory of the calling thread.
+	 * @param result  The record whose sphereIndex and distance receive the nearest intersection, its
+	 *                point and normal are not changed.
+	 * @return true if the ray intersects a sphere, false otherwise.
+	 */
+	boolean closestIntersection(Ray ray, TraceContext context, IntersectionResults result);
+
+	/**
+	 * Checks whether a ray intersects any sphere in its interval, the query
+	 * stops at the first intersection found.
+	 *
+	 * @param ray     The ray.
+	 * @param context The scratch memory of the calling thread.
+	 * @return true if the ray intersects a sphere between tMin and tMax.
+	 */
+	boolean anyIntersection(Ray ray, TraceContext context);
+
+	/**
+	 * Finds the nearest sphere of every ray of a packet, the result of every ray
+	 * is the same as the one of
+	 * {@link #closestIntersection(Ray, TraceContext, IntersectionResults)}, with
+	 * the tMin of the packet and the nearest hit so far of every ray as its tMax.
+	 * The nearest hits so far are read from the packet, they are cleared by
+	 * {@link RayPacket#clearHits()} or found by an earlier query, and a sphere at
+	 * the same distance replaces a hit of a later index.
+	 *
+	 * @param packet  The rays, the results are written into its closestSphere and closestDistance.
+	 * @param context The scratch memory of the calling thread.
+	 */
+	void closestIntersections(RayPacket packet, TraceContext context);
+}
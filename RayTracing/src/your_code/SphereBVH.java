@@ -0,0 +1,445 @@
+package your_code;
+
+import org.joml.Vector3f;
+
+/**
+ * Bounding volume hierarchy over the spheres of a {@link RenderScene}.
+ *
+ * The hierarchy is a binary tree of axis aligned boxes, built top down with the
+ * surface area heuristic (SAH) evaluated over a fixed number of bins of the
+ * sphere centers. The nodes are stored flattened in arrays, the two children of
+ * an inner node are always adjacent. The nearest hit query visits the nearer
+ * child first and skips every box that starts beyond the nearest hit found so
+ * far, so the number of spheres tested grows logarithmically with the number of
+ * spheres instead of linearly.
+ */
+class SphereBVH implements SphereAccelerator {
+	/** Number of bins of the sphere centers used to evaluate the SAH of the splits */
+	private static final int BINS_COUNT = 12;
+	/** Nodes with at most this number of spheres are always leaves */
+	private static final int MIN_SPHERES_IN_LEAF = 2;
+	/** Nodes with more spheres than this are split even if the SAH prefers a leaf */
+	private static final int MAX_SPHERES_IN_LEAF = 8;
+	/** Cost of visiting a node relative to the cost of a ray sphere intersection */
+	private static final float TRAVERSAL_COST = 1.0f;
+	private static final int MAX_DEPTH = 64;
+	/** Size of the traversal stack, enough for the deepest hierarchy */
+	static final int STACK_SIZE = MAX_DEPTH + 2;
+
+	private final RenderScene scene;
+	/** Indices of the spheres in the scene, ordered so every leaf covers a continuous range */
+	private final int[] sphereIndices;
+
+	/** min x, y, z and max x, y, z of the box of every node */
+	private final float[] nodeBounds;
+	/** For a leaf the first position in sphereIndices, for an inner node the index of the first child */
+	private final int[] nodeFirst;
+	/** For a leaf the number of spheres, 0 for an inner node */
+	private final int[] nodeSpheresCount;
+	private int nodesCount;
+
+	// bounds and centers of the spheres, used during the build only
+	private float[] sphereBounds;
+	private float[] sphereCenters;
+
+	/**
+	 * Builds the hierarchy over the spheres of the scene.
+	 *
+	 * @param scene the scene, its sphere arrays must not change afterwards
+	 */
+	SphereBVH(RenderScene scene) {
+		this.scene = scene;
+		int n = scene.spheresCount;
+		sphereIndices = new int[n];
+		int maxNodes = Math.max(1, 2 * n - 1);
+		nodeBounds = new float[6 * maxNodes];
+		nodeFirst = new int[maxNodes];
+		nodeSpheresCount = new int[maxNodes];
+
+		sphereBounds = new float[6 * n];
+		sphereCenters = new float[3 * n];
+		for (int i = 0; i < n; i++) {
+			sphereIndices[i] = i;
+			for (int a = 0; a < 3; a++) {
+				float center = scene.sphereCenters[3 * i + a];
+				sphereCenters[3 * i + a] = center;
+				sphereBounds[6 * i + a] = center - scene.sphereRadii[i];
+				sphereBounds[6 * i + a + 3] = center + scene.sphereRadii[i];
+			}
+		}
+
+		nodesCount = 1;
+		build(0, 0, n, 0);
+		sphereBounds = null;
+		sphereCenters = null;
+	}
+
+	/** @return the number of nodes in the hierarchy */
+	int getNodesCount() {
+		return nodesCount;
+	}
+
+	// Builds the subtree of the node from the spheres in sphereIndices[first, first+count)
+	private void build(int node, int first, int count, int depth) {
+		float[] bounds = rangeBounds(first, count, sphereBounds, 6);
+		System.arraycopy(bounds, 0, nodeBounds, 6 * node, 6);
+		nodeFirst[node] = first;
+		nodeSpheresCount[node] = count;
+		if (count <= MIN_SPHERES_IN_LEAF || depth >= MAX_DEPTH)
+			return;
+
+		// the splits are along the longest axis of the bounds of the centers
+		float[] centerBounds = rangeBounds(first, count, sphereCenters, 3);
+		int axis = 0;
+		float extent = centerBounds[3] - centerBounds[0];
+		for (int a = 1; a < 3; a++) {
+			if (centerBounds[a + 3] - centerBounds[a] > extent) {
+				axis = a;
+				extent = centerBounds[a + 3] - centerBounds[a];
+			}
+		}
+		if (extent <= 0)
+			return; // all the centers are in the same place, nothing to split
+
+		// count the spheres and their bounds in every bin
+		int[] binCount = new int[BINS_COUNT];
+		float[] binBounds = new float[6 * BINS_COUNT];
+		for (int b = 0; b < BINS_COUNT; b++)
+			resetBounds(binBounds, b);
+		float binScale = BINS_COUNT / extent;
+		for (int i = first; i < first + count; i++) {
+			int sphere = sphereIndices[i];
+			int b = binOf(sphereCenters[3 * sphere + axis], centerBounds[axis], binScale);
+			binCount[b]++;
+			growBounds(binBounds, b, sphereBounds, sphere);
+		}
+
+		// SAH cost of splitting after every bin, sweeping from the right and then from the left
+		float[] rightArea = new float[BINS_COUNT];
+		int[] rightCount = new int[BINS_COUNT];
+		float[] sweep = new float[6];
+		resetBounds(sweep, 0);
+		int sweepCount = 0;
+		for (int b = BINS_COUNT - 1; b > 0; b--) {
+			growBounds(sweep, 0, binBounds, b);
+			sweepCount += binCount[b];
+			rightArea[b] = halfArea(sweep);
+			rightCount[b] = sweepCount;
+		}
+		resetBounds(sweep, 0);
+		sweepCount = 0;
+		int bestSplit = -1;
+		float bestCost = Float.MAX_VALUE;
+		for (int b = 1; b < BINS_COUNT; b++) {
+			growBounds(sweep, 0, binBounds, b - 1);
+			sweepCount += binCount[b - 1];
+			if (sweepCount == 0 || rightCount[b] == 0)
+				continue;
+			float cost = halfArea(sweep) * sweepCount + rightArea[b] * rightCount[b];
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestSplit = b;
+			}
+		}
+		if (bestSplit < 0)
+			return;
+		bestCost = TRAVERSAL_COST + bestCost / halfArea(bounds);
+		if (bestCost >= count && count <= MAX_SPHERES_IN_LEAF)
+			return; // testing all the spheres of the node is cheaper than splitting it
+
+		// partition the range so the spheres left of the split come first
+		int i = first;
+		int j = first + count - 1;
+		while (i <= j) {
+			int sphere = sphereIndices[i];
+			if (binOf(sphereCenters[3 * sphere + axis], centerBounds[axis], binScale) < bestSplit) {
+				i++;
+			} else {
+				sphereIndices[i] = sphereIndices[j];
+				sphereIndices[j--] = sphere;
+			}
+		}
+		int leftCount = i - first;
+
+		int leftChild = nodesCount;
+		nodesCount += 2;
+		nodeFirst[node] = leftChild;
+		nodeSpheresCount[node] = 0;
+		build(leftChild, first, leftCount, depth + 1);
+		build(leftChild + 1, i, count - leftCount, depth + 1);
+	}
+
+	private int binOf(float center, float min, float binScale) {
+		return Math.min(BINS_COUNT - 1, (int) ((center - min) * binScale));
+	}
+
+	private float[] rangeBounds(int first, int count, float[] values, int stride) {
+		float[] bounds = new float[6];
+		resetBounds(bounds, 0);
+		for (int i = first; i < first + count; i++) {
+			int offset = stride * sphereIndices[i];
+			int maxOffset = offset + (stride == 6 ? 3 : 0);
+			for (int a = 0; a < 3; a++) {
+				bounds[a] = Math.min(bounds[a], values[offset + a]);
+				bounds[a + 3] = Math.max(bounds[a + 3], values[maxOffset + a]);
+			}
+		}
+		return bounds;
+	}
+
+	private static void resetBounds(float[] bounds, int index) {
+		for (int a = 0; a < 3; a++) {
+			bounds[6 * index + a] = Float.MAX_VALUE;
+			bounds[6 * index + a + 3] = -Float.MAX_VALUE;
+		}
+	}
+
+	private static void growBounds(float[] bounds, int index, float[] other, int otherIndex) {
+		for (int a = 0; a < 3; a++) {
+			bounds[6 * index + a] = Math.min(bounds[6 * index + a], other[6 * otherIndex + a]);
+			bounds[6 * index + a + 3] = Math.max(bounds[6 * index + a + 3], other[6 * otherIndex + a + 3]);
+		}
+	}
+
+	// half of the surface area of a box, the SAH only needs the ratios between areas
+	private static float halfArea(float[] bounds) {
+		float dx = bounds[3] - bounds[0];
+		float dy = bounds[4] - bounds[1];
+		float dz = bounds[5] - bounds[2];
+		if (dx < 0)
+			return 0;
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	/**
+	 * Finds the nearest sphere of the hierarchy a ray intersects in its interval and
+	 * the distance to it, and narrows tMax to the distance. The result is the same
+	 * as the one of the linear scan over all the spheres.
+	 *
+	 * @param ray     The ray, a sphere at exactly tMax is still taken.
+	 * @param context The scratch memory of the calling thread, holds the traversal stack.
+	 * @param result  The record whose sphereIndex and distance receive the nearest intersection.
+	 * @return true if the ray intersects a sphere, false otherwise.
+	 */
+	@Override
+	public boolean closestIntersection(Ray ray, TraceContext context, IntersectionResults result) {
+		if (scene.spheresCount == 0)
+			return false;
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		float tMin = ray.tMin;
+		float ox = rayStart.x, oy = rayStart.y, oz = rayStart.z;
+		// a zero component gives infinite slabs instead of NaN
+		float invX = rayDirection.x != 0 ? 1 / rayDirection.x : Float.MAX_VALUE;
+		float invY = rayDirection.y != 0 ? 1 / rayDirection.y : Float.MAX_VALUE;
+		float invZ = rayDirection.z != 0 ? 1 / rayDirection.z : Float.MAX_VALUE;
+
+		float closestDistance = ray.tMax;
+		int closestSphereIndex = Integer.MAX_VALUE;
+		int sphereTests = 0;
+
+		int[] stack = context.traversalStack;
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (boxEntryDistance(node, ox, oy, oz, invX, invY, invZ) > closestDistance)
+				continue;
+			int count = nodeSpheresCount[node];
+			if (count > 0) {
+				int first = nodeFirst[node];
+				sphereTests += count;
+				for (int i = first; i < first + count; i++) {
+					int sphereIndex = sphereIndices[i];
+					float distance = scene.sphereDistance(ox, oy, oz, rayDirection.x, rayDirection.y, rayDirection.z, tMin, sphereIndex);
+					// on equal distances the sphere that is first in the scene wins, as in the linear scan
+					if (distance < closestDistance || (distance == closestDistance && sphereIndex < closestSphereIndex)) {
+						closestDistance = distance;
+						closestSphereIndex = sphereIndex;
+					}
+				}
+			} else {
+				int left = nodeFirst[node];
+				float leftDistance = boxEntryDistance(left, ox, oy, oz, invX, invY, invZ);
+				float rightDistance = boxEntryDistance(left + 1, ox, oy, oz, invX, invY, invZ);
+				// push the farther child first so the nearer one is visited first
+				if (leftDistance <= rightDistance) {
+					if (rightDistance <= closestDistance)
+						stack[stackSize++] = left + 1;
+					if (leftDistance <= closestDistance)
+						stack[stackSize++] = left;
+				} else {
+					if (leftDistance <= closestDistance)
+						stack[stackSize++] = left;
+					if (rightDistance <= closestDistance)
+						stack[stackSize++] = left + 1;
+				}
+			}
+		}
+		context.countSphereTests(sphereTests);
+		if (closestSphereIndex == Integer.MAX_VALUE)
+			return false;
+		result.sphereIndex = closestSphereIndex;
+		result.distance = closestDistance;
+		ray.tMax = closestDistance;
+		return true;
+	}
+
+	/**
+	 * Checks whether a ray intersects any sphere of the hierarchy in its interval.
+	 * The traversal stops at the first intersection found and skips every box
+	 * that starts beyond tMax.
+	 *
+	 * @param ray     The ray.
+	 * @param context The scratch memory of the calling thread, holds the traversal stack.
+	 * @return true if the ray intersects a sphere between tMin and tMax.
+	 */
+	@Override
+	public boolean anyIntersection(Ray ray, TraceContext context) {
+		if (scene.spheresCount == 0)
+			return false;
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		float maxDistance = ray.tMax;
+		float ox = rayStart.x, oy = rayStart.y, oz = rayStart.z;
+		float invX = rayDirection.x != 0 ? 1 / rayDirection.x : Float.MAX_VALUE;
+		float invY = rayDirection.y != 0 ? 1 / rayDirection.y : Float.MAX_VALUE;
+		float invZ = rayDirection.z != 0 ? 1 / rayDirection.z : Float.MAX_VALUE;
+
+		int[] stack = context.traversalStack;
+		int stackSize = 0;
+		int sphereTests = 0;
+		stack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (boxEntryDistance(node, ox, oy, oz, invX, invY, invZ) > maxDistance)
+				continue;
+			int count = nodeSpheresCount[node];
+			if (count > 0) {
+				int first = nodeFirst[node];
+				for (int i = first; i < first + count; i++) {
+					sphereTests++;
+					if (scene.rayHitsSphere(ray, sphereIndices[i])) {
+						context.countSphereTests(sphereTests);
+						return true;
+					}
+				}
+			} else {
+				int left = nodeFirst[node];
+				stack[stackSize++] = left + 1;
+				stack[stackSize++] = left;
+			}
+		}
+		context.countSphereTests(sphereTests);
+		return false;
+	}
+
+	/**
+	 * Finds the nearest sphere of every ray of a packet. The result of every ray is
+	 * the same as the one of {@link #closestIntersection(Ray, TraceContext, IntersectionResults)},
+	 * the distances are calculated with the same operations. A node is visited with
+	 * the mask of the rays that enter its box before their nearest hit so far, and
+	 * the spheres of a leaf are tested against the rays of the mask only. The
+	 * nearest hits so far are read from the packet, they are cleared by
+	 * {@link RayPacket#clearHits()} or found by an earlier query, and a sphere at
+	 * the same distance replaces a hit of a later index.
+	 *
+	 * @param packet  The rays, the results are written into its closestSphere and closestDistance.
+	 * @param context The scratch memory of the calling thread, holds the traversal stack.
+	 */
+	@Override
+	public void closestIntersections(RayPacket packet, TraceContext context) {
+		int raysCount = packet.raysCount;
+		for (int lane = 0; lane < raysCount; lane++) {
+			packet.inverseX[lane] = packet.directionX[lane] != 0 ? 1 / packet.directionX[lane] : Float.MAX_VALUE;
+			packet.inverseY[lane] = packet.directionY[lane] != 0 ? 1 / packet.directionY[lane] : Float.MAX_VALUE;
+			packet.inverseZ[lane] = packet.directionZ[lane] != 0 ? 1 / packet.directionZ[lane] : Float.MAX_VALUE;
+		}
+		if (scene.spheresCount == 0)
+			return;
+
+		// the stack holds the nodes and the masks of the rays that enter them
+		int[] stack = context.traversalStack;
+		int[] stackMasks = context.traversalMasks;
+		int stackSize = 0;
+		int sphereTests = 0;
+		stack[stackSize] = 0;
+		stackMasks[stackSize++] = packet.allRaysMask();
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			int mask = boxEntryMask(node, stackMasks[stackSize], packet);
+			if (mask == 0)
+				continue;
+			int count = nodeSpheresCount[node];
+			if (count > 0) {
+				int first = nodeFirst[node];
+				// every sphere is tested against every ray of the mask
+				sphereTests += count * Integer.bitCount(mask);
+				for (int i = first; i < first + count; i++)
+					intersectSphere(sphereIndices[i], mask, packet);
+			} else {
+				// the nearer child of the first ray is visited first, most rays of a coherent packet agree
+				int left = nodeFirst[node];
+				int lane = Integer.numberOfTrailingZeros(mask);
+				float leftDistance = boxEntryDistance(left, packet.originX, packet.originY, packet.originZ,
+						packet.inverseX[lane], packet.inverseY[lane], packet.inverseZ[lane]);
+				float rightDistance = boxEntryDistance(left + 1, packet.originX, packet.originY, packet.originZ,
+						packet.inverseX[lane], packet.inverseY[lane], packet.inverseZ[lane]);
+				int nearer = leftDistance <= rightDistance ? left : left + 1;
+				stack[stackSize] = nearer == left ? left + 1 : left;
+				stackMasks[stackSize++] = mask;
+				stack[stackSize] = nearer;
+				stackMasks[stackSize++] = mask;
+			}
+		}
+		context.countSphereTests(sphereTests);
+	}
+
+	// The mask of the rays that enter the box of the node before their nearest hit so far
+	private int boxEntryMask(int node, int mask, RayPacket packet) {
+		float[] boxDistance = packet.boxDistance;
+		for (int lane = 0; lane < packet.raysCount; lane++)
+			boxDistance[lane] = boxEntryDistance(node, packet.originX, packet.originY, packet.originZ,
+					packet.inverseX[lane], packet.inverseY[lane], packet.inverseZ[lane]);
+		for (int lane = 0; lane < packet.raysCount; lane++)
+			if (boxDistance[lane] > packet.closestDistance[lane])
+				mask &= ~(1 << lane);
+		return mask;
+	}
+
+	// Tests the sphere against the rays of the mask, same distances as the queries of single rays
+	private void intersectSphere(int sphere, int mask, RayPacket packet) {
+		for (int lane = 0; lane < packet.raysCount; lane++) {
+			if ((mask & (1 << lane)) == 0)
+				continue;
+			float distance = scene.sphereDistance(packet.originX, packet.originY, packet.originZ,
+					packet.directionX[lane], packet.directionY[lane], packet.directionZ[lane], packet.tMin, sphere);
+			// on equal distances the sphere that is first in the scene wins, as in the linear scan
+			if (distance < packet.closestDistance[lane]
+					|| (distance == packet.closestDistance[lane] && sphere < packet.closestSphere[lane])) {
+				packet.closestDistance[lane] = distance;
+				packet.closestSphere[lane] = sphere;
+			}
+		}
+	}
+
+	// Distance along the ray to the box of the node, 0 if the ray starts inside, infinity if it misses the box
+	private float boxEntryDistance(int node, float ox, float oy, float oz, float invX, float invY, float invZ) {
+		int b = 6 * node;
+		float t1 = (nodeBounds[b] - ox) * invX;
+		float t2 = (nodeBounds[b + 3] - ox) * invX;
+		float tNear = Math.min(t1, t2);
+		float tFar = Math.max(t1, t2);
+		t1 = (nodeBounds[b + 1] - oy) * invY;
+		t2 = (nodeBounds[b + 4] - oy) * invY;
+		tNear = Math.max(tNear, Math.min(t1, t2));
+		tFar = Math.min(tFar, Math.max(t1, t2));
+		t1 = (nodeBounds[b + 2] - oz) * invZ;
+		t2 = (nodeBounds[b + 5] - oz) * invZ;
+		tNear = Math.max(tNear, Math.min(t1, t2));
+		tFar = Math.min(tFar, Math.max(t1, t2));
+		if (tFar < Math.max(tNear, 0))
+			return Float.POSITIVE_INFINITY;
+		return Math.max(tNear, 0);
+	}
+}
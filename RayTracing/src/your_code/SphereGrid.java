@@ -0,0 +1,290 @@
+package your_code;
+
+import org.joml.Vector3f;
+
+/**
+ * Uniform grid over the spheres of a {@link RenderScene}.
+ *
+ * The box of the spheres is divided into equal cells and every cell lists the
+ * spheres whose boxes overlap it. The resolution is chosen from the number of
+ * spheres and the volume of the box, so there are about CELLS_PER_SPHERE cells
+ * for every sphere, and the cells are as close to cubes as the box allows. A
+ * query walks the cells along the ray in order with a 3D-DDA and stops at the
+ * first cell that ends after the nearest hit found so far, so the spheres
+ * behind it are never tested. A sphere in several cells is tested once per ray,
+ * the spheres are marked with the number of the ray in the mailbox of the
+ * {@link TraceContext}.
+ *
+ * The grid is built in one pass over the spheres, faster than the
+ * {@link SphereBVH}, and walks the evenly spread spheres of a lattice with
+ * few wasted tests, but it adapts badly to scenes of very different sizes, one
+ * huge sphere stretches the cells of all the others.
+ */
+final class SphereGrid implements SphereAccelerator {
+	/** The number of cells for every sphere, about the ratio of the volume of the box to the volume of a cell */
+	private static final float CELLS_PER_SPHERE = 2.0f;
+	/** The maximal number of cells along every axis */
+	private static final int MAX_RESOLUTION = 64;
+	/** The fraction of a cell the spheres are grown by, so a hit on the side of a cell is found in both cells */
+	private static final float CELL_PADDING = 1e-3f;
+
+	private final RenderScene scene;
+
+	/** min x, y, z of the box of the grid */
+	private final float minX, minY, minZ;
+	/** max x, y, z of the box of the grid */
+	private final float maxX, maxY, maxZ;
+	/** The number of cells along every axis */
+	private final int resolutionX, resolutionY, resolutionZ;
+	/** The size of a cell along every axis */
+	private final float cellX, cellY, cellZ;
+
+	/** The position of the first sphere of every cell in cellSpheres, and the end of the last cell */
+	private final int[] cellStart;
+	/** The spheres of all the cells, cell after cell, the cell of (x, y, z) is (z * resolutionY + y) * resolutionX + x */
+	private final int[] cellSpheres;
+
+	/**
+	 * Builds the grid over the spheres of the scene.
+	 *
+	 * @param scene the scene, its sphere arrays must not change afterwards
+	 */
+	SphereGrid(RenderScene scene) {
+		this.scene = scene;
+		int n = scene.spheresCount;
+		float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i = 0; i < n; i++) {
+			for (int a = 0; a < 3; a++) {
+				float center = scene.sphereCenters[3 * i + a];
+				bounds[a] = Math.min(bounds[a], center - scene.sphereRadii[i]);
+				bounds[a + 3] = Math.max(bounds[a + 3], center + scene.sphereRadii[i]);
+			}
+		}
+		if (n == 0) {
+			for (int a = 0; a < 3; a++) {
+				bounds[a] = 0;
+				bounds[a + 3] = 0;
+			}
+		}
+		// the box is grown a little, so a flat box still has a volume and the spheres on its sides are inside
+		float largestExtent = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+		float padding = Math.max(largestExtent, 1.0f) * CELL_PADDING;
+		for (int a = 0; a < 3; a++) {
+			bounds[a] -= padding;
+			bounds[a + 3] += padding;
+		}
+		minX = bounds[0];
+		minY = bounds[1];
+		minZ = bounds[2];
+		maxX = bounds[3];
+		maxY = bounds[4];
+		maxZ = bounds[5];
+
+		float extentX = maxX - minX, extentY = maxY - minY, extentZ = maxZ - minZ;
+		float cellsPerUnit = (float) Math.cbrt(CELLS_PER_SPHERE * Math.max(n, 1) / ((double) extentX * extentY * extentZ));
+		resolutionX = resolution(extentX, cellsPerUnit);
+		resolutionY = resolution(extentY, cellsPerUnit);
+		resolutionZ = resolution(extentZ, cellsPerUnit);
+		cellX = extentX / resolutionX;
+		cellY = extentY / resolutionY;
+		cellZ = extentZ / resolutionZ;
+
+		// count the spheres of every cell, then fill the cells after the prefix sums of the counts
+		cellStart = new int[resolutionX * resolutionY * resolutionZ + 1];
+		int[] range = new int[6];
+		for (int i = 0; i < n; i++) {
+			cellRange(i, range);
+			for (int z = range[2]; z <= range[5]; z++)
+				for (int y = range[1]; y <= range[4]; y++)
+					for (int x = range[0]; x <= range[3]; x++)
+						cellStart[cellIndex(x, y, z) + 1]++;
+		}
+		for (int cell = 1; cell < cellStart.length; cell++)
+			cellStart[cell] += cellStart[cell - 1];
+		cellSpheres = new int[cellStart[cellStart.length - 1]];
+		int[] cellFill = new int[cellStart.length - 1];
+		System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+		// the spheres are added in the order of the scene, so every cell lists them by index
+		for (int i = 0; i < n; i++) {
+			cellRange(i, range);
+			for (int z = range[2]; z <= range[5]; z++)
+				for (int y = range[1]; y <= range[4]; y++)
+					for (int x = range[0]; x <= range[3]; x++)
+						cellSpheres[cellFill[cellIndex(x, y, z)]++] = i;
+		}
+	}
+
+	private static int resolution(float extent, float cellsPerUnit) {
+		return Math.max(1, Math.min(MAX_RESOLUTION, (int) Math.ceil(extent * cellsPerUnit)));
+	}
+
+	// The first and the last cell along every axis that the box of the sphere overlaps
+	private void cellRange(int sphere, int[] range) {
+		float radius = scene.sphereRadii[sphere];
+		range[0] = cell(scene.sphereCenters[3 * sphere] - radius - cellX * CELL_PADDING, minX, cellX, resolutionX);
+		range[1] = cell(scene.sphereCenters[3 * sphere + 1] - radius - cellY * CELL_PADDING, minY, cellY, resolutionY);
+		range[2] = cell(scene.sphereCenters[3 * sphere + 2] - radius - cellZ * CELL_PADDING, minZ, cellZ, resolutionZ);
+		range[3] = cell(scene.sphereCenters[3 * sphere] + radius + cellX * CELL_PADDING, minX, cellX, resolutionX);
+		range[4] = cell(scene.sphereCenters[3 * sphere + 1] + radius + cellY * CELL_PADDING, minY, cellY, resolutionY);
+		range[5] = cell(scene.sphereCenters[3 * sphere + 2] + radius + cellZ * CELL_PADDING, minZ, cellZ, resolutionZ);
+	}
+
+	private static int cell(float coordinate, float min, float cellSize, int resolution) {
+		return Math.max(0, Math.min(resolution - 1, (int) ((coordinate - min) / cellSize)));
+	}
+
+	private int cellIndex(int x, int y, int z) {
+		return (z * resolutionY + y) * resolutionX + x;
+	}
+
+	/** @return the number of cells in the grid */
+	int getCellsCount() {
+		return cellStart.length - 1;
+	}
+
+	@Override
+	public boolean closestIntersection(Ray ray, TraceContext context, IntersectionResults result) {
+		return walk(ray, context, result);
+	}
+
+	@Override
+	public boolean anyIntersection(Ray ray, TraceContext context) {
+		return walk(ray, context, null);
+	}
+
+	/**
+	 * Finds the nearest sphere of every ray of a packet. The cells along the rays
+	 * of a packet part after a few steps, so every ray walks the grid alone, with
+	 * its nearest hit so far as its tMax.
+	 */
+	@Override
+	public void closestIntersections(RayPacket packet, TraceContext context) {
+		if (scene.spheresCount == 0)
+			return;
+		Ray ray = context.laneRay;
+		ray.origin.set(packet.originX, packet.originY, packet.originZ);
+		IntersectionResults hit = context.laneHit;
+		for (int lane = 0; lane < packet.raysCount; lane++) {
+			ray.direction.set(packet.directionX[lane], packet.directionY[lane], packet.directionZ[lane]);
+			ray.tMin = packet.tMin;
+			ray.tMax = packet.closestDistance[lane];
+			if (!walk(ray, context, hit))
+				continue;
+			// on equal distances the sphere that is first in the scene wins, as in the linear scan
+			if (hit.distance < packet.closestDistance[lane]
+					|| (hit.distance == packet.closestDistance[lane] && hit.sphereIndex < packet.closestSphere[lane])) {
+				packet.closestDistance[lane] = hit.distance;
+				packet.closestSphere[lane] = hit.sphereIndex;
+			}
+		}
+	}
+
+	/**
+	 * Walks the cells along the ray in order and tests their spheres.
+	 *
+	 * @param result The record whose sphereIndex and distance receive the nearest intersection, null to
+	 *               stop at the first intersection in the interval of the ray instead.
+	 * @return true if the ray intersects a sphere.
+	 */
+	private boolean walk(Ray ray, TraceContext context, IntersectionResults result) {
+		int n = scene.spheresCount;
+		if (n == 0)
+			return false;
+		Vector3f rayStart = ray.origin;
+		Vector3f rayDirection = ray.direction;
+		float tMin = ray.tMin;
+		float maxDistance = ray.tMax;
+		float ox = rayStart.x, oy = rayStart.y, oz = rayStart.z;
+		float dx = rayDirection.x, dy = rayDirection.y, dz = rayDirection.z;
+
+		// the part of the ray inside the box of the grid, a zero component gives infinite slabs
+		float invX = dx != 0 ? 1 / dx : Float.MAX_VALUE;
+		float invY = dy != 0 ? 1 / dy : Float.MAX_VALUE;
+		float invZ = dz != 0 ? 1 / dz : Float.MAX_VALUE;
+		float t1 = (minX - ox) * invX;
+		float t2 = (maxX - ox) * invX;
+		float tNear = Math.min(t1, t2);
+		float tFar = Math.max(t1, t2);
+		t1 = (minY - oy) * invY;
+		t2 = (maxY - oy) * invY;
+		tNear = Math.max(tNear, Math.min(t1, t2));
+		tFar = Math.min(tFar, Math.max(t1, t2));
+		t1 = (minZ - oz) * invZ;
+		t2 = (maxZ - oz) * invZ;
+		tNear = Math.max(Math.max(tNear, Math.min(t1, t2)), 0);
+		tFar = Math.min(tFar, Math.max(t1, t2));
+		if (tFar < tNear || tNear > maxDistance)
+			return false;
+
+		// the cell where the ray enters the grid, and the distances to the next cell along every axis
+		int x = cell(ox + dx * tNear, minX, cellX, resolutionX);
+		int y = cell(oy + dy * tNear, minY, cellY, resolutionY);
+		int z = cell(oz + dz * tNear, minZ, cellZ, resolutionZ);
+		int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+		int stepY = dy > 0 ? 1 : dy < 0 ? -1 : 0;
+		int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+		float nextX = stepX == 0 ? Float.POSITIVE_INFINITY : (minX + (x + (stepX > 0 ? 1 : 0)) * cellX - ox) * invX;
+		float nextY = stepY == 0 ? Float.POSITIVE_INFINITY : (minY + (y + (stepY > 0 ? 1 : 0)) * cellY - oy) * invY;
+		float nextZ = stepZ == 0 ? Float.POSITIVE_INFINITY : (minZ + (z + (stepZ > 0 ? 1 : 0)) * cellZ - oz) * invZ;
+		float deltaX = stepX == 0 ? Float.POSITIVE_INFINITY : cellX * Math.abs(invX);
+		float deltaY = stepY == 0 ? Float.POSITIVE_INFINITY : cellY * Math.abs(invY);
+		float deltaZ = stepZ == 0 ? Float.POSITIVE_INFINITY : cellZ * Math.abs(invZ);
+
+		int[] mailbox = context.mailbox(n);
+		int mark = context.nextMailboxRay();
+		float closestDistance = maxDistance;
+		int closestSphereIndex = Integer.MAX_VALUE;
+		int sphereTests = 0;
+		while (true) {
+			int cell = cellIndex(x, y, z);
+			for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+				int sphereIndex = cellSpheres[i];
+				if (mailbox[sphereIndex] == mark)
+					continue;
+				mailbox[sphereIndex] = mark;
+				sphereTests++;
+				if (result == null) {
+					if (scene.rayHitsSphere(ray, sphereIndex)) {
+						context.countSphereTests(sphereTests);
+						return true;
+					}
+					continue;
+				}
+				float distance = scene.sphereDistance(ox, oy, oz, dx, dy, dz, tMin, sphereIndex);
+				// on equal distances the sphere that is first in the scene wins, as in the linear scan
+				if (distance < closestDistance || (distance == closestDistance && sphereIndex < closestSphereIndex)) {
+					closestDistance = distance;
+					closestSphereIndex = sphereIndex;
+				}
+			}
+
+			// the spheres of the later cells are hit at or after the end of this cell
+			float cellExit = Math.min(nextX, Math.min(nextY, nextZ));
+			if (closestDistance < cellExit || (result == null && cellExit > maxDistance))
+				break;
+			if (nextX == cellExit) {
+				x += stepX;
+				if (x < 0 || x >= resolutionX)
+					break;
+				nextX += deltaX;
+			} else if (nextY == cellExit) {
+				y += stepY;
+				if (y < 0 || y >= resolutionY)
+					break;
+				nextY += deltaY;
+			} else {
+				z += stepZ;
+				if (z < 0 || z >= resolutionZ)
+					break;
+				nextZ += deltaZ;
+			}
+		}
+		context.countSphereTests(sphereTests);
+		if (closestSphereIndex == Integer.MAX_VALUE)
+			return false;
+		result.sphereIndex = closestSphereIndex;
+		result.distance = closestDistance;
+		ray.tMax = closestDistance;
+		return true;
+	}
+}
@@ -0,0 +1,129 @@
+package your_code;
+
+import java.util.Arrays;
+
+import org.joml.Vector3f;
+
+/**
+ * Scratch memory of the ray tracer for a single thread.
+ *
+ * Every render worker owns one context (see {@link WorldModel}), so the vectors
+ * and hit records here are reused for every pixel instead of being allocated
+ * for every ray. The recursion of the ray tracer needs its own vectors at every
+ * depth level, they are kept in frames that are created the first time a depth
+ * is reached. Helpers that do not recurse share the vectors of the context.
+ */
+final class TraceContext {
+	/** The vectors and the hit record of one depth level of the recursion */
+	static final class Frame {
+		final IntersectionResults hit = new IntersectionResults();
+		final Vector3f sphereCenter = new Vector3f();
+		final Vector3f color = new Vector3f();
+		final Vector3f kd = new Vector3f();
+		final Vector3f ks = new Vector3f();
+		final Vector3f ka = new Vector3f();
+		final Vector3f kdCombined = new Vector3f();
+		final Vector3f directLight = new Vector3f();
+		/** The color returned by the reflected or the transmitted ray */
+		final Vector3f secondaryLight = new Vector3f();
+		/** The reflected or the transmitted ray */
+		final Ray secondaryRay = new Ray();
+	}
+
+	private Frame[] frames = new Frame[0];
+
+	/** The setting of the Russian roulette of the pixel that is rendered */
+	boolean russianRoulette;
+
+	/** The counters the ray tracer counts into, the counters of the thread for the world model that is rendered
+	 * while its statistics are enabled and null otherwise */
+	RenderCounters counters;
+
+	// used by the nearest hit queries
+	final int[] traversalStack = new int[SphereBVH.STACK_SIZE];
+	/** The masks of the rays of the nodes on the stack, used by the queries of packets */
+	final int[] traversalMasks = new int[SphereBVH.STACK_SIZE];
+
+	// used by the queries of packets that trace every ray of the packet alone
+	final Ray laneRay = new Ray();
+	final IntersectionResults laneHit = new IntersectionResults();
+
+	/** The last ray that tested every sphere, so a query of SphereGrid tests a sphere in several cells once */
+	private int[] mailbox = new int[0];
+	private int mailboxRay;
+
+	// used by the shadow test
+	final Ray shadowRay = new Ray();
+
+	// used by the direct light
+	final Vector3f lightLocation = new Vector3f();
+	final Vector3f lightDirection = new Vector3f();
+	final Vector3f reflectedLightDirection = new Vector3f();
+	final Vector3f eyeDirection = new Vector3f();
+	final Vector3f lightColor = new Vector3f();
+
+	// used by the texture sampling and the transmission ray
+	final Vector3f textureDirection = new Vector3f();
+	final Vector3f textureColor = new Vector3f();
+	final Vector3f transmissionNormal = new Vector3f();
+
+	// the primary ray of the pixel
+	final Ray primaryRay = new Ray();
+
+	// the primary rays of the pixels that are rendered together
+	final RayPacket primaryPacket = new RayPacket();
+	/** The index of the pixel of every ray of the packet in the pixels that are rendered together */
+	final int[] packetPixels = new int[RayPacket.SIZE];
+
+	/** The queues of the wavefront ray tracer, created the first time it is used */
+	private WavefrontTracer wavefrontTracer;
+
+	/**
+	 * @param spheresCount the number of the spheres of the scene
+	 * @return the mailbox of the spheres, see nextMailboxRay
+	 */
+	int[] mailbox(int spheresCount) {
+		if (mailbox.length < spheresCount)
+			mailbox = new int[spheresCount];
+		return mailbox;
+	}
+
+	/** @return the number of a new ray in the mailbox, every sphere the ray tests is marked with it */
+	int nextMailboxRay() {
+		if (++mailboxRay == 0) {
+			// after 2^32 rays the old marks would be taken for the marks of the new rays
+			Arrays.fill(mailbox, 0);
+			mailboxRay = 1;
+		}
+		return mailboxRay;
+	}
+
+	/** Adds the sphere tests of a query to the counters of the thread, when the statistics are enabled */
+	void countSphereTests(int sphereTests) {
+		RenderCounters counters = this.counters;
+		if (counters != null)
+			counters.sphereIntersectionTests += sphereTests;
+	}
+
+	/** @return the wavefront ray tracer of the thread */
+	WavefrontTracer wavefrontTracer() {
+		if (wavefrontTracer == null)
+			wavefrontTracer = new WavefrontTracer();
+		return wavefrontTracer;
+	}
+
+	/**
+	 * @param depthLevel the depth level of the recursion
+	 * @return the frame of the depth level
+	 */
+	Frame frame(int depthLevel) {
+		if (depthLevel >= frames.length) {
+			Frame[] grown = new Frame[depthLevel + 1];
+			System.arraycopy(frames, 0, grown, 0, frames.length);
+			for (int i = frames.length; i < grown.length; i++)
+				grown[i] = new Frame();
+			frames = grown;
+		}
+		return frames[depthLevel];
+	}
+}
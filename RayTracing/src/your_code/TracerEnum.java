@@ -0,0 +1,12 @@
+package your_code;
+
+/**
+ * The ray tracers that calculate the colors of the rays, see
+ * {@link WorldModel#setTracer(TracerEnum)}. Both calculate the same colors.
+ */
+public enum TracerEnum {
+	/** Traces the rays of every pixel depth first on the stack of the thread */
+	RECURSIVE,
+	/** Traces the rays of many pixels level by level of depth, without recursion, see WavefrontTracer */
+	WAVEFRONT
+};
@@ -1,10 +1,22 @@
 package your_code;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.joml.Vector3f;
 
+import app_interface.ExerciseEnum;
 import app_interface.Model;
+import app_interface.ModelLight;
+import app_interface.ModelPlane;
 import app_interface.ModelSphere;
 import app_interface.SphereTexture;
 
@@ -29,6 +41,23 @@ public class UnitTests {
 	    }
 	}
 	
+	private static void testCalcPixelDirectionSubPixel() {
+		// the direction through a point inside a pixel lies between the directions of the pixel centers around it
+		int imageWidth = 600;
+		int imageHeight = 400;
+		float fovXdegree = 70.0f;
+		Vector3f center = WorldModel.calcPixelDirection(127, 312, imageWidth, imageHeight, fovXdegree, new Vector3f());
+		Vector3f sameCenter = WorldModel.calcPixelDirection(127f, 312f, imageWidth, imageHeight, fovXdegree, new Vector3f());
+		Vector3f right = WorldModel.calcPixelDirection(128, 313, imageWidth, imageHeight, fovXdegree, new Vector3f());
+		Vector3f between = WorldModel.calcPixelDirection(127.5f, 312.5f, imageWidth, imageHeight, fovXdegree, new Vector3f());
+		boolean inside = between.x > center.x && between.x < right.x && between.y > center.y && between.y < right.y;
+		if (center.equals(sameCenter) && inside) {
+			System.out.println("testCalcPixelDirectionSubPixel passed.");
+		} else {
+			System.out.println("testCalcPixelDirectionSubPixel failed. Center: " + center + ", " + sameCenter + ", between: " + between);
+		}
+	}
+
 	private static void testRayIntersection() {
 		// Test case 1: No intersection (ray misses the sphere)
 		Vector3f rayStart1 = new Vector3f(1, 1, 1);
@@ -206,23 +235,603 @@ public class UnitTests {
 	    }
 	}	
 
+	private static void testSampleDirectionFromMiddleFast() throws IOException {
+		SphereTexture texture = new SphereTexture("./Models/sky.jpg");
+		Random random = new Random(99);
+		Vector3f exact = new Vector3f();
+		Vector3f fast = new Vector3f();
+		float maxError = 0;
+		for (int i = 0; i < 100000; i++) {
+			Vector3f direction = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+			texture.sampleDirectionFromMiddle(direction, exact);
+			texture.sampleDirectionFromMiddleFast(direction, fast);
+			maxError = Math.max(maxError, Math.max(Math.abs(exact.x - fast.x), Math.max(Math.abs(exact.y - fast.y), Math.abs(exact.z - fast.z))));
+		}
+		if (maxError < 1.0f / 255) {
+			System.out.println("testSampleDirectionFromMiddleFast passed.");
+		} else {
+			System.out.println("testSampleDirectionFromMiddleFast failed. The largest difference from the exact sampling is " + maxError);
+		}
+	}
+
+	private static void testSphereTextureCache() throws IOException {
+		// a copy of a texture, so its modification time can be changed
+		Path textureFile = Files.createTempFile("texture", ".jpg");
+		try {
+			Files.copy(Paths.get("./Models/sky.jpg"), textureFile, StandardCopyOption.REPLACE_EXISTING);
+			SphereTexture first = SphereTexture.load(textureFile.toString());
+			SphereTexture second = SphereTexture.load(textureFile.toAbsolutePath().getParent().resolve(".").resolve(textureFile.getFileName()).toString());
+			Files.setLastModifiedTime(textureFile, FileTime.fromMillis(Files.getLastModifiedTime(textureFile).toMillis() - 10000));
+			SphereTexture third = SphereTexture.load(textureFile.toString());
+			if (first == second && third != first) {
+				System.out.println("testSphereTextureCache passed.");
+			} else {
+				System.out.println("testSphereTextureCache failed. The same file must be decoded once, and again after it changed.");
+			}
+		} finally {
+			Files.delete(textureFile);
+		}
+	}
+
+	// A ray with the default tMin, queries narrow its tMax so every query gets a new one
+	private static Ray ray(Vector3f origin, Vector3f direction, float tMax) {
+		Ray ray = new Ray().set(origin, direction);
+		ray.tMax = tMax;
+		return ray;
+	}
+
+	// 500 random spheres in a box in front of the camera, some of them overlapping, the rays of a test are drawn
+	// from the same random numbers after the spheres
+	private static RenderScene randomSpheresScene(Random random) {
+		List<ModelSphere> spheres = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			Vector3f center = new Vector3f(random.nextFloat() * 40 - 20, random.nextFloat() * 40 - 20, -random.nextFloat() * 60);
+			spheres.add(new ModelSphere(center, 0.1f + random.nextFloat() * 2, 0, 0));
+		}
+		return new RenderScene(spheres, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, 60);
+	}
+
+	private static void testSphereBVH() {
+		// random spheres, some of them overlapping, and random rays from inside and outside the spheres
+		Random random = new Random(1234);
+		RenderScene scene = randomSpheresScene(random);
+
+		TraceContext context = new TraceContext();
+		IntersectionResults expected = new IntersectionResults();
+		IntersectionResults result = new IntersectionResults();
+		int mismatches = 0;
+		for (int i = 0; i < 20000; i++) {
+			Vector3f rayStart = new Vector3f(random.nextFloat() * 40 - 20, random.nextFloat() * 40 - 20, -random.nextFloat() * 60);
+			Vector3f rayDirection = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalize();
+			boolean expectedHit = scene.closestIntersectionLinear(ray(rayStart, rayDirection, Float.MAX_VALUE), expected);
+			boolean resultHit = scene.sphereAccelerator.closestIntersection(ray(rayStart, rayDirection, Float.MAX_VALUE), context, result);
+			boolean sameResult = !expectedHit 
+					? !resultHit 
+					: resultHit && expected.sphereIndex == result.sphereIndex && expected.distance == result.distance;
+			if (!sameResult)
+				mismatches++;
+		}
+		if (mismatches == 0) {
+			System.out.println("testSphereBVH passed.");
+		} else {
+			System.out.println("testSphereBVH failed. " + mismatches + " rays out of 20000 have a different nearest intersection than the linear scan.");
+		}
+	}
+
+	private static void testRayPacket() {
+		// packets of random rays from a common origin, some of them diverging, against random spheres
+		Random random = new Random(4321);
+		RenderScene scene = randomSpheresScene(random);
+
+		TraceContext context = new TraceContext();
+		RayPacket packet = new RayPacket();
+		IntersectionResults expected = new IntersectionResults();
+		int mismatches = 0;
+		for (int i = 0; i < 3000; i++) {
+			Vector3f rayStart = new Vector3f(random.nextFloat() * 40 - 20, random.nextFloat() * 40 - 20, -random.nextFloat() * 60);
+			Vector3f packetDirection = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+			float spread = i % 2 == 0 ? 0.01f : 1f;
+			packet.raysCount = 1 + random.nextInt(RayPacket.SIZE);
+			packet.originX = rayStart.x;
+			packet.originY = rayStart.y;
+			packet.originZ = rayStart.z;
+			Vector3f[] directions = new Vector3f[packet.raysCount];
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				directions[lane] = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f)
+						.mul(spread).add(packetDirection).normalize();
+				packet.directionX[lane] = directions[lane].x;
+				packet.directionY[lane] = directions[lane].y;
+				packet.directionZ[lane] = directions[lane].z;
+			}
+			scene.closestIntersections(packet, context);
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				boolean expectedHit = scene.closestIntersectionLinear(ray(rayStart, directions[lane], Float.MAX_VALUE), expected);
+				boolean sameResult = !expectedHit
+						? packet.closestSphere[lane] == -1
+						: packet.closestSphere[lane] == expected.sphereIndex && packet.closestDistance[lane] == expected.distance;
+				if (!sameResult)
+					mismatches++;
+			}
+		}
+		if (mismatches == 0) {
+			System.out.println("testRayPacket passed.");
+		} else {
+			System.out.println("testRayPacket failed. " + mismatches + " rays differ from the linear scan.");
+		}
+	}
+
+	private static void testSphereBVHOcclusion() {
+		// random spheres and random rays of random lengths, as shadow rays towards lights at different distances
+		Random random = new Random(2468);
+		RenderScene scene = randomSpheresScene(random);
+
+		TraceContext context = new TraceContext();
+		IntersectionResults nearest = new IntersectionResults();
+		int mismatches = 0;
+		for (int i = 0; i < 20000; i++) {
+			Vector3f rayStart = new Vector3f(random.nextFloat() * 40 - 20, random.nextFloat() * 40 - 20, -random.nextFloat() * 60);
+			Vector3f rayDirection = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalize();
+			float maxDistance = random.nextFloat() * 30;
+			boolean expected = scene.anyIntersectionLinear(ray(rayStart, rayDirection, maxDistance));
+			boolean result = scene.anyIntersection(ray(rayStart, rayDirection, maxDistance), context);
+			if (expected != result)
+				mismatches++;
+			// without a maximal distance the occlusion query agrees with the nearest hit query
+			if (scene.anyIntersection(ray(rayStart, rayDirection, Float.MAX_VALUE), context) != scene.closestIntersection(ray(rayStart, rayDirection, Float.MAX_VALUE), context, nearest))
+				mismatches++;
+		}
+		if (mismatches == 0) {
+			System.out.println("testSphereBVHOcclusion passed.");
+		} else {
+			System.out.println("testSphereBVHOcclusion failed. " + mismatches + " occlusion queries differ from the linear scan or from the nearest hit.");
+		}
+	}
+
+	private static void testRayInterval() {
+		// a sphere and a ground plane, rays that start on their surfaces and rays whose interval ends before them
+		List<ModelSphere> spheres = new ArrayList<>();
+		spheres.add(new ModelSphere(new Vector3f(0, 0, -5), 1, 0, 0));
+		List<ModelPlane> planes = new ArrayList<>();
+		planes.add(new ModelPlane(new Vector3f(0, -2, 0), new Vector3f(0, 1, 0), 1, 0, 0));
+		RenderScene scene = new RenderScene(spheres, planes, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, 60);
+		TraceContext context = new TraceContext();
+		IntersectionResults hit = new IntersectionResults();
+
+		// the nearest hit narrows tMax to its distance
+		Ray ray = ray(new Vector3f(0, 0, 0), new Vector3f(0, 0, -1), Float.MAX_VALUE);
+		boolean narrowed = scene.closestIntersection(ray, context, hit) && hit.sphereIndex == 0 && ray.tMax == hit.distance
+				&& Math.abs(hit.distance - 4) < 1e-5f;
+		// a ray that starts on the front of the sphere and goes into it hits the back, not its own start
+		ray = ray(new Vector3f(0, 0, -4), new Vector3f(0, 0, -1), Float.MAX_VALUE);
+		boolean fromSurface = scene.closestIntersection(ray, context, hit) && hit.sphereIndex == 0 && !hit.rayFromOutsideOfSphere
+				&& Math.abs(hit.intersectionPoint.z + 6) < 1e-5f;
+		// the interval ends before the sphere and before the ground
+		boolean shortSphere = !scene.anyIntersection(ray(new Vector3f(0, 0, 0), new Vector3f(0, 0, -1), 3.9f), context)
+				&& scene.anyIntersection(ray(new Vector3f(0, 0, 0), new Vector3f(0, 0, -1), 4.1f), context);
+		boolean shortGround = !scene.closestIntersection(ray(new Vector3f(3, 0, 0), new Vector3f(0, -1, 0), 1.9f), context, hit)
+				&& scene.closestIntersection(ray(new Vector3f(3, 0, 0), new Vector3f(0, -1, 0), 2.1f), context, hit)
+				&& hit.sphereIndex == spheres.size();
+		// a reflected ray that starts on the ground is not stopped by the ground
+		boolean offGround = !scene.anyIntersection(ray(new Vector3f(3, -2, 0), new Vector3f(0, 1, 0), Float.MAX_VALUE), context);
+
+		if (narrowed && fromSurface && shortSphere && shortGround && offGround) {
+			System.out.println("testRayInterval passed.");
+		} else {
+			System.out.println("testRayInterval failed. Narrowed: " + narrowed + ", from the surface: " + fromSurface
+					+ ", short of the sphere: " + shortSphere + ", short of the ground: " + shortGround + ", off the ground: " + offGround);
+		}
+	}
+
+	private static void testSphereGrid() {
+		// a lattice of spheres with touching neighbors, random spheres of very different sizes, and a ground plane,
+		// random rays and packets from inside and outside the grid, the grid agrees with the linear scan
+		Random random = new Random(8765);
+		List<ModelSphere> spheres = new ArrayList<>();
+		for (int x = 0; x < 8; x++)
+			for (int y = 0; y < 8; y++)
+				for (int z = 0; z < 8; z++)
+					spheres.add(new ModelSphere(new Vector3f(x * 2 - 7, y * 2 - 7, -z * 2 - 10), 1, 0, 0));
+		for (int i = 0; i < 100; i++) {
+			Vector3f center = new Vector3f(random.nextFloat() * 60 - 30, random.nextFloat() * 60 - 30, -random.nextFloat() * 60);
+			spheres.add(new ModelSphere(center, 0.05f + random.nextFloat() * random.nextFloat() * 8, 0, 0));
+		}
+		List<ModelPlane> planes = new ArrayList<>();
+		planes.add(new ModelPlane(new Vector3f(0, -20, 0), new Vector3f(0, 1, 0), 1, 0, 0));
+		RenderScene scene = new RenderScene(new RenderScene(spheres, planes, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, 60),
+				AcceleratorEnum.GRID);
+
+		TraceContext context = new TraceContext();
+		RayPacket packet = new RayPacket();
+		IntersectionResults expected = new IntersectionResults();
+		IntersectionResults result = new IntersectionResults();
+		int mismatches = 0;
+		for (int i = 0; i < 3000; i++) {
+			// a third of the rays start outside the grid, some of them along an axis
+			Vector3f rayStart = new Vector3f(random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50, 40 - random.nextFloat() * 120);
+			Vector3f packetDirection = i % 10 == 0 ? new Vector3f(0, 0, -1)
+					: new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+			packet.raysCount = 1 + random.nextInt(RayPacket.SIZE);
+			packet.originX = rayStart.x;
+			packet.originY = rayStart.y;
+			packet.originZ = rayStart.z;
+			Vector3f[] directions = new Vector3f[packet.raysCount];
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				directions[lane] = lane == 0 ? new Vector3f(packetDirection).normalize()
+						: new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f)
+								.mul(0.2f).add(packetDirection).normalize();
+				packet.directionX[lane] = directions[lane].x;
+				packet.directionY[lane] = directions[lane].y;
+				packet.directionZ[lane] = directions[lane].z;
+			}
+			scene.closestIntersections(packet, context);
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				boolean expectedHit = scene.closestIntersectionLinear(ray(rayStart, directions[lane], Float.MAX_VALUE), expected);
+				boolean resultHit = scene.closestIntersection(ray(rayStart, directions[lane], Float.MAX_VALUE), context, result);
+				boolean sameResult = !expectedHit
+						? !resultHit && packet.closestSphere[lane] == -1
+						: resultHit && result.sphereIndex == expected.sphereIndex && result.intersectionPoint.equals(expected.intersectionPoint)
+								&& packet.closestSphere[lane] == expected.sphereIndex;
+				float maxDistance = random.nextFloat() * 60;
+				if (!sameResult || scene.anyIntersection(ray(rayStart, directions[lane], maxDistance), context) != scene.anyIntersectionLinear(ray(rayStart, directions[lane], maxDistance)))
+					mismatches++;
+			}
+		}
+		if (mismatches == 0) {
+			System.out.println("testSphereGrid passed.");
+		} else {
+			System.out.println("testSphereGrid failed. " + mismatches + " rays differ from the linear scan.");
+		}
+	}
+
+	private static void testScenePlanes() {
+		// random spheres above a ground and a tilted plane, random rays and packets from above and below the ground
+		Random random = new Random(5678);
+		List<ModelSphere> spheres = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			Vector3f center = new Vector3f(random.nextFloat() * 40 - 20, random.nextFloat() * 20 - 5, -random.nextFloat() * 60);
+			spheres.add(new ModelSphere(center, 0.1f + random.nextFloat() * 2, 0, 0));
+		}
+		List<ModelPlane> planes = new ArrayList<>();
+		planes.add(new ModelPlane(new Vector3f(0, -5, 0), new Vector3f(0, 1, 0), 1, 0, 0));
+		planes.add(new ModelPlane(new Vector3f(0, 0, -70), new Vector3f(0.3f, 0.2f, 1), 1, 0, 0));
+		RenderScene scene = new RenderScene(spheres, planes, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, 60);
+
+		// a ray down to the ground hits it from the outside, a ray up from below hits it from the inside
+		IntersectionResults hit = new IntersectionResults();
+		boolean fromAbove = scene.planeIntersection(ray(new Vector3f(50, 0, 0), new Vector3f(0, -1, 0), Float.MAX_VALUE), 0, hit)
+				&& hit.intersectionPoint.equals(new Vector3f(50, -5, 0)) && hit.normal.equals(new Vector3f(0, 1, 0))
+				&& hit.rayFromOutsideOfSphere && hit.sphereIndex == spheres.size();
+		boolean fromBelow = scene.planeIntersection(ray(new Vector3f(50, -10, 0), new Vector3f(0, 1, 0), Float.MAX_VALUE), 0, hit)
+				&& hit.normal.y == -1 && !hit.rayFromOutsideOfSphere;
+		boolean parallel = !scene.planeIntersection(ray(new Vector3f(50, 0, 0), new Vector3f(1, 0, 0), Float.MAX_VALUE), 0, hit);
+
+		TraceContext context = new TraceContext();
+		RayPacket packet = new RayPacket();
+		IntersectionResults expected = new IntersectionResults();
+		int mismatches = 0;
+		for (int i = 0; i < 3000; i++) {
+			Vector3f rayStart = new Vector3f(random.nextFloat() * 40 - 20, random.nextFloat() * 30 - 10, -random.nextFloat() * 60);
+			Vector3f packetDirection = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+			packet.raysCount = 1 + random.nextInt(RayPacket.SIZE);
+			packet.originX = rayStart.x;
+			packet.originY = rayStart.y;
+			packet.originZ = rayStart.z;
+			Vector3f[] directions = new Vector3f[packet.raysCount];
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				directions[lane] = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f)
+						.mul(0.2f).add(packetDirection).normalize();
+				packet.directionX[lane] = directions[lane].x;
+				packet.directionY[lane] = directions[lane].y;
+				packet.directionZ[lane] = directions[lane].z;
+			}
+			scene.closestIntersections(packet, context);
+			for (int lane = 0; lane < packet.raysCount; lane++) {
+				boolean expectedHit = scene.closestIntersectionLinear(ray(rayStart, directions[lane], Float.MAX_VALUE), expected);
+				boolean resultHit = scene.closestIntersection(ray(rayStart, directions[lane], Float.MAX_VALUE), context, hit);
+				boolean sameResult = !expectedHit
+						? !resultHit && packet.closestSphere[lane] == -1
+						: resultHit && hit.sphereIndex == expected.sphereIndex && hit.intersectionPoint.equals(expected.intersectionPoint)
+								&& packet.closestSphere[lane] == expected.sphereIndex;
+				float maxDistance = random.nextFloat() * 30;
+				if (!sameResult || scene.anyIntersection(ray(rayStart, directions[lane], maxDistance), context) != scene.anyIntersectionLinear(ray(rayStart, directions[lane], maxDistance)))
+					mismatches++;
+			}
+		}
+		if (fromAbove && fromBelow && parallel && mismatches == 0) {
+			System.out.println("testScenePlanes passed.");
+		} else {
+			System.out.println("testScenePlanes failed. From above: " + fromAbove + ", from below: " + fromBelow + ", parallel: " + parallel
+					+ ", " + mismatches + " rays differ from the linear scan.");
+		}
+	}
+
+	private static void testCalcDirectLight() {
+		// a point on the front of a sphere, lit by a light blocked by a small sphere, a light behind
+		// the sphere and a visible light of half intensity
+		List<ModelSphere> spheres = new ArrayList<>();
+		spheres.add(new ModelSphere(new Vector3f(0, 0, -5), 1, 0, 0));
+		spheres.add(new ModelSphere(new Vector3f(0, 0, -2), 0.5f, 0, 0));
+		List<ModelLight> lights = new ArrayList<>();
+		lights.add(new ModelLight(new Vector3f(0, 0, 0), 1.0f, "blocked"));
+		lights.add(new ModelLight(new Vector3f(0, 0, -10), 1.0f, "behind"));
+		lights.add(new ModelLight(new Vector3f(0, 3, 0), 0.5f, "visible"));
+		RenderScene scene = new RenderScene(spheres, new ArrayList<>(), lights, new ArrayList<>(), null, 60);
+
+		Vector3f point = new Vector3f(0, 0, -4);
+		Vector3f normal = new Vector3f(0, 0, 1);
+		Vector3f kd = new Vector3f(0.5f, 0.4f, 0.3f);
+		Vector3f ks = new Vector3f(0.3f, 0.3f, 0.3f);
+		Vector3f ka = new Vector3f(0.1f, 0.1f, 0.1f);
+		float shininess = 5;
+		Vector3f result = WorldModel.calcDirectLight(point, normal, kd, ks, ka, shininess, 1, scene, new TraceContext(), new Vector3f());
+
+		Vector3f visibleLight = WorldModel.lightingEquation(point, normal, new Vector3f(0, 3, 0), kd, new Vector3f(ks), new Vector3f(), shininess);
+		Vector3f expected = new Vector3f(visibleLight).mul(0.5f).add(ka);
+		float epsilon = 1e-5f;
+		if (Math.abs(result.x - expected.x) < epsilon &&
+			Math.abs(result.y - expected.y) < epsilon &&
+			Math.abs(result.z - expected.z) < epsilon) {
+			System.out.println("testCalcDirectLight passed.");
+		} else {
+			System.out.println("testCalcDirectLight failed. Result: " + result + ", Expected: " + expected);
+		}
+	}
+
+	private static void testRenderPixelAllocations() {
+		WorldModel worldModel = new WorldModel(100, 100, null);
+		if (!worldModel.load("./Models/ex_08___4SpheresFromFewMaterials.model")) {
+			System.out.println("testRenderPixelAllocations failed. The model could not be loaded.");
+			return;
+		}
+		worldModel.setExercise(ExerciseEnum.EX_8___Transparency);
+		worldModel.setRenderingParams(6);
+		Vector3f pixelColor = new Vector3f();
+		// the first passes create the scratch memory of the thread and warm up the compiler
+		for (int pass = 0; pass < 5; pass++)
+			renderImage(worldModel, 100, 100, pixelColor);
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		renderImage(worldModel, 100, 100, pixelColor);
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		if (allocated < 100 * 100) { // less than a byte per pixel, the measurement itself may allocate a little
+			System.out.println("testRenderPixelAllocations passed.");
+		} else {
+			System.out.println("testRenderPixelAllocations failed. " + allocated + " bytes were allocated for 10000 pixels.");
+		}
+	}
+
+	private static void testPathWeight() {
+		TraceContext context = new TraceContext();
+		float kReflection = 0.5f;
+		boolean traced = WorldModel.pathWeight(kReflection, 1, context) == kReflection
+				&& WorldModel.pathWeight(0, 1, context) == 0;
+		// a path below the minimal weight is dropped, or kept on average by the Russian roulette
+		float lowThroughput = WorldModel.MIN_PATH_THROUGHPUT / 4;
+		boolean dropped = WorldModel.pathWeight(kReflection, lowThroughput, context) == 0;
+		context.russianRoulette = true;
+		int samples = 100000;
+		double sum = 0;
+		for (int i = 0; i < samples; i++)
+			sum += WorldModel.pathWeight(kReflection, lowThroughput, context);
+		double mean = sum / samples;
+		boolean unbiased = Math.abs(mean - kReflection) < 0.05 * kReflection;
+		if (traced && dropped && unbiased) {
+			System.out.println("testPathWeight passed.");
+		} else {
+			System.out.println("testPathWeight failed. Traced: " + traced + ", dropped: " + dropped + ", mean of the roulette: " + mean);
+		}
+	}
+
+	private static void testDeepRayTracing() {
+		WorldModel worldModel = new WorldModel(60, 60, null);
+		if (!worldModel.load("./Models/ex_08___4SpheresFromFewMaterials.model")) {
+			System.out.println("testDeepRayTracing failed. The model could not be loaded.");
+			return;
+		}
+		worldModel.setExercise(ExerciseEnum.EX_8___Transparency);
+		// the paths end by their weight long before this depth, and a total internal reflection is not NaN
+		worldModel.setRenderingParams(100);
+		Vector3f pixelColor = new Vector3f();
+		long start = System.nanoTime();
+		for (int y = 0; y < 60; y++) {
+			for (int x = 0; x < 60; x++) {
+				if (!worldModel.renderPixel(x, y, pixelColor).isFinite()) {
+					System.out.println("testDeepRayTracing failed. The color of pixel " + x + "," + y + " is " + pixelColor);
+					return;
+				}
+			}
+		}
+		long ms = (System.nanoTime() - start) / 1000000;
+		if (ms < 10000) {
+			System.out.println("testDeepRayTracing passed.");
+		} else {
+			System.out.println("testDeepRayTracing failed. 3600 pixels took " + ms + " ms.");
+		}
+	}
+
+	private static void testPrimaryHitCache() {
+		String modelFile = "./Models/ex_08___4SpheresFromFewMaterials.model";
+		WorldModel cached = new WorldModel(60, 60, null);
+		WorldModel uncached = new WorldModel(60, 60, null);
+		if (!cached.load(modelFile) || !uncached.load(modelFile)) {
+			System.out.println("testPrimaryHitCache failed. The model could not be loaded.");
+			return;
+		}
+		// the first render fills the cache, the render with another depth reads it
+		Vector3f pixelColor = new Vector3f();
+		cached.setRenderingParams(1);
+		renderImage(cached, 60, 60, pixelColor);
+		PrimaryHitCache primaryHits = cached.scene.primaryHits;
+		cached.load(modelFile);
+		boolean kept = cached.scene.primaryHits == primaryHits;
+		cached.setRenderingParams(6);
+		uncached.setRenderingParams(6);
+		uncached.scene.primaryHits = null;
+		Vector3f expectedColor = new Vector3f();
+		boolean same = true;
+		for (int y = 0; y < 60; y++)
+			for (int x = 0; x < 60; x++)
+				same &= cached.renderPixel(x, y, pixelColor).equals(uncached.renderPixel(x, y, expectedColor));
+		// another geometry gets a new cache
+		boolean replaced = cached.load("./Models/ex_07___Lattice_mirros.model") && cached.scene.primaryHits != primaryHits;
+		if (kept && same && replaced) {
+			System.out.println("testPrimaryHitCache passed.");
+		} else {
+			System.out.println("testPrimaryHitCache failed. Kept on reload: " + kept + ", same colors: " + same + ", replaced: " + replaced);
+		}
+	}
+
+	private static void testRenderStatistics() {
+		WorldModel worldModel = new WorldModel(60, 60, null);
+		if (!worldModel.load("./Models/ex_08___4SpheresFromFewMaterials.model")) {
+			System.out.println("testRenderStatistics failed. The model could not be loaded.");
+			return;
+		}
+		worldModel.setRenderingParams(6);
+		Vector3f pixelColor = new Vector3f();
+		// nothing is counted while the statistics are disabled
+		worldModel.resetStatistics();
+		renderImage(worldModel, 60, 60, pixelColor);
+		boolean disabledEmpty = worldModel.getStatistics().getTotalRays() == 0;
+
+		worldModel.setStatisticsEnabled(true);
+		worldModel.scene.primaryHits.clear();
+		renderImage(worldModel, 60, 60, pixelColor);
+		RenderStatistics statistics = worldModel.getStatistics();
+		long[] raysByDepth = statistics.getRaysByDepth();
+		long depthsSum = 0;
+		for (long rays : raysByDepth)
+			depthsSum += rays;
+		boolean counted = statistics.getPrimaryRays() == 3600 && raysByDepth[0] == 3600
+				&& depthsSum == statistics.getPrimaryRays() + statistics.getReflectionRays() + statistics.getTransmissionRays()
+				&& statistics.getShadowRays() > 0 && statistics.getSphereIntersectionTests() > 0 && statistics.getTextureSamples() > 0;
+		// the rays of another world model on the same thread are not counted
+		WorldModel other = new WorldModel(60, 60, null);
+		other.load("./Models/ex_08___4SpheresFromFewMaterials.model");
+		other.setRenderingParams(6);
+		other.setStatisticsEnabled(true);
+		renderImage(other, 60, 60, pixelColor);
+		boolean separate = worldModel.getStatistics().getTotalRays() == statistics.getTotalRays()
+				&& other.getStatistics().getPrimaryRays() == 3600;
+		worldModel.resetStatistics();
+		boolean reset = worldModel.getStatistics().getTotalRays() == 0;
+		worldModel.setStatisticsEnabled(false);
+		if (disabledEmpty && counted && separate && reset) {
+			System.out.println("testRenderStatistics passed.");
+		} else {
+			System.out.println("testRenderStatistics failed. Nothing counted while disabled: " + disabledEmpty
+					+ ", counted: " + counted + ", separate from another world model: " + separate + ", reset: " + reset
+					+ ", statistics: " + statistics);
+		}
+	}
+
+	private static void testWavefrontTracer() {
+		String modelFile = "./Models/ex_08___4SpheresFromFewMaterials.model";
+		WorldModel recursive = new WorldModel(60, 60, null);
+		WorldModel wavefront = new WorldModel(60, 60, null);
+		if (!recursive.load(modelFile) || !wavefront.load(modelFile)) {
+			System.out.println("testWavefrontTracer failed. The model could not be loaded.");
+			return;
+		}
+		recursive.setRenderingParams(100);
+		wavefront.setRenderingParams(100);
+		wavefront.setTracer(TracerEnum.WAVEFRONT);
+		// the whole image in batches of the wavefront tracer, the colors are the same to the last bit
+		int batchSize = wavefront.getPixelsBatchSize();
+		int[] xs = new int[batchSize];
+		int[] ys = new int[batchSize];
+		Vector3f[] colors = new Vector3f[batchSize];
+		for (int i = 0; i < batchSize; i++)
+			colors[i] = new Vector3f();
+		Vector3f[] image = new Vector3f[60 * 60];
+		wavefront.setStatisticsEnabled(true);
+		recursive.setStatisticsEnabled(true);
+		for (int first = 0; first < 60 * 60; first += batchSize) {
+			int count = Math.min(batchSize, 60 * 60 - first);
+			for (int i = 0; i < count; i++) {
+				xs[i] = (first + i) % 60;
+				ys[i] = (first + i) / 60;
+			}
+			wavefront.renderPixels(xs, ys, count, colors);
+			for (int i = 0; i < count; i++)
+				image[first + i] = new Vector3f(colors[i]);
+		}
+		Vector3f expectedColor = new Vector3f();
+		boolean sameBatches = true;
+		for (int i = 0; i < 60 * 60; i++)
+			sameBatches &= image[i].equals(recursive.renderPixel(i % 60, i / 60, expectedColor));
+		RenderStatistics wavefrontStatistics = wavefront.getStatistics();
+		RenderStatistics recursiveStatistics = recursive.getStatistics();
+		wavefront.setStatisticsEnabled(false);
+		recursive.setStatisticsEnabled(false);
+		boolean sameRays = recursiveStatistics.getTotalRays() == wavefrontStatistics.getTotalRays()
+				&& recursiveStatistics.getReflectionRays() == wavefrontStatistics.getReflectionRays()
+				&& recursiveStatistics.getTransmissionRays() == wavefrontStatistics.getTransmissionRays()
+				&& recursiveStatistics.getShadowRays() == wavefrontStatistics.getShadowRays();
+		// the single pixels and the samples of the anti-aliasing
+		Vector3f pixelColor = new Vector3f();
+		boolean samePixels = true;
+		for (int y = 0; y < 60; y += 7) {
+			for (int x = 0; x < 60; x += 5) {
+				samePixels &= wavefront.renderPixel(x, y, pixelColor).equals(recursive.renderPixel(x, y, expectedColor));
+				samePixels &= wavefront.renderSubPixel(x + 0.3f, y - 0.2f, pixelColor).equals(recursive.renderSubPixel(x + 0.3f, y - 0.2f, expectedColor));
+			}
+		}
+		if (sameBatches && sameRays && samePixels) {
+			System.out.println("testWavefrontTracer passed.");
+		} else {
+			System.out.println("testWavefrontTracer failed. Same colors of the batches: " + sameBatches + ", same rays: " + sameRays
+					+ ", same colors of the pixels: " + samePixels);
+		}
+	}
+
+	private static void renderImage(WorldModel worldModel, int imageWidth, int imageHeight, Vector3f pixelColor) {
+		for (int y = 0; y < imageHeight; y++)
+			for (int x = 0; x < imageWidth; x++)
+				worldModel.renderPixel(x, y, pixelColor);
+	}
+
 	public static void main(String[] args) throws IOException {
 		System.out.println("\nRay direction tests");
 		System.out.println("=========================");
 		testCalcPixelDirection();
+		testCalcPixelDirectionSubPixel();
 		
 		System.out.println("\nRay intersection tests");
 		System.out.println("=========================");
 		testRayIntersection();
+		testSphereBVH();
+		testSphereBVHOcclusion();
+		testRayPacket();
+		testScenePlanes();
+		testSphereGrid();
+		testRayInterval();
+
+		System.out.println("\nRender tests");
+		System.out.println("=========================");
+		testRenderPixelAllocations();
+		testPrimaryHitCache();
+		testPathWeight();
+		testDeepRayTracing();
+		testWavefrontTracer();
+
+		System.out.println("\nRender statistics tests");
+		System.out.println("=========================");
+		testRenderStatistics();
 
 		System.out.println("\nLight calculations tests");
 		System.out.println("=========================");
 	    testlightingEquation_Diffuse();
 	    testlightingEquation_Ambient();
 	    testlightingEquation_Specular();
+	    testCalcDirectLight();
 	    
 		System.out.println("\nTexture tests");
 		System.out.println("=========================");
+	    testSampleDirectionFromMiddleFast();
+	    testSphereTextureCache();
 	    testcalcKdCombinedWithTexture();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,374 @@
+package your_code;
+
+import java.util.Arrays;
+
+import org.joml.Vector3f;
+
+/**
+ * The ray tracer without recursion, traces the rays of many pixels together
+ * level by level of depth instead of the tree of the rays of every pixel on
+ * the stack, so the depth of the rays is not limited by the stack of the
+ * thread and the rays of a level are traced one after the other.
+ *
+ * A batch of primary rays is traced in stages: the nearest hits of all the
+ * rays of a level are found, then all the hits are shaded and spawn the
+ * reflected and the transmitted rays of the next level into the queue. The
+ * rays of a level are sorted by their kind and the octant of their direction
+ * before they are traced, so rays that go the same way visit the same nodes
+ * of the acceleration structure one after the other. Every ray carries its
+ * throughput, the weight of its color in the pixel, which decides whether the
+ * rays it spawns are traced, see {@link WorldModel#pathWeight}.
+ *
+ * The colors of the rays are kept until the last level is shaded, then the
+ * color of every ray is added to the color of the ray that spawned it, the
+ * deepest level first. This is the order in which the recursive ray tracer
+ * adds them, so the colors are the same to the last bit.
+ *
+ * The queue is stored as struct of arrays that grow to the largest batch,
+ * every render thread owns one tracer in its {@link TraceContext}.
+ */
+final class WavefrontTracer {
+	/** The number of pixels the render engines should pass at once, see {@link WorldModel#getPixelsBatchSize()} */
+	static final int PIXELS_BATCH_SIZE = 256;
+
+	// the kinds of the rays, in the order the recursive ray tracer adds their colors
+	private static final int PRIMARY = 0;
+	private static final int REFLECTED = 1;
+	private static final int TRANSMITTED = 2;
+	/** The keys of the sort of a level, the kind of the ray and the octant of its direction */
+	private static final int SORT_KEYS = 3 * 8;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** The number of rays of all the levels, the rays of a level follow the rays of the previous level */
+	private int raysCount;
+	/** The number of primary rays, the first rays of the queue */
+	private int primaryRaysCount;
+	/** The first ray of every level, and raysCount after the last level */
+	private int[] levelStarts = new int[16];
+
+	// the rays
+	private float[] originX = new float[INITIAL_CAPACITY];
+	private float[] originY = new float[INITIAL_CAPACITY];
+	private float[] originZ = new float[INITIAL_CAPACITY];
+	private float[] directionX = new float[INITIAL_CAPACITY];
+	private float[] directionY = new float[INITIAL_CAPACITY];
+	private float[] directionZ = new float[INITIAL_CAPACITY];
+	/** The kind of every ray, PRIMARY, REFLECTED or TRANSMITTED */
+	private int[] kind = new int[INITIAL_CAPACITY];
+	/** The weight of the color of every ray in the color of its pixel */
+	private float[] throughput = new float[INITIAL_CAPACITY];
+	/** The weight of the color of every ray in the color of its parent, kReflection or kTransmission */
+	private float[] coefficient = new float[INITIAL_CAPACITY];
+	/** The ray whose hit spawned every ray, -1 for the primary rays */
+	private int[] parent = new int[INITIAL_CAPACITY];
+	/** The pixel of every primary ray, for the cache of the primary hits */
+	private int[] pixelX = new int[INITIAL_CAPACITY];
+	private int[] pixelY = new int[INITIAL_CAPACITY];
+	/** The color of every ray, without the colors of its children until they are added */
+	private float[] colorR = new float[INITIAL_CAPACITY];
+	private float[] colorG = new float[INITIAL_CAPACITY];
+	private float[] colorB = new float[INITIAL_CAPACITY];
+
+	/** The hit records of the rays of the level that is traced, null for a ray that hits nothing */
+	private IntersectionResults[] hits = new IntersectionResults[0];
+	private IntersectionResults[] hitRecords = new IntersectionResults[0];
+
+	// scratch of the sort of a level
+	private final int[] keyStarts = new int[SORT_KEYS + 1];
+	private int[] order = new int[INITIAL_CAPACITY];
+	private float[] floatScratch = new float[INITIAL_CAPACITY];
+	private int[] intScratch = new int[INITIAL_CAPACITY];
+
+	private final Ray ray = new Ray();
+	private final Vector3f color = new Vector3f();
+
+	/** Removes all the rays of the previous batch */
+	void clear() {
+		raysCount = 0;
+		primaryRaysCount = 0;
+	}
+
+	/**
+	 * Adds a primary ray from the eye, must not be called after the batch was traced
+	 * until it is cleared.
+	 *
+	 * @param x         the x coordinate of the pixel, for the cache of the primary hits
+	 * @param y         the y coordinate of the pixel, for the cache of the primary hits
+	 * @param direction the normalized direction of the ray
+	 * @return the index of the ray, see {@link #color(int, Vector3f)}
+	 */
+	int addPrimaryRay(int x, int y, Vector3f direction) {
+		int index = addRay(PRIMARY, -1, 1, 1, direction);
+		originX[index] = 0;
+		originY[index] = 0;
+		originZ[index] = 0;
+		pixelX[index] = x;
+		pixelY[index] = y;
+		primaryRaysCount++;
+		return index;
+	}
+
+	/**
+	 * Traces the primary rays of the batch and all the rays they spawn.
+	 *
+	 * @param scene             the scene that is rendered
+	 * @param primaryHits       the cache of the primary hits of the pixels, null to trace every primary ray
+	 * @param depthOfRayTracing the maximal depth level, at least 1
+	 * @param context           the scratch memory of the calling thread
+	 */
+	void trace(RenderScene scene, PrimaryHitCache primaryHits, int depthOfRayTracing, TraceContext context) {
+		int levelsCount = 0;
+		int levelStart = 0;
+		for (int depthLevel = 0; levelStart < raysCount; depthLevel++) {
+			int levelEnd = raysCount;
+			if (levelsCount + 1 >= levelStarts.length)
+				levelStarts = Arrays.copyOf(levelStarts, 2 * levelStarts.length);
+			levelStarts[levelsCount++] = levelStart;
+			if (depthLevel == 0)
+				intersectPrimaryRays(scene, primaryHits, context);
+			else {
+				sortLevel(levelStart, levelEnd);
+				intersectRays(scene, levelStart, levelEnd, context);
+			}
+			shadeLevel(scene, depthLevel, depthOfRayTracing, levelStart, levelEnd, context);
+			levelStart = levelEnd;
+		}
+		levelStarts[levelsCount] = raysCount;
+		// the reflected rays of a level are sorted before its transmitted rays, so every hit adds the
+		// reflected color before the transmitted color like the recursive ray tracer
+		for (int level = levelsCount - 1; level > 0; level--) {
+			for (int i = levelStarts[level]; i < levelStarts[level + 1]; i++) {
+				int p = parent[i];
+				float k = coefficient[i];
+				colorR[p] = colorR[p] + colorR[i] * k;
+				colorG[p] = colorG[p] + colorG[i] * k;
+				colorB[p] = colorB[p] + colorB[i] * k;
+			}
+		}
+	}
+
+	/**
+	 * @param primaryRay the index of a primary ray, see {@link #addPrimaryRay(int, int, Vector3f)}
+	 * @param dest       the vector that receives the color
+	 * @return dest, the color of the ray after the batch was traced
+	 */
+	Vector3f color(int primaryRay, Vector3f dest) {
+		return dest.set(colorR[primaryRay], colorG[primaryRay], colorB[primaryRay]);
+	}
+
+	// Finds the hits of the primary rays, taken from the cache or traced together in packets like WorldModel.renderPixels
+	private void intersectPrimaryRays(RenderScene scene, PrimaryHitCache primaryHits, TraceContext context) {
+		prepareHits(primaryRaysCount);
+		RayPacket packet = context.primaryPacket;
+		int[] lanes = context.packetPixels;
+		packet.originX = 0;
+		packet.originY = 0;
+		packet.originZ = 0;
+		packet.raysCount = 0;
+		for (int i = 0; i < primaryRaysCount; i++) {
+			IntersectionResults hit = hitRecords[i];
+			int sphere = primaryHits == null ? PrimaryHitCache.UNKNOWN : primaryHits.get(pixelX[i], pixelY[i], hit);
+			if (sphere == PrimaryHitCache.UNKNOWN) {
+				int lane = packet.raysCount++;
+				lanes[lane] = i;
+				packet.directionX[lane] = directionX[i];
+				packet.directionY[lane] = directionY[i];
+				packet.directionZ[lane] = directionZ[i];
+				if (packet.raysCount == RayPacket.SIZE) {
+					intersectPacket(scene, primaryHits, context);
+					packet.raysCount = 0;
+				}
+			} else
+				hits[i] = sphere == PrimaryHitCache.MISS ? null : hit;
+		}
+		if (packet.raysCount > 0)
+			intersectPacket(scene, primaryHits, context);
+	}
+
+	// Traces the primary rays of the packet of the context and adds their hits to the cache
+	private void intersectPacket(RenderScene scene, PrimaryHitCache primaryHits, TraceContext context) {
+		RayPacket packet = context.primaryPacket;
+		int[] lanes = context.packetPixels;
+		scene.closestIntersections(packet, context);
+		for (int lane = 0; lane < packet.raysCount; lane++) {
+			int i = lanes[lane];
+			int sphere = packet.closestSphere[lane];
+			if (sphere < 0) {
+				if (primaryHits != null)
+					primaryHits.putMiss(pixelX[i], pixelY[i]);
+				hits[i] = null;
+			} else {
+				// the full hit record of the nearest sphere or plane, the packet query keeps only the index and the distance
+				IntersectionResults hit = hitRecords[i];
+				scene.objectIntersection(loadRay(i), sphere, hit);
+				if (primaryHits != null)
+					primaryHits.putHit(pixelX[i], pixelY[i], hit);
+				hits[i] = hit;
+			}
+		}
+	}
+
+	// Finds the nearest hits of the rays of a level
+	private void intersectRays(RenderScene scene, int levelStart, int levelEnd, TraceContext context) {
+		prepareHits(levelEnd - levelStart);
+		for (int i = levelStart; i < levelEnd; i++) {
+			IntersectionResults hit = hitRecords[i - levelStart];
+			hits[i - levelStart] = scene.closestIntersection(loadRay(i), context, hit) ? hit : null;
+		}
+	}
+
+	// Shades the hits of the rays of a level and spawns the rays of the next level
+	private void shadeLevel(RenderScene scene, int depthLevel, int depthOfRayTracing, int levelStart, int levelEnd, TraceContext context) {
+		TraceContext.Frame frame = context.frame(0);
+		float[] materials = scene.materials;
+		boolean lastLevel = depthLevel + 1 == depthOfRayTracing;
+		Vector3f incidentRayDirection = ray.direction;
+		for (int i = levelStart; i < levelEnd; i++) {
+			IntersectionResults hit = hits[i - levelStart];
+			incidentRayDirection.set(directionX[i], directionY[i], directionZ[i]);
+			if (hit == null) {
+				setColor(i, WorldModel.sampleSkyBox(scene, incidentRayDirection, context, color));
+				continue;
+			}
+			setColor(i, WorldModel.shadeSurface(hit, scene, frame, context, color));
+			// the reflected and the transmitted rays of the last level return black, and a ray whose weight
+			// in the pixel is too small to change it is not traced at all
+			if (lastLevel)
+				continue;
+			int material = scene.materialOffset(hit.sphereIndex);
+			float rayThroughput = throughput[i];
+			float kReflection = WorldModel.pathWeight(materials[material + RenderScene.MATERIAL_K_REFLECTION], rayThroughput, context);
+			if (kReflection != 0) {
+				Ray reflectedRay = WorldModel.reflectedRay(incidentRayDirection, hit.intersectionPoint, hit.normal, frame.secondaryRay);
+				addSecondaryRay(REFLECTED, i, kReflection, rayThroughput * kReflection, reflectedRay, depthLevel + 1, context);
+			}
+			float kTransmission = WorldModel.pathWeight(materials[material + RenderScene.MATERIAL_K_TRANSMISSION], rayThroughput, context);
+			if (kTransmission != 0) {
+				Ray transmittedRay = frame.secondaryRay;
+				// a total internal reflection has no transmitted ray, it adds black
+				if (WorldModel.transmittedRay(incidentRayDirection, hit.intersectionPoint, hit.normal, hit.rayFromOutsideOfSphere,
+						materials[material + RenderScene.MATERIAL_REFRACTIVE_INDEX], context, transmittedRay))
+					addSecondaryRay(TRANSMITTED, i, kTransmission, rayThroughput * kTransmission, transmittedRay, depthLevel + 1, context);
+			}
+		}
+	}
+
+	// Adds a reflected or a transmitted ray to the next level
+	private void addSecondaryRay(int rayKind, int parentRay, float rayCoefficient, float rayThroughput, Ray secondaryRay,
+			int depthLevel, TraceContext context) {
+		int index = addRay(rayKind, parentRay, rayCoefficient, rayThroughput, secondaryRay.direction);
+		originX[index] = secondaryRay.origin.x;
+		originY[index] = secondaryRay.origin.y;
+		originZ[index] = secondaryRay.origin.z;
+		RenderCounters counters = context.counters;
+		if (counters != null) {
+			if (rayKind == REFLECTED)
+				counters.reflectionRays++;
+			else
+				counters.transmissionRays++;
+			counters.countDepth(depthLevel);
+		}
+	}
+
+	private int addRay(int rayKind, int parentRay, float rayCoefficient, float rayThroughput, Vector3f direction) {
+		if (raysCount == kind.length)
+			grow();
+		int index = raysCount++;
+		kind[index] = rayKind;
+		parent[index] = parentRay;
+		coefficient[index] = rayCoefficient;
+		throughput[index] = rayThroughput;
+		directionX[index] = direction.x;
+		directionY[index] = direction.y;
+		directionZ[index] = direction.z;
+		return index;
+	}
+
+	private Ray loadRay(int i) {
+		ray.origin.set(originX[i], originY[i], originZ[i]);
+		ray.direction.set(directionX[i], directionY[i], directionZ[i]);
+		return ray.reset();
+	}
+
+	private void setColor(int i, Vector3f rayColor) {
+		colorR[i] = rayColor.x;
+		colorG[i] = rayColor.y;
+		colorB[i] = rayColor.z;
+	}
+
+	// Makes room for the hit records of the rays of a level
+	private void prepareHits(int count) {
+		if (hitRecords.length < count) {
+			IntersectionResults[] grown = Arrays.copyOf(hitRecords, Math.max(count, 2 * hitRecords.length));
+			for (int i = hitRecords.length; i < grown.length; i++)
+				grown[i] = new IntersectionResults();
+			hitRecords = grown;
+			hits = new IntersectionResults[grown.length];
+		}
+	}
+
+	// Sorts the rays of a level by their kind and the octant of their direction, keeps the order of the rays of the same key
+	private void sortLevel(int levelStart, int levelEnd) {
+		int count = levelEnd - levelStart;
+		Arrays.fill(keyStarts, 0);
+		for (int i = levelStart; i < levelEnd; i++)
+			keyStarts[sortKey(i) + 1]++;
+		for (int key = 0; key < SORT_KEYS; key++)
+			keyStarts[key + 1] += keyStarts[key];
+		if (order.length < count)
+			order = new int[Math.max(count, 2 * order.length)];
+		for (int i = levelStart; i < levelEnd; i++)
+			order[keyStarts[sortKey(i)]++] = i;
+		permute(originX, levelStart, count);
+		permute(originY, levelStart, count);
+		permute(originZ, levelStart, count);
+		permute(directionX, levelStart, count);
+		permute(directionY, levelStart, count);
+		permute(directionZ, levelStart, count);
+		permute(throughput, levelStart, count);
+		permute(coefficient, levelStart, count);
+		permute(kind, levelStart, count);
+		permute(parent, levelStart, count);
+	}
+
+	private int sortKey(int i) {
+		int octant = (directionX[i] < 0 ? 1 : 0) | (directionY[i] < 0 ? 2 : 0) | (directionZ[i] < 0 ? 4 : 0);
+		return kind[i] * 8 + octant;
+	}
+
+	private void permute(float[] values, int levelStart, int count) {
+		if (floatScratch.length < count)
+			floatScratch = new float[Math.max(count, 2 * floatScratch.length)];
+		for (int i = 0; i < count; i++)
+			floatScratch[i] = values[order[i]];
+		System.arraycopy(floatScratch, 0, values, levelStart, count);
+	}
+
+	private void permute(int[] values, int levelStart, int count) {
+		if (intScratch.length < count)
+			intScratch = new int[Math.max(count, 2 * intScratch.length)];
+		for (int i = 0; i < count; i++)
+			intScratch[i] = values[order[i]];
+		System.arraycopy(intScratch, 0, values, levelStart, count);
+	}
+
+	private void grow() {
+		int capacity = 2 * kind.length;
+		originX = Arrays.copyOf(originX, capacity);
+		originY = Arrays.copyOf(originY, capacity);
+		originZ = Arrays.copyOf(originZ, capacity);
+		directionX = Arrays.copyOf(directionX, capacity);
+		directionY = Arrays.copyOf(directionY, capacity);
+		directionZ = Arrays.copyOf(directionZ, capacity);
+		kind = Arrays.copyOf(kind, capacity);
+		throughput = Arrays.copyOf(throughput, capacity);
+		coefficient = Arrays.copyOf(coefficient, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		pixelX = Arrays.copyOf(pixelX, capacity);
+		pixelY = Arrays.copyOf(pixelY, capacity);
+		colorR = Arrays.copyOf(colorR, capacity);
+		colorG = Arrays.copyOf(colorG, capacity);
+		colorB = Arrays.copyOf(colorB, capacity);
+	}
+}
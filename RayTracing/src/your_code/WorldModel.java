@@ -3,7 +3,11 @@
 package your_code;
 
 import java.util.List;
+import java.util.Queue;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.joml.Matrix3f;
@@ -11,8 +15,6 @@ import org.joml.Vector3f;
 
 import app_interface.ExerciseEnum;
 import app_interface.Model;
-import app_interface.ModelLight;
-import app_interface.ModelMaterial;
 import app_interface.ModelSphere;
 import app_interface.SphereTexture;
 
@@ -22,25 +24,60 @@ import java.util.Random;
 public class WorldModel {
 
 	/** The Model object with all the details of the world model that will be rendered */
-	Model model;
+	volatile Model model;
+
+	/** The scene compiled from the model, this is what the ray tracer reads */
+	volatile RenderScene scene;
 
 	/** Your selection enum type (specific to your implementation) */	
 	private YourSelectionEnum yourSelection;
 
-	/** The current exercise being executed (from ExerciseEnum) */	
-	private static ExerciseEnum exercise = ExerciseEnum.EX_8___Transparency;
+	/** The current exercise being executed (from ExerciseEnum).
+	 * Written by the UI thread and read by the render workers, so it is volatile and
+	 * read only once per pixel. */	
+	private volatile ExerciseEnum exercise = ExerciseEnum.EX_8___Transparency;
 
 	/** image width and height in pixles*/
 	private int imageWidth; 
 	private int imageHeight;
 
-	/** SphereTexture object of the skybox of the world model */
-	SphereTexture skyBoxImageSphereTexture;
-
-	/** The depth of ray tracing used during rendering */
-	private static int depthOfRayTracing;
+	/** The depth of ray tracing used during rendering.
+	 * Written by the UI thread and read by the render workers, so it is volatile and
+	 * passed down the recursion as a parameter instead of being re-read at every level. */
+	private volatile int depthOfRayTracing;
 
 	private ErrorLogger errorLogger;
+
+	/** The scratch memory of the ray tracer, one per render thread so the hot path does not allocate */
+	private static final ThreadLocal<TraceContext> traceContexts = ThreadLocal.withInitial(TraceContext::new);
+
+	/** The lights skipped by the direct light change a color channel by less than this, a quarter of a step of 8 bits */
+	static final float MIN_LIGHTS_CONTRIBUTION = 1.0f / (4 * 255);
+	/** The reflected and transmitted rays with a smaller weight in the color of the pixel are not traced, see pathWeight */
+	static final float MIN_PATH_THROUGHPUT = 1.0f / (4 * 255);
+
+	/** Whether rays below MIN_PATH_THROUGHPUT are traced with the Russian roulette instead of being dropped,
+	 * written by the UI thread and read once per pixel */
+	private volatile boolean russianRoulette;
+
+	/** Whether the render threads count their work, read once per pixel, see getStatistics */
+	private volatile boolean statisticsEnabled;
+	/** The counters of the threads that counted the work of this world model, the counts of the threads that ended stay in the sums */
+	private final Queue<RenderCounters> allCounters = new ConcurrentLinkedQueue<>();
+	/** The counters of the calling thread for this world model, created when the thread counts for the first time */
+	private final ThreadLocal<RenderCounters> threadCounters = ThreadLocal.withInitial(() -> {
+		RenderCounters counters = new RenderCounters();
+		allCounters.add(counters);
+		return counters;
+	});
+	/** The sums of the counters at the last reset, the statistics are counted from them */
+	private volatile RenderStatistics statisticsBaseline = RenderCounters.sum(allCounters);
+
+	/** The acceleration structure over the spheres of the scenes that are loaded */
+	private volatile AcceleratorEnum accelerator = AcceleratorEnum.BVH;
+
+	/** The ray tracer of the pixels, written by the UI thread and read once per call of the render methods */
+	private volatile TracerEnum tracer = TracerEnum.RECURSIVE;
 	//to log error you need to add the error type to the enum in the ErrorLogger class
 	//and call the method report like this: errorLogger.report(ErrorLogger.ErrorType.EXAMPLE_ERROR_1);
 
@@ -51,11 +88,92 @@ public class WorldModel {
 	}
 	
 	public void setRenderingParams(int depthOfRayTracing) {
-		WorldModel.depthOfRayTracing = depthOfRayTracing;
+		this.depthOfRayTracing = depthOfRayTracing;
 	}
 
 	public void setExercise(ExerciseEnum exercise) {
-		WorldModel.exercise = exercise;
+		this.exercise = exercise;
+	}
+
+	/** Sets whether the reflected and transmitted rays with a negligible weight in the pixel are dropped,
+	 * which may change a color channel by a quarter of a step, or traced with the Russian roulette, which
+	 * keeps the expected color but adds noise.
+	 * @param russianRoulette true to trace them with the Russian roulette */
+	public void setRussianRoulette(boolean russianRoulette) {
+		this.russianRoulette = russianRoulette;
+	}
+
+	public boolean isRussianRoulette() {
+		return russianRoulette;
+	}
+
+	/** Sets whether the render threads count the rays, the sphere intersection tests and the texture samples.
+	 * While the statistics are disabled the ray tracer only checks that the counters are null.
+	 * @param statisticsEnabled true to count */
+	public void setStatisticsEnabled(boolean statisticsEnabled) {
+		this.statisticsEnabled = statisticsEnabled;
+	}
+
+	public boolean isStatisticsEnabled() {
+		return statisticsEnabled;
+	}
+
+	/** Sets the acceleration structure that finds the spheres a ray hits, the structure of the scene
+	 * that is loaded is rebuilt over the same objects, the image does not change.
+	 * Should not be called while a render is running.
+	 * @param accelerator the acceleration structure of the scenes */
+	public void setAccelerator(AcceleratorEnum accelerator) {
+		this.accelerator = accelerator;
+		RenderScene currentScene = scene;
+		if (currentScene != null && currentScene.accelerator != accelerator)
+			scene = new RenderScene(currentScene, accelerator);
+	}
+
+	public AcceleratorEnum getAccelerator() {
+		return accelerator;
+	}
+
+	/** Sets the ray tracer that calculates the colors of the pixels, both calculate the same colors.
+	 * The wavefront ray tracer does not recurse, so the depth of the rays is not limited by the stack
+	 * of the render threads, and it is faster when many pixels are rendered at once, see getPixelsBatchSize.
+	 * @param tracer the ray tracer of the pixels */
+	public void setTracer(TracerEnum tracer) {
+		this.tracer = tracer;
+	}
+
+	public TracerEnum getTracer() {
+		return tracer;
+	}
+
+	/** @return the number of pixels the render engines should pass to {@link #renderPixels} at once,
+	 * the size of a packet of primary rays for the recursive ray tracer and a larger batch for the
+	 * wavefront ray tracer */
+	public int getPixelsBatchSize() {
+		return tracer == TracerEnum.WAVEFRONT ? WavefrontTracer.PIXELS_BATCH_SIZE : RayPacket.SIZE;
+	}
+
+	/** @return the counts of all the threads that rendered this world model since the last reset, the pixels
+	 * that are still being rendered may be missing */
+	public RenderStatistics getStatistics() {
+		return RenderCounters.sum(allCounters).minus(statisticsBaseline);
+	}
+
+	/** Starts the statistics again from zero */
+	public void resetStatistics() {
+		statisticsBaseline = RenderCounters.sum(allCounters);
+	}
+
+	/** @return the model that was loaded last, null if no model was loaded */
+	public Model getModel() {
+		return model;
+	}
+
+	/** Reports an error to the error logger of the interface, nothing is reported without a logger,
+	 * e.g. in the headless renderer. May be called by the render workers.
+	 * @param errorType the type of the error */
+	public void reportError(ErrorLogger.ErrorType errorType) {
+		if (errorLogger != null)
+			errorLogger.report(errorType);
 	}
 
 	public void setYourSelection(YourSelectionEnum sel) {
@@ -68,8 +186,21 @@ public class WorldModel {
 	* @throws Exception if there is an error loading the model file	*/	
 	public boolean load(String fileName) {
 		try {
-			model = new Model(fileName);
-			skyBoxImageSphereTexture = new SphereTexture(model.skyBoxImageFileName);
+			// the textures are decoded in parallel while the scene and its acceleration structure are compiled
+			Model loadedModel = Model.parse(fileName);
+			CompletableFuture<List<SphereTexture>> loadedTextures = loadedModel.loadTexturesAsync();
+			CompletableFuture<SphereTexture> loadedSkyBox = SphereTexture.loadAsync(loadedModel.skyBoxImageFileName);
+			RenderScene loadedScene = new RenderScene(loadedModel, loadedTextures, loadedSkyBox, accelerator);
+			// the primary hits of the previous scene are still valid if only the materials, the lights or the textures changed
+			RenderScene previousScene = scene;
+			if (previousScene != null && previousScene.primaryHits != null && previousScene.sameGeometry(loadedScene))
+				loadedScene.primaryHits = previousScene.primaryHits;
+			else
+				loadedScene.primaryHits = new PrimaryHitCache(imageWidth, imageHeight);
+			// the compiled scene holds everything the render workers read, so publishing
+			// it replaces the model, the skybox and the acceleration structure at once
+			scene = loadedScene;
+			model = loadedModel;
 			return true;
 		} catch (Exception e) {
 			//System.err.println("Failed to load the model file: " + fileName + ".\nDescription: " + e.getMessage());
@@ -82,6 +213,228 @@ public class WorldModel {
 	* @param y the y coordinate of the pixel
 	* @return the Vector3f representing the color of the pixel */	
 	public Vector3f renderPixel(int x, int y) {
+		return renderPixel(x, y, new Vector3f());
+	}
+
+	/** Renders the color of a specific pixel in the image into a vector of the caller.
+	* The ray tracing exercises do not allocate, so the render workers call this with
+	* a vector of their own for every pixel.
+	* @param x the x coordinate of the pixel
+	* @param y the y coordinate of the pixel
+	* @param dest the vector that receives the color of the pixel
+	* @return dest */	
+	public Vector3f renderPixel(int x, int y, Vector3f dest) {
+		ExerciseEnum exercise = this.exercise;
+		if (exercise.ordinal() <= ExerciseEnum.EX_1_3_Colors_linear.ordinal())
+			return dest.set(renderColorsExercise(x, y, exercise));
+		int depthOfRayTracing = this.depthOfRayTracing;
+		if (depthOfRayTracing == 0)
+			return dest.set(0.0F);
+		RenderScene scene = this.scene;
+		TraceContext context = pixelContext();
+		countPrimaryRay(context);
+		Ray ray = context.primaryRay.reset();
+		ray.origin.set(0, 0, 0);
+		calcPixelDirection(x, y, imageWidth, imageHeight, scene.fovXdegree, ray.direction);
+		if (tracer == TracerEnum.WAVEFRONT)
+			return traceWavefront(x, y, ray.direction, scene, scene.primaryHits, depthOfRayTracing, context, dest);
+		IntersectionResults hit = context.frame(0).hit;
+		if (!primaryIntersection(x, y, ray, scene, context, hit))
+			return sampleSkyBox(scene, ray.direction, context, dest);
+		return shadeHit(ray, scene, 0, depthOfRayTracing, 1, context, dest);
+	}
+
+	// The context of the calling thread with the settings of the pixel that is rendered
+	private TraceContext pixelContext() {
+		TraceContext context = traceContexts.get();
+		context.russianRoulette = russianRoulette;
+		context.counters = statisticsEnabled ? threadCounters.get() : null;
+		return context;
+	}
+
+	static void countPrimaryRay(TraceContext context) {
+		RenderCounters counters = context.counters;
+		if (counters != null) {
+			counters.primaryRays++;
+			counters.countDepth(0);
+		}
+	}
+
+	// The color of the skybox in the direction of a ray that hits no sphere
+	static Vector3f sampleSkyBox(RenderScene scene, Vector3f direction, TraceContext context, Vector3f dest) {
+		if (context.counters != null)
+			context.counters.textureSamples++;
+		return scene.skyBoxImageSphereTexture.sampleDirectionFromMiddleFast(direction, dest);
+	}
+
+	/** Finds the nearest hit of the primary ray of a pixel, taken from the cache of the primary hits of the
+	* scene or traced and added to it.
+	* @param x the x coordinate of the pixel
+	* @param y the y coordinate of the pixel
+	* @param ray the primary ray
+	* @param scene the scene that is rendered
+	* @param context the scratch memory of the calling thread
+	* @param hit the record that receives the hit
+	* @return true if the ray hits a sphere */
+	private static boolean primaryIntersection(int x, int y, Ray ray, RenderScene scene,
+			TraceContext context, IntersectionResults hit) {
+		PrimaryHitCache primaryHits = scene.primaryHits;
+		if (primaryHits == null)
+			return scene.closestIntersection(ray, context, hit);
+		int sphere = primaryHits.get(x, y, hit);
+		if (sphere != PrimaryHitCache.UNKNOWN)
+			return sphere != PrimaryHitCache.MISS;
+		if (!scene.closestIntersection(ray, context, hit)) {
+			primaryHits.putMiss(x, y);
+			return false;
+		}
+		primaryHits.putHit(x, y, hit);
+		return true;
+	}
+
+	/** Renders the colors of several pixels at once, the same colors as {@link #renderPixel(int, int, Vector3f)}.
+	* The primary rays of the pixels are traced together in packets of {@link RayPacket#SIZE} rays,
+	* so the pixels should be neighbors, e.g. of the same row. The reflected, transmitted and shadow
+	* rays are traced one by one. The primary rays whose hits are cached are not traced again.
+	* With the wavefront ray tracer all the pixels are traced in one batch, see {@link #setTracer(TracerEnum)}.
+	* @param xs the x coordinates of the pixels
+	* @param ys the y coordinates of the pixels
+	* @param count the number of pixels
+	* @param dest the vectors that receive the colors of the pixels */	
+	public void renderPixels(int[] xs, int[] ys, int count, Vector3f[] dest) {
+		ExerciseEnum exercise = this.exercise;
+		int depthOfRayTracing = this.depthOfRayTracing;
+		if (exercise.ordinal() <= ExerciseEnum.EX_1_3_Colors_linear.ordinal() || depthOfRayTracing == 0) {
+			for (int i = 0; i < count; i++)
+				renderPixel(xs[i], ys[i], dest[i]);
+			return;
+		}
+		RenderScene scene = this.scene;
+		PrimaryHitCache primaryHits = scene.primaryHits;
+		TraceContext context = pixelContext();
+		if (tracer == TracerEnum.WAVEFRONT) {
+			renderPixelsWavefront(xs, ys, count, dest, scene, depthOfRayTracing, context);
+			return;
+		}
+		RayPacket packet = context.primaryPacket;
+		Ray ray = context.primaryRay.reset();
+		ray.origin.set(0, 0, 0);
+		Vector3f direction = ray.direction;
+		IntersectionResults hit = context.frame(0).hit;
+		// the pixels whose hits are cached are shaded at once, the others are traced in packets
+		packet.raysCount = 0;
+		for (int i = 0; i < count; i++) {
+			countPrimaryRay(context);
+			int sphere = primaryHits == null ? PrimaryHitCache.UNKNOWN : primaryHits.get(xs[i], ys[i], hit);
+			if (sphere == PrimaryHitCache.UNKNOWN) {
+				context.packetPixels[packet.raysCount++] = i;
+				if (packet.raysCount == RayPacket.SIZE) {
+					renderPacket(xs, ys, dest, scene, depthOfRayTracing, context);
+					packet.raysCount = 0;
+				}
+				continue;
+			}
+			calcPixelDirection(xs[i], ys[i], imageWidth, imageHeight, scene.fovXdegree, direction);
+			if (sphere == PrimaryHitCache.MISS)
+				sampleSkyBox(scene, direction, context, dest[i]);
+			else
+				shadeHit(ray, scene, 0, depthOfRayTracing, 1, context, dest[i]);
+		}
+		if (packet.raysCount > 0)
+			renderPacket(xs, ys, dest, scene, depthOfRayTracing, context);
+	}
+
+	// Renders the pixels with the wavefront ray tracer, all of them in one batch
+	private void renderPixelsWavefront(int[] xs, int[] ys, int count, Vector3f[] dest, RenderScene scene, int depthOfRayTracing, TraceContext context) {
+		WavefrontTracer wavefrontTracer = context.wavefrontTracer();
+		Vector3f direction = context.primaryRay.direction;
+		wavefrontTracer.clear();
+		for (int i = 0; i < count; i++) {
+			countPrimaryRay(context);
+			calcPixelDirection(xs[i], ys[i], imageWidth, imageHeight, scene.fovXdegree, direction);
+			wavefrontTracer.addPrimaryRay(xs[i], ys[i], direction);
+		}
+		wavefrontTracer.trace(scene, scene.primaryHits, depthOfRayTracing, context);
+		for (int i = 0; i < count; i++)
+			wavefrontTracer.color(i, dest[i]);
+	}
+
+	// Traces a single primary ray with the wavefront ray tracer, the pixel is used only for the cache of the primary hits
+	private static Vector3f traceWavefront(int x, int y, Vector3f direction, RenderScene scene, PrimaryHitCache primaryHits,
+			int depthOfRayTracing, TraceContext context, Vector3f dest) {
+		WavefrontTracer wavefrontTracer = context.wavefrontTracer();
+		wavefrontTracer.clear();
+		int ray = wavefrontTracer.addPrimaryRay(x, y, direction);
+		wavefrontTracer.trace(scene, primaryHits, depthOfRayTracing, context);
+		return wavefrontTracer.color(ray, dest);
+	}
+
+	// Traces the primary rays of the pixels of the packet of the context together, adds their hits to the cache and shades them
+	private void renderPacket(int[] xs, int[] ys, Vector3f[] dest, RenderScene scene, int depthOfRayTracing, TraceContext context) {
+		RayPacket packet = context.primaryPacket;
+		int[] pixels = context.packetPixels;
+		Ray ray = context.primaryRay;
+		Vector3f origin = ray.origin;
+		Vector3f direction = ray.direction;
+		IntersectionResults hit = context.frame(0).hit;
+		PrimaryHitCache primaryHits = scene.primaryHits;
+		packet.originX = origin.x;
+		packet.originY = origin.y;
+		packet.originZ = origin.z;
+		for (int lane = 0; lane < packet.raysCount; lane++) {
+			calcPixelDirection(xs[pixels[lane]], ys[pixels[lane]], imageWidth, imageHeight, scene.fovXdegree, direction);
+			packet.directionX[lane] = direction.x;
+			packet.directionY[lane] = direction.y;
+			packet.directionZ[lane] = direction.z;
+		}
+		scene.closestIntersections(packet, context);
+		for (int lane = 0; lane < packet.raysCount; lane++) {
+			int pixel = pixels[lane];
+			direction.set(packet.directionX[lane], packet.directionY[lane], packet.directionZ[lane]);
+			int sphere = packet.closestSphere[lane];
+			if (sphere < 0) {
+				if (primaryHits != null)
+					primaryHits.putMiss(xs[pixel], ys[pixel]);
+				sampleSkyBox(scene, direction, context, dest[pixel]);
+			} else {
+				// the full hit record of the nearest sphere or plane, the packet query keeps only the index and the distance
+				scene.objectIntersection(ray.reset(), sphere, hit);
+				if (primaryHits != null)
+					primaryHits.putHit(xs[pixel], ys[pixel], hit);
+				shadeHit(ray, scene, 0, depthOfRayTracing, 1, context, dest[pixel]);
+			}
+		}
+	}
+
+	/** Renders the color of a ray through a point inside a pixel, used for the additional
+	* samples of the anti-aliasing. The centers of the pixels are at integer coordinates, so the
+	* pixel (x, y) covers the coordinates x-0.5 to x+0.5 and y-0.5 to y+0.5. The exercises of the
+	* colors do not trace rays, they return the color of the nearest pixel.
+	* @param x the x coordinate of the point
+	* @param y the y coordinate of the point
+	* @param dest the vector that receives the color of the ray
+	* @return dest */	
+	public Vector3f renderSubPixel(float x, float y, Vector3f dest) {
+		ExerciseEnum exercise = this.exercise;
+		if (exercise.ordinal() <= ExerciseEnum.EX_1_3_Colors_linear.ordinal())
+			return dest.set(renderColorsExercise(Math.round(x), Math.round(y), exercise));
+		// read once, a change in the middle of the sample must neither count a ray that is not traced nor mix the tracers
+		int depthOfRayTracing = this.depthOfRayTracing;
+		TracerEnum tracer = this.tracer;
+		RenderScene scene = this.scene;
+		TraceContext context = pixelContext();
+		if (depthOfRayTracing > 0)
+			countPrimaryRay(context);
+		Ray ray = context.primaryRay.reset();
+		ray.origin.set(0, 0, 0);
+		calcPixelDirection(x, y, imageWidth, imageHeight, scene.fovXdegree, ray.direction);
+		if (tracer == TracerEnum.WAVEFRONT && depthOfRayTracing > 0)
+			return traceWavefront(-1, -1, ray.direction, scene, null, depthOfRayTracing, context, dest);
+		return rayTracing(ray, scene, 0, depthOfRayTracing, 1, context, dest);
+	}
+
+	// The exercises of the colors, they do not trace rays
+	private Vector3f renderColorsExercise(int x, int y, ExerciseEnum exercise) {
 		if (exercise == ExerciseEnum.EX_0___Starting_point)
 			return new Vector3f(0);
 		else if (exercise == ExerciseEnum.EX_1_0_Colors_one_color) {
@@ -114,75 +467,137 @@ public class WorldModel {
 			else
 				return new Vector3f(c1.mul(c1Coeff).add(c2.mul(c2Coeff)));			
 		} else {
-			Vector3f direction = calcPixelDirection(x, y, imageWidth, imageHeight, model.fovXdegree);
-			Vector3f color = rayTracing(new Vector3f(0,0,0), direction, model, skyBoxImageSphereTexture, 0);
-			return new Vector3f(color);			
+			return new Vector3f(0);
 		}
 	}
 
 	/** Performs ray tracing for a given ray.
-	 * @param incidentRayOrigin The origin of the incident ray.
-	 * @param incidentRayDirection The direction of the incident ray.
-	 * @param model The model containing spheres and materials.
-	 * @param skyBoxImageSphereTexture The texture for the skybox.
+	 * @param ray The incident ray, its tMax is narrowed to the distance of its nearest hit.
+	 * @param scene The compiled scene containing spheres, materials, lights and the skybox.
 	 * @param depthLevel The current depth level of the recursion (for limiting recursion).
-	 * @return The calculated color for the pixel based on ray tracing and lighting effects. */	
-	private static Vector3f rayTracing(Vector3f incidentRayOrigin, Vector3f incidentRayDirection, Model model,
-			SphereTexture skyBoxImageSphereTexture, int depthLevel) {
+	 * @param depthOfRayTracing The maximal depth level of the recursion.
+	 * @param throughput The weight of the color of the ray in the color of the pixel, 1 for the primary ray.
+	 * @param context The scratch memory of the calling thread.
+	 * @param returnedColor The vector that receives the color, must not be a vector of the frames of deeper levels.
+	 * @return returnedColor, the calculated color for the pixel based on ray tracing and lighting effects. */	
+	private static Vector3f rayTracing(Ray ray, RenderScene scene,
+			int depthLevel, int depthOfRayTracing, float throughput, TraceContext context, Vector3f returnedColor) {
 		
-		Vector3f returnedColor = new Vector3f(0.0F);
+		returnedColor.set(0.0F);
 		if (depthLevel == depthOfRayTracing) {
 		      return returnedColor;
 		}
 		
-		IntersectionResults intersectionResults = rayIntersection(incidentRayOrigin, incidentRayDirection, model.spheres);
-		
-		if(intersectionResults == null)
-			return skyBoxImageSphereTexture.sampleDirectionFromMiddle(incidentRayDirection);
-		
-		ModelSphere intersectedSphere = intersectionResults.intersectedSphere;
-	    ModelMaterial intersectedSphereMaterial = model.materials.get(intersectedSphere.materialIndex);
+		TraceContext.Frame frame = context.frame(depthLevel);
+		if (!scene.closestIntersection(ray, context, frame.hit))
+			return sampleSkyBox(scene, ray.direction, context, returnedColor);
+		return shadeHit(ray, scene, depthLevel, depthOfRayTracing, throughput, context, returnedColor);
+	}
+
+	/** Calculates the color of a ray whose nearest hit is already in the hit record of the frame of its depth level.
+	 * @param ray The incident ray.
+	 * @param scene The compiled scene containing spheres, materials, lights and the skybox.
+	 * @param depthLevel The current depth level of the recursion, lower than depthOfRayTracing.
+	 * @param depthOfRayTracing The maximal depth level of the recursion.
+	 * @param throughput The weight of the color of the ray in the color of the pixel, 1 for the primary ray.
+	 * @param context The scratch memory of the calling thread.
+	 * @param returnedColor The vector that receives the color, must not be a vector of the frames of deeper levels.
+	 * @return returnedColor, the calculated color of the ray. */	
+	private static Vector3f shadeHit(Ray ray, RenderScene scene,
+			int depthLevel, int depthOfRayTracing, float throughput, TraceContext context, Vector3f returnedColor) {
+		Vector3f incidentRayDirection = ray.direction;
+		TraceContext.Frame frame = context.frame(depthLevel);
+		IntersectionResults intersectionResults = frame.hit;
+		shadeSurface(intersectionResults, scene, frame, context, returnedColor);
+
+		// the reflected and the transmitted rays of the last level return black, and a ray whose weight
+		// in the pixel is too small to change it is not traced at all
+		if (depthLevel + 1 == depthOfRayTracing)
+			return returnedColor;
+
+		float[] materials = scene.materials;
+	    int material = scene.materialOffset(intersectionResults.sphereIndex);
 	    Vector3f intersectionPoint = intersectionResults.intersectionPoint;
 	    Vector3f intersectionNormal = intersectionResults.normal;
-	    boolean intersectionFromOutsideOfSphere = intersectionResults.rayFromOutsideOfSphere;
-	    SphereTexture intersectedSphereTexture = model.skyBoxImageSphereTextures.get(intersectedSphere.textureIndex);
-		
-		Vector3f color = new Vector3f(intersectedSphereMaterial.color);
-		returnedColor.add(color.mul(intersectedSphereMaterial.kColor));
-		
-		ModelLight light = model.lights.get(0);
-		Vector3f lightLocation = new Vector3f(light.location);
-		
-		Vector3f kd = new Vector3f(intersectedSphereMaterial.kd);
-		Vector3f ks = new Vector3f(intersectedSphereMaterial.ks);
-		Vector3f ka = new Vector3f(intersectedSphereMaterial.ka);
+
+		//add reflected light ex 7
+		float kReflection = pathWeight(materials[material + RenderScene.MATERIAL_K_REFLECTION], throughput, context);
+		if (kReflection != 0) {
+			Vector3f reflectedLight = calcReflectedLight(incidentRayDirection, intersectionPoint, intersectionNormal, scene, depthLevel, depthOfRayTracing, throughput * kReflection, context, frame.secondaryLight);
+			returnedColor.add(reflectedLight.mul(kReflection));
+		}
+
+		float kTransmission = pathWeight(materials[material + RenderScene.MATERIAL_K_TRANSMISSION], throughput, context);
+		if (kTransmission != 0) {
+			float refractiveIndexIntersectedSphere = materials[material + RenderScene.MATERIAL_REFRACTIVE_INDEX];
+			Vector3f transmittedLight = calcTransmissionLight(incidentRayDirection, intersectionPoint, intersectionNormal, intersectionResults.rayFromOutsideOfSphere, refractiveIndexIntersectedSphere, scene, depthLevel, depthOfRayTracing, throughput * kTransmission, context, frame.secondaryLight);
+			returnedColor.add(transmittedLight.mul(kTransmission));
+		}
+
+		return returnedColor;
+	}
+
+	/** Calculates the color of a hit without the reflected and the transmitted light, the color of the material
+	 * and the direct light weighted by their coefficients. The shadow rays of the direct light are traced here.
+	 * @param intersectionResults The hit.
+	 * @param scene The compiled scene containing spheres, materials, lights and the skybox.
+	 * @param frame The frame whose vectors are used as scratch, its hit record is not read.
+	 * @param context The scratch memory of the calling thread.
+	 * @param returnedColor The vector that receives the color.
+	 * @return returnedColor, the color of the surface at the hit. */
+	static Vector3f shadeSurface(IntersectionResults intersectionResults, RenderScene scene,
+			TraceContext.Frame frame, TraceContext context, Vector3f returnedColor) {
+		returnedColor.set(0.0F);
+		int intersectedSphere = intersectionResults.sphereIndex;
+		float[] materials = scene.materials;
+	    int material = scene.materialOffset(intersectedSphere);
+	    Vector3f intersectionPoint = intersectionResults.intersectionPoint;
+	    Vector3f intersectionNormal = intersectionResults.normal;
+	    SphereTexture intersectedSphereTexture = scene.texture(intersectedSphere);
+
+		Vector3f color = RenderScene.getVector(materials, material + RenderScene.MATERIAL_COLOR, frame.color);
+		returnedColor.add(color.mul(materials[material + RenderScene.MATERIAL_K_COLOR]));
 		
-		float kDirect = intersectedSphereMaterial.kDirect;
-		float shininess = intersectedSphereMaterial.shininess;
-		float kTexture = intersectedSphereMaterial.kTexture;
+		Vector3f kd = RenderScene.getVector(materials, material + RenderScene.MATERIAL_KD, frame.kd);
+		Vector3f ks = RenderScene.getVector(materials, material + RenderScene.MATERIAL_KS, frame.ks);
+		Vector3f ka = RenderScene.getVector(materials, material + RenderScene.MATERIAL_KA, frame.ka);
 		
-		Vector3f newK_diffuse = calcKdCombinedWithTexture(intersectionPoint, intersectedSphere.center, intersectedSphereTexture, kd, kTexture);
+		float kDirect = materials[material + RenderScene.MATERIAL_K_DIRECT];
+		float shininess = materials[material + RenderScene.MATERIAL_SHININESS];
+		float kTexture = materials[material + RenderScene.MATERIAL_K_TEXTURE];
 		
-		boolean isIntersectionPointInShadow = isPointInShadow(lightLocation, intersectionPoint, intersectionNormal, model);
+		Vector3f newK_diffuse;
+		if (intersectedSphere < scene.spheresCount) {
+			Vector3f intersectedSphereCenter = RenderScene.getVector(scene.sphereCenters, 3 * intersectedSphere, frame.sphereCenter);
+			newK_diffuse = calcKdCombinedWithTexture(intersectionPoint, intersectedSphereCenter, intersectedSphereTexture, kd, kTexture, context, frame.kdCombined);
+		} else
+			newK_diffuse = calcKdCombinedWithPlaneTexture(intersectionPoint, intersectedSphere - scene.spheresCount, intersectedSphereTexture, kd, kTexture, scene, context, frame.kdCombined);
 		
-		Vector3f directLight = isIntersectionPointInShadow ? 
-				new Vector3f(ka) :
-				lightingEquation(intersectionPoint, intersectionNormal, lightLocation, newK_diffuse, ks, ka, shininess);
+		Vector3f directLight = calcDirectLight(intersectionPoint, intersectionNormal, newK_diffuse, ks, ka, shininess, kDirect, scene, context, frame.directLight);
 		
 		directLight.mul(kDirect);
-		returnedColor.add(directLight);
-		
-		//add reflected light ex 7
-		Vector3f reflectedLight = calcReflectedLight(incidentRayDirection, intersectionPoint, intersectionNormal, model, skyBoxImageSphereTexture, depthLevel);
-		float kReflection = intersectedSphereMaterial.kReflection;
-		returnedColor.add(new Vector3f(reflectedLight).mul(kReflection));
-		
-		float refractiveIndexIntersectedSphere = intersectedSphereMaterial.refractiveIndex;
-		Vector3f transmittedLight = calcTransmissionLight(incidentRayDirection, intersectionPoint, intersectionNormal, intersectionFromOutsideOfSphere, refractiveIndexIntersectedSphere, model, skyBoxImageSphereTexture, depthLevel);
-		float kTransmission = intersectedSphereMaterial.kTransmission;
-		returnedColor.add(new Vector3f(transmittedLight).mul(kTransmission));
-		
-		return returnedColor;
+		return returnedColor.add(directLight);
+	}
+
+	/** Decides whether a reflected or a transmitted ray is traced, from the weight it would have in the pixel.
+	 * A ray whose weight is at least {@link #MIN_PATH_THROUGHPUT} is traced with its coefficient. A ray with a
+	 * smaller weight is not traced, or with the Russian roulette it is traced with the probability of its weight
+	 * relative to the minimum and with its coefficient divided by this probability, so the expected color of
+	 * the pixel does not change.
+	 * @param coefficient The coefficient of the ray in the color of the hit, kReflection or kTransmission.
+	 * @param throughput The weight of the color of the hit in the color of the pixel.
+	 * @param context The scratch memory of the calling thread, holds the setting of the Russian roulette.
+	 * @return the coefficient of the ray, 0 if it is not traced. */
+	static float pathWeight(float coefficient, float throughput, TraceContext context) {
+		if (coefficient == 0)
+			return 0;
+		float weight = throughput * coefficient;
+		if (weight >= MIN_PATH_THROUGHPUT)
+			return coefficient;
+		if (!context.russianRoulette)
+			return 0;
+		float survivalProbability = weight / MIN_PATH_THROUGHPUT;
+		return ThreadLocalRandom.current().nextFloat() < survivalProbability ? coefficient / survivalProbability : 0;
 	}
 
 	
@@ -194,6 +609,31 @@ public class WorldModel {
 	 * @param fovXdegree The horizontal field of view in degrees.
 	 * @return The normalized direction vector of the ray for the given pixel. */	
 	static Vector3f calcPixelDirection(int x, int y, int imageWidth, int imageHeight, float fovXdegree) {
+		return calcPixelDirection(x, y, imageWidth, imageHeight, fovXdegree, new Vector3f());
+	}
+
+	/** Calculates the direction of a ray for a given pixel in the image into a vector of the caller.
+	 * @param x The x-coordinate of the pixel.
+	 * @param y The y-coordinate of the pixel.
+	 * @param imageWidth The width of the image.
+	 * @param imageHeight The height of the image.
+	 * @param fovXdegree The horizontal field of view in degrees.
+	 * @param dest The vector that receives the direction.
+	 * @return dest, the normalized direction vector of the ray for the given pixel. */	
+	static Vector3f calcPixelDirection(int x, int y, int imageWidth, int imageHeight, float fovXdegree, Vector3f dest) {
+		return calcPixelDirection((float) x, (float) y, imageWidth, imageHeight, fovXdegree, dest);
+	}
+
+	/** Calculates the direction of a ray through any point of the image, same as
+	 * {@link #calcPixelDirection(int, int, int, int, float, Vector3f)} for the centers of the pixels.
+	 * @param x The x-coordinate of the point, in pixels.
+	 * @param y The y-coordinate of the point, in pixels.
+	 * @param imageWidth The width of the image.
+	 * @param imageHeight The height of the image.
+	 * @param fovXdegree The horizontal field of view in degrees.
+	 * @param dest The vector that receives the direction.
+	 * @return dest, the normalized direction vector of the ray through the point. */	
+	static Vector3f calcPixelDirection(float x, float y, int imageWidth, int imageHeight, float fovXdegree, Vector3f dest) {
 		float fovX = fovXdegree * (float)Math.PI / 180;
 		float fovY = (fovX / (float) imageWidth) * imageHeight; 
 		
@@ -213,7 +653,7 @@ public class WorldModel {
 		float yCoeff = yBottom + y * yDelta;
 		
 		
-		return new Vector3f(xCoeff, yCoeff, -1).normalize();
+		return dest.set(xCoeff, yCoeff, -1).normalize();
 	}
 
 	/** Calculates the intersection(s) between a ray and a sphere.
@@ -270,23 +710,25 @@ public class WorldModel {
 	}
 
 
-	/** Finds the nearest intersection between a ray and a list of spheres.
+	/** Finds the nearest intersection between a ray and a list of spheres by testing all of them.
+	 * The nearest intersection is the one with the shortest distance along the ray from its start.
+	 * Used as the reference for the results of {@link SphereAccelerator#closestIntersection}.
 	 * @param rayStart The starting point of the ray.
 	 * @param rayDirection The normalized direction of the ray.
 	 * @param spheres The list of spheres to check for intersections.
 	 * @return An IntersectionResults object containing information about the nearest intersection,
 	 *         or an empty IntersectionResults object if no intersection occurs. */	
-	private static IntersectionResults rayIntersection(Vector3f rayStart, Vector3f rayDirection,
+	static IntersectionResults rayIntersection(Vector3f rayStart, Vector3f rayDirection,
 			List<ModelSphere> spheres) {
 		IntersectionResults closestIntersectionResult = null;
-		float closestZ = Float.MAX_VALUE;
+		float closestDistance = Float.MAX_VALUE;
 		for(ModelSphere sphere : spheres) {
 			IntersectionResults intersectionResult = rayIntersection(rayStart, rayDirection, sphere);
 			
 			if (intersectionResult != null) {
-				float z = -1 * intersectionResult.intersectionPoint.z;
-				if( z < closestZ) {
-					closestZ = z;
+				float distance = intersectionResult.intersectionPoint.distance(rayStart);
+				if( distance < closestDistance) {
+					closestDistance = distance;
 					closestIntersectionResult = intersectionResult;
 				}
 			}
@@ -326,6 +768,60 @@ public class WorldModel {
 		return returnedColor;
 	}
 
+	/** Calculates the direct light at a specific point from all the lights of the scene, without allocating.
+	 * Every light adds the diffuse and the specular terms of the lighting equation weighted by its
+	 * intensity, unless the point is in its shadow. The ambient term is added once.
+	 * The terms of a light are calculated before its shadow ray, and a light whose unshadowed
+	 * contribution is too small to change the color is skipped without casting the shadow ray,
+	 * e.g. every light behind the surface.
+	 * @param point The point on the sphere
+	 * @param pointNormal Normal vector to the point
+	 * @param Kd The diffuse color coefficient of the material (combined with the texture).
+	 * @param Ks The specular color coefficient of the material.
+	 * @param Ka The ambient color coefficient of the material.
+	 * @param shininess The shininess parameter for specular highlights.
+	 * @param kDirect The weight of the direct light in the color of the point.
+	 * @param scene The compiled scene with the lights and the spheres that cast shadows.
+	 * @param context The scratch memory of the calling thread.
+	 * @param returnedColor The vector that receives the direct light.
+	 * @return returnedColor, the direct light before it is weighted by kDirect. */	
+	static Vector3f calcDirectLight(Vector3f point, Vector3f pointNormal, Vector3f Kd, Vector3f Ks, Vector3f Ka,
+			float shininess, float kDirect, RenderScene scene, TraceContext context, Vector3f returnedColor) {
+		Vector3f ambientColor = Ka;
+		returnedColor.set(ambientColor);
+		if (scene.lightsCount == 0 || kDirect == 0)
+			return returnedColor;
+
+		// the lights that are skipped together change the color by less than MIN_LIGHTS_CONTRIBUTION
+		float minLightContribution = MIN_LIGHTS_CONTRIBUTION / (scene.lightsCount * kDirect);
+		float maxKd = Math.max(Kd.x, Math.max(Kd.y, Kd.z));
+		float maxKs = Math.max(Ks.x, Math.max(Ks.y, Ks.z));
+		Vector3f eyeVector = context.eyeDirection.set(0,0,0).sub(point).normalize();
+		for (int light = 0; light < scene.lightsCount; light++) {
+			int offset = light * RenderScene.LIGHT_STRIDE;
+			Vector3f lightLocation = RenderScene.getVector(scene.lights, offset + RenderScene.LIGHT_LOCATION, context.lightLocation);
+			float intensity = scene.lights[offset + RenderScene.LIGHT_INTENSITY];
+
+			Vector3f lightDir = lightLocation.sub(point, context.lightDirection).normalize();
+			float angleNormalToLight = Math.max(0, pointNormal.dot(lightDir));
+			float lightNormalCos = lightDir.dot(pointNormal);
+			Vector3f R = context.reflectedLightDirection.set(0,0,0);
+			if(lightNormalCos >= 0) {
+					R.set(pointNormal).mul(2*lightNormalCos).sub(lightDir).normalize();
+			}
+			float angleShininess = Math.max(0, (float)Math.pow((double)eyeVector.dot(R), (double)shininess));
+
+			if ((maxKd * angleNormalToLight + maxKs * angleShininess) * intensity < minLightContribution)
+				continue;
+			if (isPointInShadow(lightLocation, point, pointNormal, scene, context))
+				continue;
+
+			returnedColor.add(Kd.mul(angleNormalToLight * intensity, context.lightColor));
+			returnedColor.add(Ks.mul(angleShininess * intensity, context.lightColor));
+		}
+		return returnedColor;
+	}
+
 
 	/**
 	 * Calculates the combined diffuse reflection coefficient (Kd) for a point on the surface of a sphere,
@@ -346,38 +842,104 @@ public class WorldModel {
 			Vector3f intersectedSphereKd,
 			float kTexture) {
 		Vector3f centerToIntersectionDir = new Vector3f(intersectionPoint).sub(intersectedSphereCenter);
-		Vector3f textureColor = new Vector3f(intersectedSphereTexture.sampleDirectionFromMiddle(centerToIntersectionDir));
+		Vector3f textureColor = intersectedSphereTexture.sampleDirectionFromMiddle(centerToIntersectionDir, new Vector3f());
 		textureColor.mul(kTexture);
-		Vector3f Kdiffuse_texture = new Vector3f(intersectedSphereKd).mul(1-kTexture).add(textureColor);
-		return Kdiffuse_texture;
+		return new Vector3f(intersectedSphereKd).mul(1-kTexture).add(textureColor);
+	}
+
+	/**
+	 * Calculates the combined diffuse reflection coefficient (Kd) without allocating, like
+	 * {@link #calcKdCombinedWithTexture(Vector3f, Vector3f, SphereTexture, Vector3f, float)} but the texture
+	 * is sampled with {@link SphereTexture#sampleDirectionFromMiddleFast(Vector3f, Vector3f)}.
+	 * 
+	 * @param intersectionPoint the point of intersection on the sphere's surface in 3D space.
+	 * @param intersectedSphereCenter the center of the intersected sphere.
+	 * @param intersectedSphereTexture the texture applied to the sphere.
+	 * @param intersectedSphereKd the base diffuse reflection coefficient of the sphere's material.
+	 * @param kTexture the blending factor between the base Kd and the texture color.
+	 * @param context the scratch memory of the calling thread.
+	 * @param Kdiffuse_texture the vector that receives the combined Kd.
+	 * @return Kdiffuse_texture
+	 */
+	static Vector3f calcKdCombinedWithTexture(
+			Vector3f intersectionPoint,
+			Vector3f intersectedSphereCenter,
+			SphereTexture intersectedSphereTexture,
+			Vector3f intersectedSphereKd,
+			float kTexture,
+			TraceContext context,
+			Vector3f Kdiffuse_texture) {
+		Vector3f centerToIntersectionDir = intersectionPoint.sub(intersectedSphereCenter, context.textureDirection);
+		Vector3f textureColor = intersectedSphereTexture.sampleDirectionFromMiddleFast(centerToIntersectionDir, context.textureColor);
+		if (context.counters != null)
+			context.counters.textureSamples++;
+		textureColor.mul(kTexture);
+		return Kdiffuse_texture.set(intersectedSphereKd).mul(1-kTexture).add(textureColor);
 	}	
 
 
+	/**
+	 * Calculates the diffuse coefficient of a point of a plane combined with the texture of the plane,
+	 * same as {@link #calcKdCombinedWithTexture(Vector3f, Vector3f, SphereTexture, Vector3f, float, TraceContext, Vector3f)}
+	 * but the texture is repeated over the plane in tiles.
+	 * 
+	 * @param intersectionPoint the point on the plane.
+	 * @param plane the index of the plane in the scene.
+	 * @param planeTexture the texture of the plane.
+	 * @param planeKd the diffuse coefficient of the material of the plane.
+	 * @param kTexture the weight of the texture in the combined coefficient.
+	 * @param scene the compiled scene.
+	 * @param context the scratch memory of the calling thread.
+	 * @param Kdiffuse_texture the vector that receives the combined Kd.
+	 * @return Kdiffuse_texture
+	 */
+	static Vector3f calcKdCombinedWithPlaneTexture(
+			Vector3f intersectionPoint,
+			int plane,
+			SphereTexture planeTexture,
+			Vector3f planeKd,
+			float kTexture,
+			RenderScene scene,
+			TraceContext context,
+			Vector3f Kdiffuse_texture) {
+		Vector3f textureColor = scene.samplePlaneTexture(plane, intersectionPoint, planeTexture, context.textureColor);
+		if (context.counters != null)
+			context.counters.textureSamples++;
+		textureColor.mul(kTexture);
+		return Kdiffuse_texture.set(planeKd).mul(1-kTexture).add(textureColor);
+	}
+
+
 	/**
 	 * Determines whether a given point is in shadow with respect to a specified light source.
 	 * 
 	 * <p>The method calculates a shadow ray originating just above the surface of the given point
 	 * (offset slightly along the surface normal to prevent self-intersection) and checks whether
-	 * this ray intersects with any objects in the scene model.</p>
+	 * this ray intersects with any objects in the scene model before it reaches the light.
+	 * The occlusion query stops at the first object found and calculates no intersection point.</p>
 	 * 
 	 * @param lightLocation the position of the light source in 3D space.
 	 * @param point the position of the point being tested for shadow in 3D space.
 	 * @param pointNormal the surface normal vector at the point, used to offset the shadow ray origin.
-	 * @param model the {@link Model} representing the scene, containing the objects (e.g., spheres) to check for intersection.
+	 * @param scene the compiled scene, containing the objects (e.g., spheres) to check for intersection.
+	 * @param context the scratch memory of the calling thread.
 	 * @return {@code true} if the point is in shadow (i.e., the shadow ray intersects with any objects), {@code false} otherwise.
 	 */
 	static boolean isPointInShadow(
 			Vector3f lightLocation,
 			Vector3f point,
 			Vector3f pointNormal,
-			Model model) {
+			RenderScene scene,
+			TraceContext context) {
 				
-		Vector3f lightPointDir = (new Vector3f(lightLocation).sub(point)).normalize();
-		Vector3f normalOffset = new Vector3f(pointNormal).mul(0.01f);
-		Vector3f closePoint = new Vector3f(point).add(normalOffset);
-
-		IntersectionResults intersectionResults = rayIntersection(closePoint, lightPointDir, model.spheres);
-		return intersectionResults != null;
+		Ray shadowRay = context.shadowRay;
+		shadowRay.direction.set(lightLocation).sub(point).normalize();
+		// the ray starts off the surface on the side of the normal, and only spheres between it and the light block it
+		shadowRay.setFromSurface(point, pointNormal, true);
+		shadowRay.tMax = shadowRay.origin.distance(lightLocation);
+		if (context.counters != null)
+			context.counters.shadowRays++;
+		return scene.anyIntersection(shadowRay, context);
 	}	
 
 	
@@ -393,17 +955,23 @@ public class WorldModel {
 	 * @param intersectionPoint the point on the surface where the reflection occurs.
 	 * @param intersectionNormal the normal vector at the intersection point.
 	 * @param kReflection the reflection coefficient, controlling the intensity of the reflected light.
-	 * @param model the {@link Model} representing the scene, containing objects for ray tracing.
-	 * @param skyBoxImageSphereTexture the texture of the skybox used to simulate distant reflections.
+	 * @param scene the compiled scene, containing objects for ray tracing and the skybox used to simulate distant reflections.
 	 * @param depthLevel the current recursion depth, used to limit the number of reflection bounces.
-	 * @return a {@link Vector3f} representing the color/intensity of the reflected light at the intersection point.
+	 * @param depthOfRayTracing the maximal recursion depth.
+	 * @param throughput the weight of the reflected light in the color of the pixel.
+	 * @param context the scratch memory of the calling thread.
+	 * @param reflectedLight the vector that receives the reflected light.
+	 * @return reflectedLight, representing the color/intensity of the reflected light at the intersection point.
 	 */
 	static Vector3f calcReflectedLight(Vector3f incidentRayDirection, 
 	                                   Vector3f intersectionPoint, 
 	                                   Vector3f intersectionNormal, 
-	                                   Model model, 
-	                                   SphereTexture skyBoxImageSphereTexture, 
-	                                   int depthLevel) {
+	                                   RenderScene scene, 
+	                                   int depthLevel,
+	                                   int depthOfRayTracing,
+	                                   float throughput,
+	                                   TraceContext context,
+	                                   Vector3f reflectedLight) {
 //		Vector3f reflectedRayDirection = (
 //						new Vector3f(intersectionNormal)
 //							.mul(new Vector3f(incidentRayDirection)
@@ -412,10 +980,32 @@ public class WorldModel {
 //						)
 //						.sub(incidentRayDirection);
 		
-		Vector3f reflectedRayDirection = (new Vector3f(incidentRayDirection))
-			      .sub((new Vector3f(intersectionNormal)).mul(2.0F * incidentRayDirection.dot(intersectionNormal)));
-				
-        return	rayTracing(intersectionPoint, reflectedRayDirection.normalize(), model, skyBoxImageSphereTexture, depthLevel + 1);		
+		Ray reflectedRay = reflectedRay(incidentRayDirection, intersectionPoint, intersectionNormal, context.frame(depthLevel).secondaryRay);
+		RenderCounters counters = context.counters;
+		if (counters != null) {
+			counters.reflectionRays++;
+			counters.countDepth(depthLevel + 1);
+		}
+        return	rayTracing(reflectedRay, scene, depthLevel + 1, depthOfRayTracing, throughput, context, reflectedLight);		
+	}
+
+	/**
+	 * Sets a ray to the reflection of an incident ray at a point of a surface.
+	 * 
+	 * @param incidentRayDirection the direction of the incoming ray hitting the surface.
+	 * @param intersectionPoint the point on the surface where the reflection occurs.
+	 * @param intersectionNormal the normal vector at the intersection point.
+	 * @param reflectedRay the ray that receives the reflected ray, with its interval opened.
+	 * @return reflectedRay
+	 */
+	static Ray reflectedRay(Vector3f incidentRayDirection, Vector3f intersectionPoint, Vector3f intersectionNormal, Ray reflectedRay) {
+		Vector3f reflectedRayDirection = reflectedRay.direction.set(intersectionNormal)
+				.mul(2.0F * incidentRayDirection.dot(intersectionNormal));
+		incidentRayDirection.sub(reflectedRayDirection, reflectedRayDirection);
+		// the reflected ray starts on the surface, tMin skips the surface itself
+		reflectedRayDirection.normalize();
+		reflectedRay.origin.set(intersectionPoint);
+		return reflectedRay.reset();
 	}
 
 	
@@ -437,24 +1027,66 @@ public class WorldModel {
 	 *                                         enters the sphere from outside, {@code false} if exiting.
 	 * @param refractiveIndexIntersectedSphere the refractive index of the intersected sphere material.
 	 * @param kTransmission the transmission coefficient, controlling the intensity of the transmitted light.
-	 * @param model the {@link Model} representing the scene, containing objects for ray tracing.
-	 * @param skyBoxImageSphereTexture the texture of the skybox used to simulate distant light transmission.
+	 * @param scene the compiled scene, containing objects for ray tracing and the skybox used to simulate distant light transmission.
 	 * @param depthLevel the current recursion depth, used to limit the number of refraction bounces.
-	 * @return a {@link Vector3f} representing the color/intensity of the transmitted light at the intersection point.
+	 * @param depthOfRayTracing the maximal recursion depth.
+	 * @param throughput the weight of the transmitted light in the color of the pixel.
+	 * @param context the scratch memory of the calling thread.
+	 * @param transmittedLight the vector that receives the transmitted light.
+	 * @return transmittedLight, representing the color/intensity of the transmitted light at the intersection point,
+	 *         black on a total internal reflection.
 	 */
 	static Vector3f calcTransmissionLight(Vector3f incidentRayDirection, 
 	                                      Vector3f intersectionPoint, 
 	                                      Vector3f intersectionNormal, 
 	                                      boolean intersectionFromOutsideOfSphere, 
 	                                      float refractiveIndexIntersectedSphere, 
-	                                      Model model, 
-	                                      SphereTexture skyBoxImageSphereTexture, 
-	                                      int depthLevel) {
-		Vector3f transmittedRayDirection = YoursUtilities.calcTransmissionRay(incidentRayDirection, intersectionNormal, refractiveIndexIntersectedSphere, intersectionFromOutsideOfSphere);
-		Vector3f originRay = (new Vector3f(intersectionNormal).mul(intersectionFromOutsideOfSphere ? -0.01F : 0.01F)).add(intersectionPoint);
+	                                      RenderScene scene, 
+	                                      int depthLevel,
+	                                      int depthOfRayTracing,
+	                                      float throughput,
+	                                      TraceContext context,
+	                                      Vector3f transmittedLight) {
+		Ray transmittedRay = context.frame(depthLevel).secondaryRay;
+		if (!transmittedRay(incidentRayDirection, intersectionPoint, intersectionNormal, intersectionFromOutsideOfSphere,
+				refractiveIndexIntersectedSphere, context, transmittedRay))
+			return transmittedLight.set(0.0F);
+		RenderCounters counters = context.counters;
+		if (counters != null) {
+			counters.transmissionRays++;
+			counters.countDepth(depthLevel + 1);
+		}
 		
-		return rayTracing(originRay, transmittedRayDirection.normalize(), model, skyBoxImageSphereTexture, depthLevel + 1);
+		return rayTracing(transmittedRay, scene, depthLevel + 1, depthOfRayTracing, throughput, context, transmittedLight);
 	}
-}
-
 
+	/**
+	 * Sets a ray to the transmission of an incident ray through a point of the surface of a sphere.
+	 * 
+	 * @param incidentRayDirection the direction of the incoming ray hitting the surface.
+	 * @param intersectionPoint the point on the surface where the refraction occurs.
+	 * @param intersectionNormal the normal vector at the intersection point.
+	 * @param intersectionFromOutsideOfSphere {@code true} if the ray enters the sphere, {@code false} if it exits.
+	 * @param refractiveIndexIntersectedSphere the refractive index of the intersected sphere material.
+	 * @param context the scratch memory of the calling thread.
+	 * @param transmittedRay the ray that receives the transmitted ray, with its interval opened.
+	 * @return {@code false} on a total internal reflection, which has no transmitted ray.
+	 */
+	static boolean transmittedRay(Vector3f incidentRayDirection,
+	                              Vector3f intersectionPoint,
+	                              Vector3f intersectionNormal,
+	                              boolean intersectionFromOutsideOfSphere,
+	                              float refractiveIndexIntersectedSphere,
+	                              TraceContext context,
+	                              Ray transmittedRay) {
+		Vector3f transmittedRayDirection = YoursUtilities.calcTransmissionRay(incidentRayDirection, intersectionNormal, refractiveIndexIntersectedSphere, intersectionFromOutsideOfSphere,
+				context.transmissionNormal, transmittedRay.direction);
+		// a total internal reflection has no transmitted ray, its zero direction would make the color NaN
+		if (transmittedRayDirection.x == 0 && transmittedRayDirection.y == 0 && transmittedRayDirection.z == 0)
+			return false;
+		// the ray starts off the surface on the side it goes to
+		transmittedRay.setFromSurface(intersectionPoint, intersectionNormal, !intersectionFromOutsideOfSphere);
+		transmittedRayDirection.normalize();
+		return true;
+	}
+}
@@ -25,11 +25,29 @@ public class YoursUtilities {
      */	
 	static Vector3f calcTransmissionRay(Vector3f incidentRay, Vector3f normal,
 			float refractiveIndexIntersectedSphere, boolean rayFromOutside) {
+		return calcTransmissionRay(incidentRay, normal, refractiveIndexIntersectedSphere, rayFromOutside,
+				new Vector3f(), new Vector3f());
+	}
+
+    /**
+     * Calculates the direction of a transmission ray, same as
+     * {@link #calcTransmissionRay(Vector3f, Vector3f, float, boolean)} but without allocating.
+     *
+     * @param incidentRay                         The direction of the incoming ray.
+     * @param normal                              The normal vector at the surface point.
+     * @param refractiveIndexIntersectedSphere    The refractive index of the medium that the ray is entering or leaving.
+     * @param rayFromOutside                      Whether the ray is originating from outside the medium.
+     * @param normalScratch                       A vector used for the calculation, overwritten.
+     * @param dest                                The vector that receives the direction of the transmitted ray.
+     * @return                                    dest, a zero vector if total internal reflection occurs.
+     */	
+	static Vector3f calcTransmissionRay(Vector3f incidentRay, Vector3f normal,
+			float refractiveIndexIntersectedSphere, boolean rayFromOutside, Vector3f normalScratch, Vector3f dest) {
 		float refractiveIndexAir = 1.000293f;
 		float n1, n2;
 
-		Vector3f incidentRay_ = new Vector3f(incidentRay).normalize();
-		Vector3f normal_ = new Vector3f(normal).normalize();
+		Vector3f incidentRay_ = dest.set(incidentRay).normalize();
+		Vector3f normal_ = normalScratch.set(normal).normalize();
 		
 		// Determine indices of refraction based on the ray direction
 		if (rayFromOutside) {
@@ -56,15 +74,15 @@ public class YoursUtilities {
 
 		// Check for total internal reflection (if sin^2(theta2) > 1.0)
 		if (sinTheta2Sq > 1.0f) {
-			return new Vector3f(0.0f); // Total internal reflection
+			return dest.set(0.0f); // Total internal reflection
 		}
 
 		// Calculate cosTheta2 using trigonometric identity
 		float cosTheta2 = (float) Math.sqrt(1.0f - sinTheta2Sq);
 
 		// Compute the transmission direction using Snell's law
-		Vector3f transmittedDir = new Vector3f(incidentRay_).mul(ratio)
-				.add(new Vector3f(normal_).mul(ratio * cosTheta1 - cosTheta2));
+		Vector3f transmittedDir = incidentRay_.mul(ratio)
+				.add(normal_.mul(ratio * cosTheta1 - cosTheta2));
 
 		return transmittedDir.normalize(); // Return the normalized direction
 	}